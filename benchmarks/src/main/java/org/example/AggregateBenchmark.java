@@ -0,0 +1,78 @@
+package org.example;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks of {@link FormulaCell#evaluate(SpreadSheet)} computing an aggregate function over a
+ * range of numbers, by scanning the range or from the aggregate index of the column.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class AggregateBenchmark {
+    /**
+     * The aggregate function computed.
+     */
+    @Param({"SUMA", "MIN", "MAX", "PROMEDIO"})
+    public String function;
+
+    /**
+     * The number of cells in the range.
+     */
+    @Param({"1000", "100000", "1000000"})
+    public int rows;
+
+    /**
+     * Whether the column has an aggregate index.
+     */
+    @Param({"false", "true"})
+    public boolean indexed;
+
+    private SpreadSheet sheet;
+    private FormulaCell formula;
+
+    /**
+     * Fills a column with numbers and creates a formula aggregating the whole column but its first and
+     * last rows. When the column is indexed, checks that the index gives the same result as a scan.
+     *
+     * @throws IllegalStateException If the indexed result differs from the scanned one.
+     */
+    @Setup
+    public void setUp() {
+        sheet = SheetGenerator.numbers(rows);
+        formula = new FormulaCell("=" + function + "(A2:A" + (rows - 1) + ")");
+        if (indexed) {
+            double scanned = formula.evaluate(sheet);
+            sheet.setAggregateIndexEnabled(0, true);
+            double fromIndex = formula.evaluate(sheet);
+            if (Math.abs(fromIndex - scanned) > 1e-9 * Math.max(1, Math.abs(scanned))) {
+                throw new IllegalStateException(function + " from the index is " + fromIndex + ", scanning gives " + scanned);
+            }
+        }
+    }
+
+    /**
+     * Computes the aggregate over the range.
+     *
+     * @return The result of the aggregate.
+     */
+    @Benchmark
+    public double evaluate() {
+        return formula.evaluate(sheet);
+    }
+}
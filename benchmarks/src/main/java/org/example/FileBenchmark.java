@@ -0,0 +1,99 @@
+package org.example;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks of loading spreadsheets from CSV files with {@link FileManager} and exporting them back.
+ * The files have {@link SheetGenerator#GRID_COLUMNS} columns mixing numbers, text and formulas.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 2, jvmArgs = {"-Xmx4g"})
+public class FileBenchmark {
+    /**
+     * The number of records of the CSV file.
+     */
+    @Param({"1000", "100000", "1000000"})
+    public int rows;
+
+    private Path directory;
+    private String input;
+    private String output;
+    private SpreadSheet loaded;
+    private final FileManager fileManager = new FileManager();
+
+    /**
+     * Writes the CSV file and loads it once for the export benchmark.
+     *
+     * @throws IOException If the file cannot be written.
+     */
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("spreadsheet-benchmark");
+        input = directory.resolve("input.csv").toString();
+        output = directory.resolve("output.csv").toString();
+        SheetGenerator.writeCsv(input, rows);
+        loaded = FileManager.createSpreadsheet(input);
+        loaded.computeValues();
+    }
+
+    /**
+     * Deletes the files written by the benchmarks.
+     *
+     * @throws IOException If a file cannot be deleted.
+     */
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(Path.of(input));
+        Files.deleteIfExists(Path.of(output));
+        Files.deleteIfExists(directory);
+    }
+
+    /**
+     * Loads the CSV file with the streaming loader.
+     *
+     * @return The loaded spreadsheet.
+     */
+    @Benchmark
+    public SpreadSheet load() {
+        return FileManager.createSpreadsheet(input);
+    }
+
+    /**
+     * Loads the CSV file with the memory-mapped loader, using one thread per processor.
+     *
+     * @return The loaded spreadsheet.
+     */
+    @Benchmark
+    public SpreadSheet loadMapped() {
+        return FileManager.createSpreadsheetMapped(input, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Exports the values of the loaded spreadsheet to a CSV file.
+     */
+    @Benchmark
+    public void export() throws IOException {
+        fileManager.exportToCSV(loaded, output);
+    }
+}
@@ -0,0 +1,96 @@
+package org.example;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks of the legacy text pipeline of {@link ExpressionParser}: converting an infix expression
+ * with cell references to RPN, compiling the RPN expression into an {@link RpnProgram}, and evaluating
+ * the compiled program, whose references are read from the sheet.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class ParserBenchmark {
+    /**
+     * The expression converted, from a single operation to a long expression with nested parentheses.
+     */
+    @Param({"A1+B2", "A1+B2*3-(C3/2)", "((A1+B2)*(C3-D4)/2+E5*3-A2)*(B3+C4)/(D5+1)-E1*2+A3"})
+    public String expression;
+
+    private SpreadSheet sheet;
+    private ExpressionParser parser;
+    private String rpn;
+    private RpnProgram program;
+
+    /**
+     * Fills a 5x5 spreadsheet with numbers, and converts and compiles the expression once for the
+     * compile and evaluate benchmarks.
+     */
+    @Setup
+    public void setUp() {
+        sheet = new SpreadSheet(5, 5);
+        for (int row = 0; row < 5; row++) {
+            for (int column = 0; column < 5; column++) {
+                sheet.setNumber(row, column, row * 5 + column + 1);
+            }
+        }
+        parser = new ExpressionParser(sheet, null);
+        rpn = parser.infixToRPN(expression, sheet);
+        program = RpnProgram.compile(rpn);
+    }
+
+    /**
+     * Converts the expression to RPN, resolving its cell references.
+     *
+     * @return The RPN expression.
+     */
+    @Benchmark
+    public String infixToRPN() {
+        return parser.infixToRPN(expression, sheet);
+    }
+
+    /**
+     * Compiles the converted expression without the cache.
+     *
+     * @return The compiled program.
+     */
+    @Benchmark
+    public RpnProgram compile() {
+        return RpnProgram.compile(rpn);
+    }
+
+    /**
+     * Evaluates the compiled program.
+     *
+     * @return The result of the expression.
+     */
+    @Benchmark
+    public double evaluate() {
+        return program.evaluate(sheet);
+    }
+
+    /**
+     * Computes the converted expression, looking its compiled program up in the cache.
+     *
+     * @return The result of the expression.
+     */
+    @Benchmark
+    public double buildSyntaxTreeAndCompute() {
+        return ExpressionParser.buildSyntaxTreeAndCompute(rpn, sheet);
+    }
+}
@@ -0,0 +1,86 @@
+package org.example;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks of {@link SpreadSheet#computeValues()} on generated spreadsheets. Every invocation edits
+ * cell A1, which every formula depends on, and recalculates, so all formula cells are evaluated again.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 2, jvmArgs = {"-Xmx4g"})
+public class RecalculationBenchmark {
+    /**
+     * The dependency shape of the spreadsheet.
+     */
+    @Param({"CHAIN", "FAN", "GRID"})
+    public SheetGenerator.Shape shape;
+
+    /**
+     * The number of formula cells.
+     */
+    @Param({"10000", "100000"})
+    public int cells;
+
+    /**
+     * Whether independent formula cells are evaluated in parallel on a recalculation pool.
+     */
+    @Param({"false", "true"})
+    public boolean parallel;
+
+    private SpreadSheet sheet;
+    private ForkJoinPool pool;
+    private int edits;
+
+    /**
+     * Generates the spreadsheet.
+     */
+    @Setup(Level.Trial)
+    public void setUp() {
+        sheet = SheetGenerator.build(shape, cells);
+        if (parallel) {
+            pool = new ForkJoinPool();
+            sheet.setRecalculationPool(pool);
+        }
+    }
+
+    /**
+     * Shuts the recalculation pool down.
+     */
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        if (pool != null) {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Edits cell A1 and recalculates the spreadsheet.
+     *
+     * @return The spreadsheet, so that the recalculation is not optimized away.
+     */
+    @Benchmark
+    public SpreadSheet editAndRecalculate() {
+        sheet.setNumber(0, 0, ++edits % 100);
+        sheet.computeValues();
+        return sheet;
+    }
+}
@@ -0,0 +1,133 @@
+package org.example;
+
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.io.IOException;
+
+/**
+ * The SheetGenerator class builds spreadsheets and CSV files of a given size and dependency shape for
+ * the benchmarks. The generated contents only depend on the arguments, so every run measures the same work.
+ */
+public final class SheetGenerator {
+    /**
+     * Number of columns of the generated grids.
+     */
+    static final int GRID_COLUMNS = 20;
+
+    /**
+     * The dependency shapes of the generated spreadsheets. In every shape, all formulas depend directly
+     * or transitively on cell A1.
+     */
+    public enum Shape {
+        /**
+         * A single column where every cell depends on the one above it (A2=A1+1, A3=A2+1, ...).
+         */
+        CHAIN,
+        /**
+         * One number referenced by every formula of the second column (B1=A1*1, B2=A1*2, ...).
+         */
+        FAN,
+        /**
+         * A grid of {@link #GRID_COLUMNS} columns where every cell averages its left and upper neighbours,
+         * and the cells of the first row and column add one to their only neighbour.
+         */
+        GRID
+    }
+
+    private SheetGenerator() {
+    }
+
+    /**
+     * Builds a spreadsheet with about the given number of formula cells, recalculated once.
+     *
+     * @param shape The dependency shape.
+     * @param cells The number of formula cells.
+     * @return The generated spreadsheet.
+     */
+    static SpreadSheet build(Shape shape, int cells) {
+        SpreadSheet sheet;
+        switch (shape) {
+            case CHAIN:
+                sheet = new SpreadSheet(cells + 1, 1);
+                sheet.setNumber(0, 0, 1);
+                for (int row = 1; row <= cells; row++) {
+                    sheet.setFormula(row, 0, "=A" + row + "+1");
+                }
+                break;
+            case FAN:
+                sheet = new SpreadSheet(cells, 2);
+                sheet.setNumber(0, 0, 1);
+                for (int row = 0; row < cells; row++) {
+                    sheet.setFormula(row, 1, "=A1*" + (row + 1));
+                }
+                break;
+            default:
+                int rows = Math.max(2, (cells + 1) / GRID_COLUMNS);
+                sheet = new SpreadSheet(rows, GRID_COLUMNS);
+                sheet.setNumber(0, 0, 1);
+                for (int column = 1; column < GRID_COLUMNS; column++) {
+                    sheet.setFormula(0, column, "=" + CellReference.toString(0, column - 1) + "+1");
+                }
+                for (int row = 1; row < rows; row++) {
+                    sheet.setFormula(row, 0, "=" + CellReference.toString(row - 1, 0) + "+1");
+                    for (int column = 1; column < GRID_COLUMNS; column++) {
+                        sheet.setFormula(row, column, "=(" + CellReference.toString(row, column - 1)
+                                + "+" + CellReference.toString(row - 1, column) + ")/2");
+                    }
+                }
+                break;
+        }
+        sheet.computeValues();
+        return sheet;
+    }
+
+    /**
+     * Builds a spreadsheet with a single column of numbers.
+     *
+     * @param rows The number of rows.
+     * @return The generated spreadsheet.
+     */
+    static SpreadSheet numbers(int rows) {
+        SpreadSheet sheet = new SpreadSheet(rows, 1);
+        for (int row = 0; row < rows; row++) {
+            sheet.setNumber(row, 0, row % 1000);
+        }
+        return sheet;
+    }
+
+    /**
+     * Writes a CSV file of {@link #GRID_COLUMNS} columns mixing numbers, decimals, text and formulas.
+     *
+     * @param path The path of the file.
+     * @param rows The number of records.
+     * @throws IOException If the file cannot be written.
+     */
+    static void writeCsv(String path, int rows) throws IOException {
+        try (BufferedWriter writer = new BufferedWriter(new FileWriter(path))) {
+            StringBuilder line = new StringBuilder();
+            for (int row = 0; row < rows; row++) {
+                line.setLength(0);
+                for (int column = 0; column < GRID_COLUMNS; column++) {
+                    if (column > 0) {
+                        line.append(',');
+                    }
+                    switch (column % 4) {
+                        case 0:
+                            line.append(row + column);
+                            break;
+                        case 1:
+                            line.append((row * 31 + column) / 8.0);
+                            break;
+                        case 2:
+                            line.append("item").append(row);
+                            break;
+                        default:
+                            line.append('=').append(CellReference.toString(row, column - 3)).append("*2");
+                            break;
+                    }
+                }
+                writer.write(line.append('\n').toString());
+            }
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package org.example;
+
+/**
+ * The Accumulator class collects the values visited by an aggregate function. A single accumulator keeps
+ * the running sum, minimum, maximum and count of the values, so SUMA, MIN, MAX and PROMEDIO share one
+ * scan and only differ in the result they read at the end.
+ */
+public final class Accumulator {
+    private double sum;
+    private double min = Double.POSITIVE_INFINITY;
+    private double max = Double.NEGATIVE_INFINITY;
+    private int count;
+
+    /**
+     * Adds a value to the accumulator.
+     *
+     * @param value The value to add.
+     */
+    public void add(double value) {
+        sum += value;
+        min = Math.min(min, value);
+        max = Math.max(max, value);
+        count++;
+    }
+
+    /**
+     * Adds a group of values already aggregated, for example by a {@link ColumnAggregateIndex}.
+     *
+     * @param sum   The sum of the values.
+     * @param min   The minimum of the values.
+     * @param max   The maximum of the values.
+     * @param count The number of values.
+     */
+    public void merge(double sum, double min, double max, int count) {
+        this.sum += sum;
+        this.min = Math.min(this.min, min);
+        this.max = Math.max(this.max, max);
+        this.count += count;
+    }
+
+    /**
+     * Clears the accumulator so it can be reused for another aggregate.
+     */
+    public void reset() {
+        sum = 0;
+        min = Double.POSITIVE_INFINITY;
+        max = Double.NEGATIVE_INFINITY;
+        count = 0;
+    }
+
+    /**
+     * Gets the number of values added.
+     *
+     * @return The number of values.
+     */
+    public int getCount() {
+        return count;
+    }
+
+    /**
+     * Gets the result of an aggregate function over the values added.
+     *
+     * @param function The function name (SUMA, MIN, MAX or PROMEDIO).
+     * @return The sum, minimum, maximum or average of the values. The sum of no values is 0, and their
+     *         minimum, maximum and average are NaN.
+     */
+    public double result(String function) {
+        switch (function) {
+            case "SUMA":
+                return sum;
+            case "MIN":
+                return count > 0 ? min : Double.NaN;
+            case "MAX":
+                return count > 0 ? max : Double.NaN;
+            default:
+                return count > 0 ? sum / count : Double.NaN;
+        }
+    }
+}
@@ -0,0 +1,231 @@
+package org.example;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.Locale;
+
+/**
+ * The BatchRunner class applies a script of commands to the spreadsheets of a {@link SpreadSheet_Manager}
+ * without the interactive menu, so the engine can be driven by other programs. The script is read line by
+ * line, so it can be arbitrarily long. Every line holds one command, and blank lines and lines starting
+ * with "#" are ignored:
+ * <ul>
+ *     <li>{@code LOAD path}: opens a workbook file (".wbk") or loads a CSV file, and makes it the current sheet.</li>
+ *     <li>{@code NEW rows columns}: creates an empty spreadsheet and makes it the current sheet.</li>
+ *     <li>{@code SET cell content}: writes a number, text or formula (starting with "=") into a cell of the
+ *     current sheet, growing it if needed.</li>
+ *     <li>{@code RECALC}: recalculates the current sheet.</li>
+ *     <li>{@code EXPORT path}: exports the values of the current sheet to a CSV file.</li>
+ *     <li>{@code SAVE path}: saves the current sheet to a workbook file.</li>
+ *     <li>{@code PRINT}: prints the current sheet.</li>
+ * </ul>
+ * Consecutive SET commands are applied as one batch of the current sheet (see {@link SpreadSheet#beginBatch()}),
+ * which is committed, with a single recalculation, by the next other command, at the end of the script, or
+ * once it holds {@link #BATCH_LIMIT} assignments, since an open batch remembers every cell it wrote.
+ * A line that cannot be applied, such as an EXPORT whose file cannot be written, is reported with its line
+ * number, counted as an error and skipped.
+ */
+public class BatchRunner {
+    /**
+     * Number of SET commands after which the open batch is committed.
+     */
+    static final int BATCH_LIMIT = 100_000;
+
+    private final SpreadSheet_Manager manager;
+    private final PrintStream out;
+    private SpreadSheet current;
+    private int currentIndex = -1;
+    private long assignments;
+    private int pendingAssignments;
+    private long commands;
+    private long errors;
+
+    /**
+     * Constructs a runner applying scripts to the spreadsheets of a manager.
+     *
+     * @param manager The manager holding the spreadsheets.
+     * @param out     The stream receiving the output of PRINT, errors and the final report.
+     */
+    public BatchRunner(SpreadSheet_Manager manager, PrintStream out) {
+        this.manager = manager;
+        this.out = out;
+    }
+
+    /**
+     * Applies every command of a script and reports how many cells and commands were applied per second.
+     *
+     * @param script The reader of the script.
+     * @return The number of lines and batches that failed, including failed exports.
+     * @throws IOException If the script cannot be read.
+     */
+    public long run(BufferedReader script) throws IOException {
+        long started = System.nanoTime();
+        int lineNumber = 0;
+        String line;
+        while ((line = script.readLine()) != null) {
+            lineNumber++;
+            try {
+                execute(line, lineNumber);
+            } catch (Exception e) {
+                errors++;
+                out.println("Line " + lineNumber + ": " + e.getMessage());
+            }
+        }
+        commit("End of script");
+        double seconds = Math.max(System.nanoTime() - started, 1) / 1e9;
+        out.printf(Locale.ROOT, "Applied %d cell assignments and %d commands in %.3f s (%.0f cells/s), %d errors%n",
+                assignments, commands, seconds, assignments / seconds, errors);
+        return errors;
+    }
+
+    /**
+     * Applies one line of a script.
+     *
+     * @param line       The line.
+     * @param lineNumber The number of the line, to report a batch that fails to commit.
+     * @throws Exception If the command is unknown, malformed or fails.
+     */
+    private void execute(String line, int lineNumber) throws Exception {
+        String trimmed = line.strip();
+        if (trimmed.isEmpty() || trimmed.startsWith("#")) {
+            return;
+        }
+        int space = trimmed.indexOf(' ');
+        String command = (space < 0 ? trimmed : trimmed.substring(0, space)).toUpperCase(Locale.ROOT);
+        String argument = space < 0 ? "" : trimmed.substring(space + 1).strip();
+        if (command.equals("SET")) {
+            set(argument);
+            assignments++;
+            if (++pendingAssignments >= BATCH_LIMIT) {
+                commit("Line " + lineNumber);
+            }
+            return;
+        }
+        // The command runs even if the batch before it fails, which is reported on its own
+        commit("Line " + lineNumber);
+        switch (command) {
+            case "LOAD":
+                load(requireArgument(command, argument));
+                break;
+            case "NEW":
+                String[] size = requireArgument(command, argument).split("\\s+");
+                if (size.length != 2) {
+                    throw new IllegalArgumentException("NEW expects the number of rows and columns");
+                }
+                select(new SpreadSheet(Integer.parseInt(size[0]), Integer.parseInt(size[1])));
+                break;
+            case "RECALC":
+                requireSheet().computeValues();
+                break;
+            case "EXPORT":
+                new FileManager().exportToCSV(requireSheet(), requireArgument(command, argument));
+                break;
+            case "SAVE":
+                requireSheet();
+                manager.saveWorkbook(currentIndex, requireArgument(command, argument));
+                break;
+            case "PRINT":
+                requireSheet().printSpreadsheet();
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown command: " + command);
+        }
+        commands++;
+    }
+
+    /**
+     * Writes the content of a SET command into the current sheet, opening a batch if none is open.
+     *
+     * @param argument The cell reference followed by the content.
+     * @throws Exception If the cell reference is invalid or there is no current sheet.
+     */
+    private void set(String argument) throws Exception {
+        SpreadSheet sheet = requireSheet();
+        int space = argument.indexOf(' ');
+        String reference = space < 0 ? argument : argument.substring(0, space);
+        String content = space < 0 ? "" : argument.substring(space + 1).strip();
+        long key = CellReference.parse(reference);
+        if (key == CellReference.INVALID || content.isEmpty()) {
+            throw new IllegalArgumentException("SET expects a cell reference and its content");
+        }
+        if (!sheet.isInBatch()) {
+            sheet.beginBatch();
+        }
+        sheet.ensureSize(DependencyManager.row(key) + 1, DependencyManager.column(key) + 1);
+        sheet.setCellreference(reference, content);
+    }
+
+    /**
+     * Opens a workbook file or loads a CSV file as the current sheet.
+     *
+     * @param path The path of the file.
+     * @throws IOException If the workbook cannot be opened.
+     */
+    private void load(String path) throws IOException {
+        if (path.endsWith(".wbk")) {
+            SpreadSheet sheet = manager.openWorkbook(path);
+            current = sheet;
+            currentIndex = manager.getSpreadSheetCount() - 1;
+        } else {
+            select(FileManager.createSpreadsheet(path));
+        }
+    }
+
+    /**
+     * Adds a spreadsheet to the manager and makes it the current sheet.
+     *
+     * @param sheet The spreadsheet.
+     */
+    private void select(SpreadSheet sheet) {
+        manager.addSpreadSheet(sheet);
+        current = sheet;
+        currentIndex = manager.getSpreadSheetCount() - 1;
+    }
+
+    /**
+     * Commits the batch of SET commands of the current sheet, if one is open. A failure is reported and
+     * counted as an error rather than thrown, so it is not mistaken for a failure of the next command.
+     *
+     * @param position The position in the script where the batch ends, for the error message.
+     */
+    private void commit(String position) {
+        pendingAssignments = 0;
+        if (current != null && current.isInBatch()) {
+            try {
+                current.commitBatch();
+            } catch (RuntimeException e) {
+                errors++;
+                out.println(position + ": committing the preceding SET commands failed: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Gets the current sheet.
+     *
+     * @return The current sheet.
+     * @throws IllegalStateException If no sheet was loaded or created yet.
+     */
+    private SpreadSheet requireSheet() {
+        if (current == null) {
+            throw new IllegalStateException("No spreadsheet loaded; use LOAD or NEW first");
+        }
+        return current;
+    }
+
+    /**
+     * Checks that a command has an argument.
+     *
+     * @param command  The command.
+     * @param argument The argument of the command.
+     * @return The argument.
+     * @throws IllegalArgumentException If the argument is empty.
+     */
+    private static String requireArgument(String command, String argument) {
+        if (argument.isEmpty()) {
+            throw new IllegalArgumentException(command + " expects a file path");
+        }
+        return argument;
+    }
+}
@@ -1,41 +1,24 @@
 package org.example;
 
-import java.util.HashSet;
-import java.util.Set;
-import java.util.ArrayList;
-import java.util.List;
-
 /**
- * The Cell class represents a cell in a spreadsheet. It provides methods for managing dependencies,
- * updating cell values, and handling circular dependencies.
+ * The Cell class represents a cell in a spreadsheet. It provides methods for reading and
+ * updating cell values.
+ * <p>
+ * The contents of a spreadsheet are kept in a {@link CellStore}; number and text cells returned by
+ * the spreadsheet are views created on demand, while formula cells are stored as they are.
+ * Dependencies between cells are tracked by the {@link DependencyManager}.
  */
 public abstract class Cell {
-    private Set<Cell> visited = new HashSet<>();
     private boolean visited1 = false;
-    private List<Cell> dependencies = new ArrayList<>();
-    private Double numericValue;
-    private String StringValue;
-    private static Cell currentCell;
     private String actualCellname;
-    private String formulaString;
-    private final List<Cell> dependents = new ArrayList<>();
-
-    /**
-     * Sets the formula string for the cell.
-     *
-     * @param formulaString1 The formula string to be set.
-     */
-    public void setFormulaString(String formulaString1) {
-        this.formulaString = formulaString1;
-    }
 
     /**
      * Gets the formula string for the cell.
      *
-     * @return The formula string.
+     * @return The formula string, or null if the cell does not hold a formula.
      */
     public String getFormulaString() {
-        return formulaString;
+        return null;
     }
 
     /**
@@ -56,56 +39,6 @@ public abstract class Cell {
         return actualCellname;
     }
 
-    /**
-     * Adds a dependent cell to the list of dependents.
-     *
-     * @param dependent The dependent cell to be added.
-     * @return True if the dependent was added, false if it is already a dependent.
-     */
-    public boolean addDependent(Cell dependent) {
-        if (this.isDependent(dependent)) {
-            return false;
-        }
-        dependents.add(dependent);
-        return false;
-    }
-
-    /**
-     * Checks if the given cell is a dependent of the current cell.
-     *
-     * @param cell The cell to check for dependency.
-     * @return True if the cell is a dependent, false otherwise.
-     */
-    public boolean isDependent(Cell cell) {
-        if (dependents.contains(cell)) {
-            return true;
-        }
-        for (Cell dependent : dependents) {
-            if (dependent.isDependent(cell)) {
-                return true;
-            }
-        }
-        return false;
-    }
-
-    /**
-     * Sets the current cell to the specified cell.
-     *
-     * @param cell The cell to set as the current cell.
-     */
-    public static void setCurrentCell(Cell cell) {
-        currentCell = cell;
-    }
-
-    /**
-     * Gets the current cell.
-     *
-     * @return The current cell.
-     */
-    public static Cell getCurrentCell() {
-        return currentCell;
-    }
-
     /**
      * Gets the data stored in the cell.
      *
@@ -114,17 +47,13 @@ public abstract class Cell {
     public abstract String getData();
 
     /**
-     * Sets the value of the cell and updates its dependents.
+     * Sets the value of the cell.
      *
      * @param value The value to set.
-     * @throws Exception If an error occurs during the update or circular dependency is detected.
+     * @throws Exception If an error occurs during the update.
      */
     public void setValue(String value) throws Exception {
-        this.numericValue = Double.parseDouble(value);
-        visited.clear();
-        StringValue = value;
         updateValue(value);
-        notifyDependents();
     }
 
     /**
@@ -135,41 +64,12 @@ public abstract class Cell {
      */
     protected abstract void updateValue(String value) throws Exception;
 
-    /**
-     * Adds a dependency to the cell.
-     *
-     * @param cell The cell to add as a dependency.
-     * @throws Exception If an error occurs during the addition of the dependency.
-     */
-    public void addDependency(Cell cell) throws Exception {
-        dependents.add(cell);
-    }
-
-    /**
-     * Notifies dependents of the cell to update their values.
-     *
-     * @throws Exception If a circular dependency is detected during the notification.
-     */
-    void notifyDependents() throws Exception {
-        for (Cell dependent : dependencies) {
-            if (!visited.contains(dependent)) {
-                visited.add(dependent);
-                dependent.updateValue(dependent.getData());
-                dependent.notifyDependents();
-            } else {
-                throw new Exception("Circular Dependency Detected!");
-            }
-        }
-    }
-
     /**
      * Gets the numeric value stored in the cell.
      *
-     * @return The numeric value.
+     * @return The numeric value, or null if the cell does not hold a number.
      */
-    public Double getNumericValue() {
-        return numericValue;
-    }
+    public abstract Double getNumericValue();
 
     /**
      * Gets the string value stored in the cell.
@@ -177,16 +77,7 @@ public abstract class Cell {
      * @return The string value.
      */
     public String getStringValue() {
-        return StringValue;
-    }
-
-    /**
-     * Sets the string value for the cell.
-     *
-     * @param s The string value to be set.
-     */
-    public void setStringValue(String s) {
-        this.StringValue = s;
+        return getData();
     }
 
     /**
@@ -0,0 +1,148 @@
+package org.example;
+
+/**
+ * The CellReference class encodes and decodes A1-style cell references (e.g., "A1", "AB12", "$C$3").
+ * Columns are written as letters in bijective base 26 (A..Z, AA..ZZ, AAA...), rows as 1-based numbers,
+ * and either part can be marked absolute with a '$', which does not change the referenced cell.
+ * <p>
+ * Decoding scans the characters once and returns the cell as a key packing its row and column (see
+ * {@link DependencyManager#key(int, int)}), so references can be decoded without allocating.
+ */
+public final class CellReference {
+    /**
+     * Returned by the decoding methods when the text is not a valid cell reference.
+     */
+    public static final long INVALID = -1;
+
+    private static final int LETTERS = 26;
+
+    private CellReference() {
+    }
+
+    /**
+     * Decodes a cell reference.
+     *
+     * @param reference The cell reference (e.g., "A1", "$B$2").
+     * @return The key of the referenced cell, or {@link #INVALID} if the text is not a cell reference.
+     */
+    public static long parse(CharSequence reference) {
+        return parse(reference, 0, reference.length());
+    }
+
+    /**
+     * Decodes a cell reference contained in part of a text.
+     *
+     * @param text  The text containing the reference.
+     * @param start The index of the first character of the reference.
+     * @param end   The index after the last character of the reference.
+     * @return The key of the referenced cell, or {@link #INVALID} if the characters are not a cell reference.
+     */
+    public static long parse(CharSequence text, int start, int end) {
+        int i = start;
+        if (i < end && text.charAt(i) == '$') {
+            i++;
+        }
+        int column = 0;
+        int letters = i;
+        while (i < end) {
+            char c = text.charAt(i);
+            if (c < 'A' || c > 'Z') {
+                break;
+            }
+            if (column > (Integer.MAX_VALUE - LETTERS) / LETTERS) {
+                return INVALID;
+            }
+            column = column * LETTERS + (c - 'A' + 1);
+            i++;
+        }
+        if (i == letters) {
+            return INVALID;
+        }
+        if (i < end && text.charAt(i) == '$') {
+            i++;
+        }
+        int row = 0;
+        int digits = i;
+        while (i < end) {
+            char c = text.charAt(i);
+            if (c < '0' || c > '9') {
+                return INVALID;
+            }
+            if (row > (Integer.MAX_VALUE - 9) / 10) {
+                return INVALID;
+            }
+            row = row * 10 + (c - '0');
+            i++;
+        }
+        if (i == digits || row == 0) {
+            return INVALID;
+        }
+        return DependencyManager.key(row - 1, column - 1);
+    }
+
+    /**
+     * Checks if a text is a valid cell reference.
+     *
+     * @param reference The text to check.
+     * @return True if the text is a cell reference, false otherwise.
+     */
+    public static boolean isValid(CharSequence reference) {
+        return parse(reference) != INVALID;
+    }
+
+    /**
+     * Finds the colon of a range (e.g., "A1:B2") contained in part of a text.
+     *
+     * @param text  The text containing the range.
+     * @param start The index of the first character of the range.
+     * @param end   The index after the last character of the range.
+     * @return The index of the colon if both of its sides are cell references, or -1 otherwise.
+     */
+    public static int rangeSeparator(CharSequence text, int start, int end) {
+        for (int i = start; i < end; i++) {
+            if (text.charAt(i) == ':') {
+                return parse(text, start, i) != INVALID && parse(text, i + 1, end) != INVALID ? i : -1;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Encodes a column index as letters (0 is "A", 25 is "Z", 26 is "AA").
+     *
+     * @param column The zero-based column index.
+     * @return The letters of the column.
+     */
+    public static String columnName(int column) {
+        return appendColumnName(new StringBuilder(4), column).toString();
+    }
+
+    /**
+     * Appends the letters of a column index to a builder.
+     *
+     * @param builder The builder receiving the letters.
+     * @param column  The zero-based column index.
+     * @return The builder.
+     */
+    public static StringBuilder appendColumnName(StringBuilder builder, int column) {
+        int position = builder.length();
+        int remaining = column + 1;
+        while (remaining > 0) {
+            remaining--;
+            builder.insert(position, (char) ('A' + remaining % LETTERS));
+            remaining /= LETTERS;
+        }
+        return builder;
+    }
+
+    /**
+     * Encodes row and column indices as a cell reference (e.g., row 0 and column 27 is "AB1").
+     *
+     * @param row    The zero-based row index.
+     * @param column The zero-based column index.
+     * @return The cell reference.
+     */
+    public static String toString(int row, int column) {
+        return appendColumnName(new StringBuilder(12), column).append(row + 1).toString();
+    }
+}
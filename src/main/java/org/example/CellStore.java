@@ -0,0 +1,551 @@
+package org.example;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The CellStore class holds the contents of a spreadsheet in columnar form. Every column is split in
+ * chunks of {@link #CHUNK_SIZE} rows; a chunk keeps a primitive {@code double[]} with the numeric values
+ * (the computed value for formula cells) and a {@code byte[]} with the type of each cell. Text and formula
+ * cells additionally have an entry in a side table, so numeric cells never allocate an object.
+ * <p>
+ * Chunks are allocated the first time one of their cells is written and released when their last cell
+ * is cleared, so the memory used is proportional to the populated cells and not to rows x columns.
+ * The store can grow after construction (see {@link #ensureSize(int, int)}), for example while a file is
+ * being loaded row by row.
+ * <p>
+ * Chunks can also be provided by a {@link ChunkSource}, such as an opened workbook file; such chunks are
+ * read the first time they are accessed.
+ */
+public class CellStore {
+    /**
+     * Type of a cell that holds nothing.
+     */
+    public static final byte EMPTY = 0;
+    /**
+     * Type of a cell that holds a number.
+     */
+    public static final byte NUMBER = 1;
+    /**
+     * Type of a cell that holds text.
+     */
+    public static final byte TEXT = 2;
+    /**
+     * Type of a cell that holds a formula.
+     */
+    public static final byte FORMULA = 3;
+
+    /**
+     * Number of bits of the row index that select a row inside a chunk.
+     */
+    public static final int CHUNK_BITS = 10;
+    /**
+     * Number of rows of a chunk.
+     */
+    public static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+    private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+    private int rows;
+    private int columns;
+    private double[][][] values;
+    private byte[][][] types;
+    private int[][] populated;
+    private final Map<Long, String> texts = new HashMap<>();
+    private final Map<Long, FormulaCell> formulas = new HashMap<>();
+    private ChunkSource source;
+    private volatile boolean[][] pendingChunks;
+    private ColumnAggregateIndex[] aggregateIndexes;
+    private boolean aggregateUpdatesDeferred;
+
+    /**
+     * Provides chunks that are read from storage the first time they are accessed.
+     */
+    interface ChunkSource {
+        /**
+         * Reads a chunk and installs it with {@link #installChunk(int, int, byte[], double[])}.
+         *
+         * @param column     The column index.
+         * @param chunkIndex The chunk index.
+         */
+        void load(int column, int chunkIndex);
+    }
+
+    /**
+     * Constructs an empty store with the specified number of rows and columns. No cell storage is
+     * allocated until cells are written.
+     *
+     * @param rows    The number of rows.
+     * @param columns The number of columns.
+     */
+    public CellStore(int rows, int columns) {
+        this.rows = rows;
+        this.columns = columns;
+        this.values = new double[columns][][];
+        this.types = new byte[columns][][];
+        this.populated = new int[columns][];
+    }
+
+    /**
+     * Grows the store so that it has at least the given number of rows and columns. Existing cells are kept,
+     * and no cell storage is allocated for the new rows and columns until they are written.
+     *
+     * @param rows    The minimum number of rows.
+     * @param columns The minimum number of columns.
+     */
+    public void ensureSize(int rows, int columns) {
+        this.rows = Math.max(this.rows, rows);
+        if (columns > this.columns) {
+            values = Arrays.copyOf(values, columns);
+            types = Arrays.copyOf(types, columns);
+            populated = Arrays.copyOf(populated, columns);
+            this.columns = columns;
+        }
+    }
+
+    /**
+     * Gets the number of rows of the store.
+     *
+     * @return The number of rows.
+     */
+    public int getRows() {
+        return rows;
+    }
+
+    /**
+     * Gets the number of columns of the store.
+     *
+     * @return The number of columns.
+     */
+    public int getColumns() {
+        return columns;
+    }
+
+    /**
+     * Checks if the specified cell coordinates are inside the store.
+     *
+     * @param row    The row index.
+     * @param column The column index.
+     * @return True if the cell coordinates are valid, false otherwise.
+     */
+    public boolean contains(int row, int column) {
+        return row >= 0 && row < rows && column >= 0 && column < columns;
+    }
+
+    /**
+     * Gets the number of chunks needed to cover every row.
+     *
+     * @return The number of chunks of a column.
+     */
+    public int getChunkCount() {
+        return (rows + CHUNK_SIZE - 1) >>> CHUNK_BITS;
+    }
+
+    /**
+     * Gets the type of the cell at the specified position.
+     *
+     * @param row    The row index.
+     * @param column The column index.
+     * @return One of {@link #EMPTY}, {@link #NUMBER}, {@link #TEXT} or {@link #FORMULA}.
+     */
+    public byte getType(int row, int column) {
+        byte[] chunk = typeChunk(column, row >>> CHUNK_BITS);
+        return chunk == null ? EMPTY : chunk[row & CHUNK_MASK];
+    }
+
+    /**
+     * Gets the numeric value stored at the specified position. For formula cells this is the last computed value.
+     *
+     * @param row    The row index.
+     * @param column The column index.
+     * @return The stored value, or 0 if the cell is empty.
+     */
+    public double getValue(int row, int column) {
+        double[] chunk = valueChunk(column, row >>> CHUNK_BITS);
+        return chunk == null ? 0 : chunk[row & CHUNK_MASK];
+    }
+
+    /**
+     * Gets the value of a cell as seen by an arithmetic expression: empty cells and cells outside the
+     * store count as 0 and text cells as NaN.
+     *
+     * @param row    The row index.
+     * @param column The column index.
+     * @return The numeric value of the cell.
+     */
+    public double getNumericValue(int row, int column) {
+        if (!contains(row, column)) {
+            return 0;
+        }
+        byte type = getType(row, column);
+        if (type == TEXT) {
+            return Double.NaN;
+        }
+        return getValue(row, column);
+    }
+
+    /**
+     * Gets the text stored at the specified position.
+     *
+     * @param row    The row index.
+     * @param column The column index.
+     * @return The text, or null if the cell does not hold text.
+     */
+    public String getText(int row, int column) {
+        ensureLoaded(column, row >>> CHUNK_BITS);
+        return texts.get(DependencyManager.key(row, column));
+    }
+
+    /**
+     * Gets the formula cell stored at the specified position.
+     *
+     * @param row    The row index.
+     * @param column The column index.
+     * @return The formula cell, or null if the cell does not hold a formula.
+     */
+    public FormulaCell getFormula(int row, int column) {
+        ensureLoaded(column, row >>> CHUNK_BITS);
+        return formulas.get(DependencyManager.key(row, column));
+    }
+
+    /**
+     * Stores a number at the specified position.
+     *
+     * @param row    The row index.
+     * @param column The column index.
+     * @param value  The number to store.
+     */
+    public void setNumber(int row, int column, double value) {
+        clearSideTables(row, column);
+        write(row, column, NUMBER, value);
+    }
+
+    /**
+     * Stores text at the specified position.
+     *
+     * @param row    The row index.
+     * @param column The column index.
+     * @param text   The text to store.
+     */
+    public void setText(int row, int column, String text) {
+        clearSideTables(row, column);
+        texts.put(DependencyManager.key(row, column), text);
+        write(row, column, TEXT, 0);
+    }
+
+    /**
+     * Stores a formula cell at the specified position. The formula cell keeps its computed value in this store.
+     *
+     * @param row     The row index.
+     * @param column  The column index.
+     * @param formula The formula cell to store.
+     * @param value   The initial value of the formula.
+     */
+    public void setFormula(int row, int column, FormulaCell formula, double value) {
+        clearSideTables(row, column);
+        formulas.put(DependencyManager.key(row, column), formula);
+        write(row, column, FORMULA, value);
+        formula.attach(this, row, column);
+    }
+
+    /**
+     * Updates the stored value of a cell without changing its type, for example the computed value of a formula.
+     * The aggregate index of the column, if any, is updated as well, or only marked while updates are deferred.
+     *
+     * @param row    The row index.
+     * @param column The column index.
+     * @param value  The new value.
+     */
+    public void setValue(int row, int column, double value) {
+        double[] chunk = valueChunk(column, row >>> CHUNK_BITS);
+        if (chunk != null) {
+            chunk[row & CHUNK_MASK] = value;
+            ColumnAggregateIndex index = getAggregateIndex(column);
+            if (index == null) {
+                return;
+            }
+            if (aggregateUpdatesDeferred) {
+                index.markValueChanged(row);
+            } else {
+                index.valueChanged(row);
+            }
+        }
+    }
+
+    /**
+     * Removes the contents of the cell at the specified position, releasing its chunk if it becomes empty.
+     *
+     * @param row    The row index.
+     * @param column The column index.
+     */
+    public void clear(int row, int column) {
+        clearSideTables(row, column);
+        int chunkIndex = row >>> CHUNK_BITS;
+        byte[] chunk = typeChunk(column, chunkIndex);
+        if (chunk == null || chunk[row & CHUNK_MASK] == EMPTY) {
+            return;
+        }
+        chunk[row & CHUNK_MASK] = EMPTY;
+        values[column][chunkIndex][row & CHUNK_MASK] = 0;
+        if (--populated[column][chunkIndex] == 0) {
+            types[column][chunkIndex] = null;
+            values[column][chunkIndex] = null;
+        }
+        updateAggregateIndex(row, column, EMPTY);
+    }
+
+    /**
+     * Enables or disables the aggregate index of a column. While enabled, the index is updated on every
+     * write to the column and range aggregates over the column are answered from it.
+     *
+     * @param column  The column index.
+     * @param enabled Whether the column is indexed.
+     */
+    public void setAggregateIndexEnabled(int column, boolean enabled) {
+        if (enabled) {
+            if (aggregateIndexes == null || aggregateIndexes.length < columns) {
+                aggregateIndexes = aggregateIndexes == null
+                        ? new ColumnAggregateIndex[columns] : Arrays.copyOf(aggregateIndexes, columns);
+            }
+            if (aggregateIndexes[column] == null) {
+                aggregateIndexes[column] = new ColumnAggregateIndex(this, column);
+            }
+        } else if (getAggregateIndex(column) != null) {
+            aggregateIndexes[column] = null;
+        }
+    }
+
+    /**
+     * Gets the aggregate index of a column.
+     *
+     * @param column The column index.
+     * @return The index, or null if the column is not indexed.
+     */
+    ColumnAggregateIndex getAggregateIndex(int column) {
+        ColumnAggregateIndex[] indexes = aggregateIndexes;
+        return indexes == null || column >= indexes.length ? null : indexes[column];
+    }
+
+    /**
+     * Defers the updates of the aggregate indexes caused by {@link #setValue(int, int, double)}, so that
+     * several threads can write formula values at the same time. Deferred updates are applied by
+     * {@link #flushAggregateIndexes()}, and when updates stop being deferred.
+     *
+     * @param deferred Whether the updates are deferred.
+     */
+    void setAggregateUpdatesDeferred(boolean deferred) {
+        if (!deferred) {
+            flushAggregateIndexes();
+        }
+        aggregateUpdatesDeferred = deferred;
+    }
+
+    /**
+     * Applies the deferred updates of the aggregate indexes.
+     */
+    void flushAggregateIndexes() {
+        ColumnAggregateIndex[] indexes = aggregateIndexes;
+        if (indexes != null) {
+            for (ColumnAggregateIndex index : indexes) {
+                if (index != null) {
+                    index.flush();
+                }
+            }
+        }
+    }
+
+    /**
+     * Updates the aggregate index of a column after one of its cells was written, if the column is indexed.
+     *
+     * @param row    The row index.
+     * @param column The column index.
+     * @param type   The new type of the cell.
+     */
+    private void updateAggregateIndex(int row, int column, byte type) {
+        ColumnAggregateIndex index = getAggregateIndex(column);
+        if (index != null) {
+            index.update(row, type);
+        }
+    }
+
+    /**
+     * Gets the type array of a chunk for sequential scans. Row {@code r} of the chunk is at index
+     * {@code r & (CHUNK_SIZE - 1)}.
+     *
+     * @param column     The column index.
+     * @param chunkIndex The chunk index ({@code row >>> CHUNK_BITS}).
+     * @return The types of the chunk, or null if no cell of the chunk is populated.
+     */
+    byte[] typeChunk(int column, int chunkIndex) {
+        ensureLoaded(column, chunkIndex);
+        byte[][] columnTypes = types[column];
+        return columnTypes == null || chunkIndex >= columnTypes.length ? null : columnTypes[chunkIndex];
+    }
+
+    /**
+     * Gets the value array of a chunk for sequential scans.
+     *
+     * @param column     The column index.
+     * @param chunkIndex The chunk index ({@code row >>> CHUNK_BITS}).
+     * @return The values of the chunk, or null if no cell of the chunk is populated.
+     */
+    double[] valueChunk(int column, int chunkIndex) {
+        ensureLoaded(column, chunkIndex);
+        double[][] columnValues = values[column];
+        return columnValues == null || chunkIndex >= columnValues.length ? null : columnValues[chunkIndex];
+    }
+
+    /**
+     * Writes a type and value, allocating the column directory and the chunk if needed. The directory of a
+     * column grows by doubling when the store has grown past it.
+     *
+     * @param row    The row index.
+     * @param column The column index.
+     * @param type   The type of the cell.
+     * @param value  The value of the cell.
+     */
+    private void write(int row, int column, byte type, double value) {
+        int chunkIndex = row >>> CHUNK_BITS;
+        ensureLoaded(column, chunkIndex);
+        allocateDirectory(column, chunkIndex);
+        byte[] chunk = types[column][chunkIndex];
+        if (chunk == null) {
+            chunk = new byte[CHUNK_SIZE];
+            types[column][chunkIndex] = chunk;
+            values[column][chunkIndex] = new double[CHUNK_SIZE];
+        }
+        if (chunk[row & CHUNK_MASK] == EMPTY) {
+            populated[column][chunkIndex]++;
+        }
+        chunk[row & CHUNK_MASK] = type;
+        values[column][chunkIndex][row & CHUNK_MASK] = value;
+        updateAggregateIndex(row, column, type);
+    }
+
+    /**
+     * Allocates or grows the chunk directory of a column so that it covers the given chunk.
+     *
+     * @param column     The column index.
+     * @param chunkIndex The chunk index.
+     */
+    private void allocateDirectory(int column, int chunkIndex) {
+        if (types[column] == null) {
+            types[column] = new byte[getChunkCount()][];
+            values[column] = new double[getChunkCount()][];
+            populated[column] = new int[getChunkCount()];
+        } else if (chunkIndex >= types[column].length) {
+            int length = Math.max(getChunkCount(), types[column].length * 2);
+            types[column] = Arrays.copyOf(types[column], length);
+            values[column] = Arrays.copyOf(values[column], length);
+            populated[column] = Arrays.copyOf(populated[column], length);
+        }
+    }
+
+    /**
+     * Sets the source of chunks that are read on first access.
+     *
+     * @param source        The source of the chunks.
+     * @param pendingChunks For every column, whether each chunk still has to be read from the source.
+     */
+    void setChunkSource(ChunkSource source, boolean[][] pendingChunks) {
+        this.source = source;
+        this.pendingChunks = pendingChunks;
+    }
+
+    /**
+     * Installs a chunk read from a {@link ChunkSource}. Text cells get their text with
+     * {@link #installText(int, int, String)}; formula cells must be left empty and stored afterwards
+     * with {@link #setFormula(int, int, FormulaCell, double)}.
+     *
+     * @param column     The column index.
+     * @param chunkIndex The chunk index.
+     * @param chunkTypes The types of the cells of the chunk.
+     * @param chunkValues The values of the cells of the chunk.
+     */
+    void installChunk(int column, int chunkIndex, byte[] chunkTypes, double[] chunkValues) {
+        int count = 0;
+        for (byte type : chunkTypes) {
+            if (type != EMPTY) {
+                count++;
+            }
+        }
+        if (count == 0) {
+            return;
+        }
+        allocateDirectory(column, chunkIndex);
+        types[column][chunkIndex] = chunkTypes;
+        values[column][chunkIndex] = chunkValues;
+        populated[column][chunkIndex] = count;
+    }
+
+    /**
+     * Sets the text of a text cell installed with {@link #installChunk(int, int, byte[], double[])}.
+     *
+     * @param row    The row index.
+     * @param column The column index.
+     * @param text   The text of the cell.
+     */
+    void installText(int row, int column, String text) {
+        texts.put(DependencyManager.key(row, column), text);
+    }
+
+    /**
+     * Reads every chunk that is still pending from the chunk source, so that the store can be read
+     * from several threads.
+     */
+    void loadAllChunks() {
+        boolean[][] pending = pendingChunks;
+        if (pending == null) {
+            return;
+        }
+        for (int column = 0; column < pending.length; column++) {
+            for (int chunkIndex = 0; pending[column] != null && chunkIndex < pending[column].length; chunkIndex++) {
+                ensureLoaded(column, chunkIndex);
+            }
+        }
+        pendingChunks = null;
+    }
+
+    /**
+     * Reads a chunk from the chunk source if it has not been read yet.
+     *
+     * @param column     The column index.
+     * @param chunkIndex The chunk index.
+     */
+    private void ensureLoaded(int column, int chunkIndex) {
+        boolean[][] pending = pendingChunks;
+        if (pending != null && column < pending.length && pending[column] != null
+                && chunkIndex < pending[column].length && pending[column][chunkIndex]) {
+            load(column, chunkIndex);
+        }
+    }
+
+    /**
+     * Reads a pending chunk from the chunk source.
+     *
+     * @param column     The column index.
+     * @param chunkIndex The chunk index.
+     */
+    private synchronized void load(int column, int chunkIndex) {
+        if (pendingChunks[column][chunkIndex]) {
+            pendingChunks[column][chunkIndex] = false;
+            source.load(column, chunkIndex);
+        }
+    }
+
+    /**
+     * Removes the text or formula entry of a cell that is about to be overwritten.
+     *
+     * @param row    The row index.
+     * @param column The column index.
+     */
+    private void clearSideTables(int row, int column) {
+        byte type = getType(row, column);
+        if (type == TEXT) {
+            texts.remove(DependencyManager.key(row, column));
+        } else if (type == FORMULA) {
+            FormulaCell previous = formulas.remove(DependencyManager.key(row, column));
+            previous.detach();
+        }
+    }
+}
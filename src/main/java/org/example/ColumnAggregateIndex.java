@@ -0,0 +1,347 @@
+package org.example;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * The ColumnAggregateIndex class answers SUMA, MIN, MAX and PROMEDIO queries over a range of rows of one
+ * column in logarithmic time, instead of visiting every cell of the range.
+ * <p>
+ * The rows of the column are grouped in blocks of {@link #BLOCK_SIZE} rows, and a segment tree keeps the
+ * sum, minimum, maximum and count of the numbers of every block and of every group of blocks. A query scans
+ * the partial blocks at both ends of the range and combines at most two tree nodes per level in between.
+ * Writing a cell recomputes its block and the nodes above it. A segment tree is used for sums as well, rather
+ * than prefix sums, so that the sum of a short range is not computed as the difference of two large sums.
+ * <p>
+ * The stored values of formula cells are aggregated by a second tree, which is refreshed whenever the cell
+ * store writes a formula value. During a recalculation those values are read in logarithmic time as well,
+ * since cells are computed after the ranges they depend on. Outside a recalculation, stored formula values
+ * may be out of date, so the index also keeps the rows of the formula cells in a bit set, and queries visit
+ * them to evaluate their formulas.
+ * <p>
+ * While the cells of a dependency level are computed by several threads, a formula value written to the store
+ * only marks its block, and the marked blocks are refreshed once the level is done (see {@link #flush()}).
+ * A range read during a level only holds cells of lower levels, so its blocks are up to date.
+ */
+public final class ColumnAggregateIndex {
+    /**
+     * Number of bits of the row index that select a row inside a block.
+     */
+    static final int BLOCK_BITS = 5;
+    /**
+     * Number of rows of a block, the leaves of the segment tree.
+     */
+    static final int BLOCK_SIZE = 1 << BLOCK_BITS;
+
+    private final CellStore store;
+    private final int column;
+    private final BitSet formulaRows = new BitSet();
+    private int leaves;
+    private Tree numbers;
+    private Tree formulas;
+    private AtomicLongArray changedBlocks;
+
+    /**
+     * Constructs the index of a column from its current contents.
+     *
+     * @param store  The store holding the column.
+     * @param column The column index.
+     */
+    ColumnAggregateIndex(CellStore store, int column) {
+        this.store = store;
+        this.column = column;
+        build(store.getRows());
+    }
+
+    /**
+     * Builds the tree for at least the given number of rows, reading every block of the column.
+     *
+     * @param rows The number of rows to cover.
+     */
+    private void build(int rows) {
+        int blocks = Math.max(1, (rows + BLOCK_SIZE - 1) >>> BLOCK_BITS);
+        leaves = Integer.highestOneBit(blocks);
+        if (leaves < blocks) {
+            leaves <<= 1;
+        }
+        numbers = new Tree(2 * leaves);
+        formulas = new Tree(2 * leaves);
+        changedBlocks = new AtomicLongArray((leaves + 63) >>> 6);
+        formulaRows.clear();
+        for (int block = 0; block < leaves; block++) {
+            computeLeaf(leaves + block);
+        }
+        for (int node = leaves - 1; node > 0; node--) {
+            numbers.pull(node);
+            formulas.pull(node);
+        }
+    }
+
+    /**
+     * Updates the index after a cell of the column was written or cleared.
+     *
+     * @param row  The row index of the cell.
+     * @param type The new type of the cell.
+     */
+    void update(int row, byte type) {
+        if (row >= leaves << BLOCK_BITS) {
+            // Double the rows covered, so that a column growing row by row is rebuilt a logarithmic number of times
+            build(Math.max(row + 1, leaves << (BLOCK_BITS + 1)));
+            return;
+        }
+        formulaRows.set(row, type == CellStore.FORMULA);
+        refresh(row >>> BLOCK_BITS);
+    }
+
+    /**
+     * Updates the index after the stored value of a formula cell of the column changed.
+     *
+     * @param row The row index of the cell.
+     */
+    void valueChanged(int row) {
+        refresh(row >>> BLOCK_BITS);
+    }
+
+    /**
+     * Marks the block of a formula cell whose stored value changed, to be refreshed by {@link #flush()}.
+     * Unlike the other methods, this one may be called by several threads at the same time.
+     *
+     * @param row The row index of the cell.
+     */
+    void markValueChanged(int row) {
+        int block = row >>> BLOCK_BITS;
+        long bit = 1L << (block & 63);
+        int word = block >>> 6;
+        long bits = changedBlocks.get(word);
+        while ((bits & bit) == 0 && !changedBlocks.compareAndSet(word, bits, bits | bit)) {
+            bits = changedBlocks.get(word);
+        }
+    }
+
+    /**
+     * Refreshes the blocks marked by {@link #markValueChanged(int)}.
+     */
+    void flush() {
+        for (int word = 0; word < changedBlocks.length(); word++) {
+            long bits = changedBlocks.get(word) == 0 ? 0 : changedBlocks.getAndSet(word, 0);
+            while (bits != 0) {
+                refresh((word << 6) + Long.numberOfTrailingZeros(bits));
+                bits &= bits - 1;
+            }
+        }
+    }
+
+    /**
+     * Adds the number cells of a range of rows to an accumulator.
+     *
+     * @param firstRow    The first row of the range.
+     * @param lastRow     The last row of the range.
+     * @param accumulator The accumulator receiving the numbers.
+     */
+    void accumulateNumbers(int firstRow, int lastRow, Accumulator accumulator) {
+        accumulate(firstRow, lastRow, accumulator, numbers, CellStore.NUMBER);
+    }
+
+    /**
+     * Adds the stored values of the formula cells of a range of rows to an accumulator.
+     *
+     * @param firstRow    The first row of the range.
+     * @param lastRow     The last row of the range.
+     * @param accumulator The accumulator receiving the values.
+     */
+    void accumulateFormulaValues(int firstRow, int lastRow, Accumulator accumulator) {
+        accumulate(firstRow, lastRow, accumulator, formulas, CellStore.FORMULA);
+    }
+
+    /**
+     * Adds the cells of one type of a range of rows to an accumulator, through the tree aggregating them.
+     *
+     * @param firstRow    The first row of the range.
+     * @param lastRow     The last row of the range.
+     * @param accumulator The accumulator receiving the values.
+     * @param tree        The tree aggregating the cells of the type.
+     * @param type        The type of the cells, {@link CellStore#NUMBER} or {@link CellStore#FORMULA}.
+     */
+    private void accumulate(int firstRow, int lastRow, Accumulator accumulator, Tree tree, byte type) {
+        lastRow = Math.min(lastRow, (leaves << BLOCK_BITS) - 1);
+        if (firstRow > lastRow) {
+            return;
+        }
+        int firstBlock = firstRow >>> BLOCK_BITS;
+        int lastBlock = lastRow >>> BLOCK_BITS;
+        if (firstBlock == lastBlock) {
+            scan(firstRow, lastRow, accumulator, type);
+            return;
+        }
+        if ((firstRow & (BLOCK_SIZE - 1)) != 0) {
+            scan(firstRow, ((firstBlock + 1) << BLOCK_BITS) - 1, accumulator, type);
+            firstBlock++;
+        }
+        if ((lastRow & (BLOCK_SIZE - 1)) != BLOCK_SIZE - 1) {
+            scan(lastBlock << BLOCK_BITS, lastRow, accumulator, type);
+            lastBlock--;
+        }
+        int left = leaves + firstBlock;
+        int right = leaves + lastBlock + 1;
+        while (left < right) {
+            if ((left & 1) == 1) {
+                tree.merge(left++, accumulator);
+            }
+            if ((right & 1) == 1) {
+                tree.merge(--right, accumulator);
+            }
+            left >>>= 1;
+            right >>>= 1;
+        }
+    }
+
+    /**
+     * Gets the first row holding a formula cell of the column, starting from a row.
+     *
+     * @param row The row to start from.
+     * @return The row of the next formula cell, or -1 if there is none.
+     */
+    int nextFormulaRow(int row) {
+        return formulaRows.nextSetBit(row);
+    }
+
+    /**
+     * Recomputes a block and the nodes above it.
+     *
+     * @param block The block index.
+     */
+    private void refresh(int block) {
+        int node = leaves + block;
+        computeLeaf(node);
+        for (node >>>= 1; node > 0; node >>>= 1) {
+            numbers.pull(node);
+            formulas.pull(node);
+        }
+    }
+
+    /**
+     * Adds the cells of one type of a few consecutive rows to an accumulator, reading the cell store.
+     *
+     * @param firstRow    The first row.
+     * @param lastRow     The last row, in the same block as the first row.
+     * @param accumulator The accumulator receiving the values.
+     * @param type        The type of the cells to add.
+     */
+    private void scan(int firstRow, int lastRow, Accumulator accumulator, byte type) {
+        int chunkIndex = firstRow >>> CellStore.CHUNK_BITS;
+        byte[] types = store.typeChunk(column, chunkIndex);
+        if (types == null) {
+            return;
+        }
+        double[] values = store.valueChunk(column, chunkIndex);
+        int base = chunkIndex << CellStore.CHUNK_BITS;
+        for (int k = firstRow - base; k <= lastRow - base; k++) {
+            if (types[k] == type) {
+                accumulator.add(values[k]);
+            }
+        }
+    }
+
+    /**
+     * Recomputes the aggregates of the numbers and formula values of a block from the cell store, and
+     * records its formula rows.
+     *
+     * @param node The leaf node of the block.
+     */
+    private void computeLeaf(int node) {
+        int firstRow = (node - leaves) << BLOCK_BITS;
+        int chunkIndex = firstRow >>> CellStore.CHUNK_BITS;
+        numbers.clear(node);
+        formulas.clear(node);
+        byte[] types = firstRow < store.getRows() ? store.typeChunk(column, chunkIndex) : null;
+        if (types != null) {
+            double[] values = store.valueChunk(column, chunkIndex);
+            int offset = firstRow - (chunkIndex << CellStore.CHUNK_BITS);
+            for (int k = offset; k < offset + BLOCK_SIZE; k++) {
+                if (types[k] == CellStore.NUMBER) {
+                    numbers.add(node, values[k]);
+                } else if (types[k] == CellStore.FORMULA) {
+                    formulas.add(node, values[k]);
+                    formulaRows.set(firstRow + k - offset);
+                }
+            }
+        }
+    }
+
+    /**
+     * A segment tree of the sum, minimum, maximum and count of a set of values, stored in flat arrays:
+     * node 1 is the root and the children of node n are 2n and 2n + 1.
+     */
+    private static final class Tree {
+        private final double[] sums;
+        private final double[] mins;
+        private final double[] maxs;
+        private final int[] counts;
+
+        /**
+         * Constructs a tree whose nodes hold no values.
+         *
+         * @param nodes The number of nodes.
+         */
+        Tree(int nodes) {
+            sums = new double[nodes];
+            mins = new double[nodes];
+            maxs = new double[nodes];
+            counts = new int[nodes];
+            Arrays.fill(mins, Double.POSITIVE_INFINITY);
+            Arrays.fill(maxs, Double.NEGATIVE_INFINITY);
+        }
+
+        /**
+         * Removes the values of a node.
+         *
+         * @param node The node.
+         */
+        void clear(int node) {
+            sums[node] = 0;
+            mins[node] = Double.POSITIVE_INFINITY;
+            maxs[node] = Double.NEGATIVE_INFINITY;
+            counts[node] = 0;
+        }
+
+        /**
+         * Adds a value to a node.
+         *
+         * @param node  The node.
+         * @param value The value.
+         */
+        void add(int node, double value) {
+            sums[node] += value;
+            mins[node] = Math.min(mins[node], value);
+            maxs[node] = Math.max(maxs[node], value);
+            counts[node]++;
+        }
+
+        /**
+         * Recomputes the aggregates of an inner node from its two children.
+         *
+         * @param node The inner node.
+         */
+        void pull(int node) {
+            int left = 2 * node;
+            int right = left + 1;
+            sums[node] = sums[left] + sums[right];
+            mins[node] = Math.min(mins[left], mins[right]);
+            maxs[node] = Math.max(maxs[left], maxs[right]);
+            counts[node] = counts[left] + counts[right];
+        }
+
+        /**
+         * Adds the aggregates of a node to an accumulator.
+         *
+         * @param node        The node.
+         * @param accumulator The accumulator.
+         */
+        void merge(int node, Accumulator accumulator) {
+            if (counts[node] > 0) {
+                accumulator.merge(sums[node], mins[node], maxs[node], counts[node]);
+            }
+        }
+    }
+}
@@ -0,0 +1,418 @@
+package org.example;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
+
+/**
+ * The CycleDetector class keeps the formula cells of a {@link DependencyManager} in topological order while
+ * formulas are added, replaced and removed, and detects circular dependencies as soon as they are created.
+ * <p>
+ * The order is maintained with the online algorithm of Pearce and Kelly: every cell has an order number, and
+ * adding a reference from a precedent to a dependent that is already ordered after it costs a single comparison.
+ * Otherwise only the cells whose order number lies between the two are searched, forwards from the dependent
+ * and backwards from the precedent, and the order numbers of the cells found are permuted among themselves.
+ * If the forward search reaches the precedent, the new reference closes a cycle: the cells found by both
+ * searches form a strongly connected component and are collapsed into one node of the order, so that the
+ * cells depending on a cycle are still ordered after it. Searches mark the nodes they visit with an epoch
+ * number instead of allocating visited sets, and never recurse.
+ * <p>
+ * The detector keeps its own copy of the references between formula cells, read from the dependency manager
+ * when a formula is added, so that a reference only becomes visible to the searches once the order has been
+ * restored for it.
+ */
+public final class CycleDetector {
+    private final DependencyManager graph;
+    private final Map<Long, Node> nodes = new HashMap<>();
+    private final Set<Component> cycles = new LinkedHashSet<>();
+    private int nextOrder;
+    private int firstOrder;
+    private int epoch;
+
+    /**
+     * A formula cell of the graph.
+     */
+    private static final class Node {
+        private final long cell;
+        private final List<Node> precedents = new ArrayList<>(2);
+        private final Set<Node> dependents = new HashSet<>(4);
+        private Component component;
+        private int mark;
+
+        private Node(long cell) {
+            this.cell = cell;
+        }
+    }
+
+    /**
+     * A strongly connected component of formula cells: a single cell, or the cells of a cycle.
+     */
+    private static final class Component {
+        private final List<Node> members = new ArrayList<>(1);
+        private int order;
+        private boolean cyclic;
+        private int forwardMark;
+        private int backwardMark;
+    }
+
+    /**
+     * Constructs a detector for the formula cells of a dependency manager.
+     *
+     * @param graph The dependency manager providing the references between cells.
+     */
+    CycleDetector(DependencyManager graph) {
+        this.graph = graph;
+    }
+
+    /**
+     * Adds a formula cell, or updates it after its precedents were replaced. The dependency manager must
+     * already hold the references of the cell.
+     *
+     * @param cell The key of the formula cell.
+     */
+    void addFormula(long cell) {
+        Node node = nodes.get(cell);
+        if (node == null) {
+            node = new Node(cell);
+            nodes.put(cell, node);
+            List<Node> precedents = new ArrayList<>(2);
+            graph.forEachFormulaPrecedent(cell, precedent -> precedents.add(nodes.get(precedent)));
+            // A cell without precedents goes before every cell, so formulas entered from the bottom up are never
+            // reordered; otherwise it goes after every cell, and only its dependents may have to be reordered
+            place(node, precedents.isEmpty() ? --firstOrder : nextOrder++);
+            Node added = node;
+            for (Node precedent : precedents) {
+                connect(precedent, added);
+            }
+            for (long dependent : graph.getDependents(cell)) {
+                Node dependentNode = nodes.get(dependent);
+                if (dependentNode != null) {
+                    connect(added, dependentNode);
+                }
+            }
+            return;
+        }
+        for (Node precedent : node.precedents) {
+            precedent.dependents.remove(node);
+        }
+        node.precedents.clear();
+        if (node.component.members.size() > 1 || node.component.cyclic) {
+            // The references that made the cell part of a cycle may be gone
+            dissolve(node.component);
+        }
+        Node updated = node;
+        graph.forEachFormulaPrecedent(cell, precedent -> connect(nodes.get(precedent), updated));
+    }
+
+    /**
+     * Removes a formula cell, for example when it is replaced by a constant. The dependency manager must
+     * no longer hold the precedents of the cell.
+     *
+     * @param cell The key of the cell.
+     */
+    void removeFormula(long cell) {
+        Node node = nodes.remove(cell);
+        if (node == null) {
+            return;
+        }
+        for (Node precedent : node.precedents) {
+            precedent.dependents.remove(node);
+        }
+        for (Node dependent : node.dependents) {
+            dependent.precedents.remove(node);
+        }
+        Component component = node.component;
+        component.members.remove(node);
+        if (component.members.isEmpty()) {
+            cycles.remove(component);
+        } else {
+            dissolve(component);
+        }
+    }
+
+    /**
+     * Checks if a cell is part of a circular dependency.
+     *
+     * @param cell The key of the cell.
+     * @return True if the cell is on a cycle of references, false otherwise.
+     */
+    public boolean isCyclic(long cell) {
+        Node node = nodes.get(cell);
+        return node != null && node.component.cyclic;
+    }
+
+    /**
+     * Gets the circular dependencies of the spreadsheet, as the strongly connected components of the
+     * reference graph: within a component, every cell depends on every other cell.
+     *
+     * @return The keys of the cells of every component, each sorted by row and column.
+     */
+    public List<long[]> getCycles() {
+        List<long[]> result = new ArrayList<>(cycles.size());
+        for (Component component : cycles) {
+            long[] cells = new long[component.members.size()];
+            for (int i = 0; i < cells.length; i++) {
+                cells[i] = component.members.get(i).cell;
+            }
+            Arrays.sort(cells);
+            result.add(cells);
+        }
+        return result;
+    }
+
+    /**
+     * Computes the formula cells reachable from the given cells, in topological order. The cells of a cycle
+     * are adjacent in the order and also added to the given set.
+     *
+     * @param roots  The keys of the edited cells, formula cells or not.
+     * @param cyclic Receives the keys of the cells that are part of a circular dependency.
+     * @return The keys of the formula cells reachable from the roots, every cell after all of its precedents.
+     */
+    long[] orderFrom(Collection<Long> roots, Set<Long> cyclic) {
+        int visit = ++epoch;
+        List<Node> reached = new ArrayList<>();
+        Deque<Node> stack = new ArrayDeque<>();
+        Consumer<Node> push = node -> {
+            if (node.mark != visit) {
+                node.mark = visit;
+                stack.push(node);
+            }
+        };
+        for (long root : roots) {
+            Node node = nodes.get(root);
+            if (node != null) {
+                push.accept(node);
+            } else {
+                for (long dependent : graph.getDependents(root)) {
+                    Node dependentNode = nodes.get(dependent);
+                    if (dependentNode != null) {
+                        push.accept(dependentNode);
+                    }
+                }
+            }
+            while (!stack.isEmpty()) {
+                Node next = stack.pop();
+                reached.add(next);
+                next.dependents.forEach(push);
+            }
+        }
+        reached.sort(Comparator.comparingInt(node -> node.component.order));
+        long[] order = new long[reached.size()];
+        for (int i = 0; i < order.length; i++) {
+            Node node = reached.get(i);
+            order[i] = node.cell;
+            if (node.component.cyclic) {
+                cyclic.add(node.cell);
+            }
+        }
+        return order;
+    }
+
+    /**
+     * Gives a node a component of its own.
+     *
+     * @param node  The node.
+     * @param order The order number of the component, lower or higher than that of every other component.
+     */
+    private void place(Node node, int order) {
+        Component component = new Component();
+        component.order = order;
+        component.members.add(node);
+        node.component = component;
+    }
+
+    /**
+     * Splits a component back into single cells and adds the references of its cells again, one by one,
+     * which collapses the cycles that remain.
+     *
+     * @param component The component.
+     */
+    private void dissolve(Component component) {
+        cycles.remove(component);
+        List<Node> members = component.members;
+        List<Node[]> references = new ArrayList<>();
+        for (Node member : members) {
+            for (Node precedent : member.precedents) {
+                references.add(new Node[]{precedent, member});
+                if (precedent.component != component) {
+                    precedent.dependents.remove(member);
+                }
+            }
+            for (Node dependent : member.dependents) {
+                if (dependent.component != component) {
+                    references.add(new Node[]{member, dependent});
+                    dependent.precedents.remove(member);
+                }
+            }
+        }
+        for (Node member : members) {
+            member.precedents.clear();
+            member.dependents.clear();
+            place(member, nextOrder++);
+        }
+        for (Node[] reference : references) {
+            connect(reference[0], reference[1]);
+        }
+    }
+
+    /**
+     * Adds a reference from one cell to another and restores the topological order for it.
+     *
+     * @param from The node of the referenced cell.
+     * @param to   The node of the formula cell referencing it.
+     */
+    private void connect(Node from, Node to) {
+        if (from.dependents.add(to)) {
+            to.precedents.add(from);
+            insertEdge(from, to);
+        }
+    }
+
+    /**
+     * Restores the topological order after a reference from one cell to another was added.
+     *
+     * @param from The node of the referenced cell.
+     * @param to   The node of the formula cell referencing it.
+     */
+    private void insertEdge(Node from, Node to) {
+        Component source = from.component;
+        Component target = to.component;
+        if (source == target) {
+            if (!source.cyclic) {
+                // A cell referencing itself
+                source.cyclic = true;
+                cycles.add(source);
+            }
+            return;
+        }
+        if (source.order < target.order) {
+            return;
+        }
+        int visit = ++epoch;
+        List<Component> forward = search(target, source.order, true, visit);
+        List<Component> backward = search(source, target.order, false, visit);
+        reorder(forward, backward, source.forwardMark == visit, visit);
+    }
+
+    /**
+     * Finds the components reachable from a component, forwards or backwards, whose order number lies
+     * on the near side of a bound.
+     *
+     * @param start   The component to start from.
+     * @param bound   The highest order number visited forwards, or the lowest visited backwards.
+     * @param forward Whether dependents are followed, rather than precedents.
+     * @param visit   The epoch marking the components visited by this search.
+     * @return The components found, including the start.
+     */
+    private List<Component> search(Component start, int bound, boolean forward, int visit) {
+        List<Component> found = new ArrayList<>();
+        Deque<Component> stack = new ArrayDeque<>();
+        mark(start, forward, visit);
+        stack.push(start);
+        Consumer<Node> push = node -> {
+            Component component = node.component;
+            boolean inside = forward ? component.order <= bound : component.order >= bound;
+            if (inside && (forward ? component.forwardMark : component.backwardMark) != visit) {
+                mark(component, forward, visit);
+                stack.push(component);
+            }
+        };
+        while (!stack.isEmpty()) {
+            Component component = stack.pop();
+            found.add(component);
+            for (Node member : component.members) {
+                if (forward) {
+                    member.dependents.forEach(push);
+                } else {
+                    member.precedents.forEach(push);
+                }
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Marks a component as visited by a search.
+     *
+     * @param component The component.
+     * @param forward   Whether the search is the forward one.
+     * @param visit     The epoch of the search.
+     */
+    private static void mark(Component component, boolean forward, int visit) {
+        if (forward) {
+            component.forwardMark = visit;
+        } else {
+            component.backwardMark = visit;
+        }
+    }
+
+    /**
+     * Reassigns the order numbers of the components found by both searches: the components that reach the
+     * referenced cell come first, then the cycle closed by the new reference if any, then the components
+     * reachable from the formula cell.
+     *
+     * @param forward  The components found forwards from the formula cell.
+     * @param backward The components found backwards from the referenced cell.
+     * @param cycle    Whether the forward search reached the referenced cell.
+     * @param visit    The epoch of both searches.
+     */
+    private void reorder(List<Component> forward, List<Component> backward, boolean cycle, int visit) {
+        List<Integer> pool = new ArrayList<>(forward.size() + backward.size());
+        Component merged = cycle ? new Component() : null;
+        List<Component> after = new ArrayList<>(forward.size());
+        for (Component component : forward) {
+            pool.add(component.order);
+            if (cycle && component.backwardMark == visit) {
+                absorb(merged, component);
+            } else {
+                after.add(component);
+            }
+        }
+        List<Component> before = new ArrayList<>(backward.size());
+        for (Component component : backward) {
+            if (component.forwardMark != visit) {
+                pool.add(component.order);
+                before.add(component);
+            }
+        }
+        pool.sort(null);
+        before.sort(Comparator.comparingInt(component -> component.order));
+        after.sort(Comparator.comparingInt(component -> component.order));
+        for (int i = 0; i < before.size(); i++) {
+            before.get(i).order = pool.get(i);
+        }
+        if (merged != null) {
+            merged.order = pool.get(before.size());
+            merged.cyclic = true;
+            cycles.add(merged);
+        }
+        int first = pool.size() - after.size();
+        for (int i = 0; i < after.size(); i++) {
+            after.get(i).order = pool.get(first + i);
+        }
+    }
+
+    /**
+     * Moves the cells of a component into the component of a cycle.
+     *
+     * @param merged    The component of the cycle.
+     * @param component The component to merge into it.
+     */
+    private void absorb(Component merged, Component component) {
+        cycles.remove(component);
+        for (Node member : component.members) {
+            member.component = merged;
+            merged.members.add(member);
+        }
+    }
+}
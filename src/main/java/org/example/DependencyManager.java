@@ -1,35 +1,456 @@
 package org.example;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.function.LongConsumer;
 
 /**
  * The DependencyManager class manages dependencies between cells in a spreadsheet.
- * It provides methods to register and retrieve cells based on their references.
+ * It keeps the precedents of every formula cell and the reverse dependents edges, tracks which cells
+ * were edited since the last recalculation, and computes the order in which the affected formulas
+ * have to be re-evaluated.
+ * <p>
+ * Cells are identified by a key packing their row and column indices (see {@link #key(int, int)}).
+ * A {@link CycleDetector} keeps the formula cells in topological order as formulas are set, so circular
+ * dependencies are found when they are created rather than on every recalculation.
  */
-public class DependencyManager {
+public final class DependencyManager {
+    private static final long[] NO_CELLS = new long[0];
     /**
-     * A map that stores cell references as keys and corresponding cells as values.
+     * Ranges covering more blocks of {@link CellStore#CHUNK_SIZE} rows than this are not indexed per block.
      */
-    private final Map<String, Cell> cellMap = new HashMap<>();
+    private static final int WIDE_RANGE_BLOCKS = 16;
 
     /**
-     * Registers a cell with the specified reference in the DependencyManager.
+     * Direct references: for every referenced cell, the formula cells that reference it.
+     */
+    private final Map<Long, Set<Long>> dependents = new HashMap<>();
+    /**
+     * For every formula cell, the single cells it references.
+     */
+    private final Map<Long, long[]> precedents = new HashMap<>();
+    /**
+     * For every formula cell, the ranges it references.
+     */
+    private final Map<Long, FormulaNode.Range[]> rangePrecedents = new HashMap<>();
+    /**
+     * Ranges referenced by formula cells, indexed by column and block of rows so that finding the ranges
+     * covering a cell only looks at the ranges overlapping its block. The key is {@code key(block, column)}.
+     */
+    private final Map<Long, List<RangeDependent>> rangeDependents = new HashMap<>();
+    /**
+     * For every column, the ranges spanning more than {@link #WIDE_RANGE_BLOCKS} blocks of rows, grouped by
+     * the formula cell referencing them, so that replacing a formula does not scan the ranges of the others.
+     */
+    private final Map<Integer, Map<Long, List<RangeDependent>>> wideRangeDependents = new HashMap<>();
+    private final Set<Long> formulas = new HashSet<>();
+    /**
+     * For every column, the rows of its formula cells, to find the formula cells inside a range.
+     */
+    private final Map<Integer, BitSet> formulaRows = new HashMap<>();
+    private final Set<Long> dirty = new LinkedHashSet<>();
+    private final CycleDetector cycleDetector;
+
+    /**
+     * A range referenced by a formula cell, stored per covered column.
+     *
+     * @param startRow  The first row of the range.
+     * @param endRow    The last row of the range.
+     * @param dependent The key of the formula cell referencing the range.
+     */
+    private record RangeDependent(int startRow, int endRow, long dependent) {
+    }
+
+    /**
+     * Constructs a dependency manager without any formula cell.
+     */
+    public DependencyManager() {
+        cycleDetector = new CycleDetector(this);
+    }
+
+    /**
+     * Packs row and column indices into a single cell key.
+     *
+     * @param row    The row index.
+     * @param column The column index.
+     * @return The cell key.
+     */
+    public static long key(int row, int column) {
+        return ((long) row << 32) | (column & 0xFFFFFFFFL);
+    }
+
+    /**
+     * Extracts the row index from a cell key.
+     *
+     * @param key The cell key.
+     * @return The row index.
+     */
+    public static int row(long key) {
+        return (int) (key >>> 32);
+    }
+
+    /**
+     * Extracts the column index from a cell key.
+     *
+     * @param key The cell key.
+     * @return The column index.
+     */
+    public static int column(long key) {
+        return (int) key;
+    }
+
+    /**
+     * Replaces the precedents of a formula cell with the references of its compiled formula.
+     *
+     * @param cell     The key of the formula cell.
+     * @param formula  The compiled formula of the cell.
+     */
+    public void setPrecedents(long cell, FormulaNode formula) {
+        unlinkPrecedents(cell);
+        List<FormulaNode> references = new ArrayList<>();
+        formula.collectReferences(references);
+        long[] points = new long[references.size()];
+        List<FormulaNode.Range> ranges = new ArrayList<>();
+        int pointCount = 0;
+        for (FormulaNode reference : references) {
+            if (reference instanceof FormulaNode.Reference single) {
+                long precedent = key(single.getRow(), single.getColumn());
+                points[pointCount++] = precedent;
+                dependents.computeIfAbsent(precedent, k -> new HashSet<>()).add(cell);
+            } else if (reference instanceof FormulaNode.Range range) {
+                ranges.add(range);
+                RangeDependent entry = new RangeDependent(range.getStartRow(), range.getEndRow(), cell);
+                for (int column = range.getStartColumn(); column <= range.getEndColumn(); column++) {
+                    if (isWide(range)) {
+                        wideRangeDependents.computeIfAbsent(column, k -> new HashMap<>())
+                                .computeIfAbsent(cell, k -> new ArrayList<>(1)).add(entry);
+                        continue;
+                    }
+                    for (List<RangeDependent> bucket : rangeBuckets(range, column, true)) {
+                        bucket.add(entry);
+                    }
+                }
+            }
+        }
+        precedents.put(cell, Arrays.copyOf(points, pointCount));
+        if (!ranges.isEmpty()) {
+            rangePrecedents.put(cell, ranges.toArray(new FormulaNode.Range[0]));
+        }
+        if (formulas.add(cell)) {
+            formulaRows.computeIfAbsent(column(cell), k -> new BitSet()).set(row(cell));
+        }
+        cycleDetector.addFormula(cell);
+    }
+
+    /**
+     * Removes every precedent of a cell, for example when a formula is replaced by a constant.
+     *
+     * @param cell The key of the cell.
+     */
+    public void removePrecedents(long cell) {
+        unlinkPrecedents(cell);
+        if (formulas.remove(cell)) {
+            BitSet rows = formulaRows.get(column(cell));
+            rows.clear(row(cell));
+            if (rows.isEmpty()) {
+                formulaRows.remove(column(cell));
+            }
+            cycleDetector.removeFormula(cell);
+        }
+    }
+
+    /**
+     * Removes the references of a cell to its precedents, keeping it registered as a formula cell.
+     *
+     * @param cell The key of the cell.
+     */
+    private void unlinkPrecedents(long cell) {
+        long[] points = precedents.remove(cell);
+        if (points != null) {
+            for (long precedent : points) {
+                Set<Long> cells = dependents.get(precedent);
+                if (cells != null) {
+                    cells.remove(cell);
+                    if (cells.isEmpty()) {
+                        dependents.remove(precedent);
+                    }
+                }
+            }
+        }
+        FormulaNode.Range[] ranges = rangePrecedents.remove(cell);
+        if (ranges != null) {
+            for (FormulaNode.Range range : ranges) {
+                for (int column = range.getStartColumn(); column <= range.getEndColumn(); column++) {
+                    if (isWide(range)) {
+                        Map<Long, List<RangeDependent>> wide = wideRangeDependents.get(column);
+                        if (wide != null && wide.remove(cell) != null && wide.isEmpty()) {
+                            wideRangeDependents.remove(column);
+                        }
+                        continue;
+                    }
+                    for (List<RangeDependent> bucket : rangeBuckets(range, column, false)) {
+                        bucket.removeIf(entry -> entry.dependent() == cell);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Calls an action with every formula cell referenced by a formula cell, directly or through a range.
+     *
+     * @param cell   The key of the formula cell.
+     * @param action The action receiving the keys of the referenced formula cells.
+     */
+    void forEachFormulaPrecedent(long cell, LongConsumer action) {
+        long[] points = precedents.get(cell);
+        if (points != null) {
+            for (long precedent : points) {
+                if (formulas.contains(precedent)) {
+                    action.accept(precedent);
+                }
+            }
+        }
+        FormulaNode.Range[] ranges = rangePrecedents.get(cell);
+        if (ranges != null) {
+            for (FormulaNode.Range range : ranges) {
+                for (int column = range.getStartColumn(); column <= range.getEndColumn(); column++) {
+                    BitSet rows = formulaRows.get(column);
+                    if (rows == null) {
+                        continue;
+                    }
+                    for (int row = rows.nextSetBit(range.getStartRow()); row >= 0 && row <= range.getEndRow();
+                         row = rows.nextSetBit(row + 1)) {
+                        action.accept(key(row, column));
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Checks if a cell is part of a circular dependency.
+     *
+     * @param cell The key of the cell.
+     * @return True if the cell is a formula cell on a cycle of references, false otherwise.
+     */
+    public boolean isCyclic(long cell) {
+        return cycleDetector.isCyclic(cell);
+    }
+
+    /**
+     * Gets the circular dependencies between the formula cells, as strongly connected components: within a
+     * component, every cell depends, directly or not, on every other cell.
+     *
+     * @return The keys of the cells of every component, each sorted by row and column.
+     */
+    public List<long[]> getCycles() {
+        return cycleDetector.getCycles();
+    }
+
+    /**
+     * Gets the formula cells that directly reference the given cell, either by itself or through a range.
+     *
+     * @param cell The key of the cell.
+     * @return The keys of the dependent cells.
+     */
+    public long[] getDependents(long cell) {
+        Set<Long> direct = dependents.get(cell);
+        int row = row(cell);
+        List<RangeDependent> covering = rangeDependents.get(key(row >>> CellStore.CHUNK_BITS, column(cell)));
+        Map<Long, List<RangeDependent>> wide = wideRangeDependents.get(column(cell));
+        if (direct == null && (covering == null || covering.isEmpty()) && wide == null) {
+            return NO_CELLS;
+        }
+        Set<Long> result = direct == null ? new LinkedHashSet<>() : new LinkedHashSet<>(direct);
+        if (covering != null) {
+            addCovering(covering, row, result);
+        }
+        if (wide != null) {
+            for (List<RangeDependent> entries : wide.values()) {
+                addCovering(entries, row, result);
+            }
+        }
+        if (result.isEmpty()) {
+            return NO_CELLS;
+        }
+        long[] keys = new long[result.size()];
+        int i = 0;
+        for (long key : result) {
+            keys[i++] = key;
+        }
+        return keys;
+    }
+
+    /**
+     * Checks if any formula cell references the given cell, either by itself or through a range.
+     *
+     * @param cell The key of the cell.
+     * @return True if the cell has dependents, false otherwise.
+     */
+    public boolean hasDependents(long cell) {
+        if (dependents.containsKey(cell)) {
+            return true;
+        }
+        if (rangeDependents.isEmpty() && wideRangeDependents.isEmpty()) {
+            return false;
+        }
+        return getDependents(cell).length > 0;
+    }
+
+    /**
+     * Adds the formula cells of the ranges of a list that cover a row.
+     *
+     * @param entries The ranges.
+     * @param row     The row index.
+     * @param result  The set receiving the keys of the formula cells.
+     */
+    private static void addCovering(List<RangeDependent> entries, int row, Set<Long> result) {
+        for (RangeDependent entry : entries) {
+            if (row >= entry.startRow() && row <= entry.endRow()) {
+                result.add(entry.dependent());
+            }
+        }
+    }
+
+    /**
+     * Checks if a range spans too many blocks of rows to be indexed per block.
+     *
+     * @param range The range.
+     * @return True if the range is kept with the wide ranges of its columns, false otherwise.
+     */
+    private static boolean isWide(FormulaNode.Range range) {
+        return (range.getEndRow() >>> CellStore.CHUNK_BITS) - (range.getStartRow() >>> CellStore.CHUNK_BITS)
+                >= WIDE_RANGE_BLOCKS;
+    }
+
+    /**
+     * Gets the index lists in which a range that is not wide is registered for one of its columns, one list
+     * per block of rows it overlaps.
+     *
+     * @param range  The range.
+     * @param column The column of the range.
+     * @param create Whether missing lists are created.
+     * @return The index lists of the range.
+     */
+    private List<List<RangeDependent>> rangeBuckets(FormulaNode.Range range, int column, boolean create) {
+        List<List<RangeDependent>> buckets = new ArrayList<>();
+        int firstBlock = range.getStartRow() >>> CellStore.CHUNK_BITS;
+        int lastBlock = range.getEndRow() >>> CellStore.CHUNK_BITS;
+        for (int block = firstBlock; block <= lastBlock; block++) {
+            List<RangeDependent> bucket = create ? rangeDependents.computeIfAbsent(key(block, column), k -> new ArrayList<>())
+                    : rangeDependents.get(key(block, column));
+            if (bucket != null) {
+                buckets.add(bucket);
+            }
+        }
+        return buckets;
+    }
+
+    /**
+     * Marks a cell as edited so that it and its transitive dependents are recalculated.
+     *
+     * @param cell The key of the edited cell.
+     */
+    public void markDirty(long cell) {
+        dirty.add(cell);
+    }
+
+    /**
+     * Checks if any cell was edited since the last recalculation.
+     *
+     * @return True if a recalculation is pending, false otherwise.
+     */
+    public boolean hasDirtyCells() {
+        return !dirty.isEmpty();
+    }
+
+    /**
+     * Forgets the edits since the last recalculation, for example when the stored values of the formula
+     * cells are known to be up to date.
+     */
+    public void clearDirty() {
+        dirty.clear();
+    }
+
+    /**
+     * Marks every formula cell as edited, forcing a full recalculation.
+     */
+    public void markAllDirty() {
+        dirty.addAll(formulas);
+    }
+
+    /**
+     * Checks if the given cell holds a formula registered in this manager.
+     *
+     * @param cell The key of the cell.
+     * @return True if the cell is a registered formula cell, false otherwise.
+     */
+    public boolean isFormula(long cell) {
+        return formulas.contains(cell);
+    }
+
+    /**
+     * Computes the formula cells affected by the edits since the last call, in topological order,
+     * and clears the edited cells. Only the transitive dependents of the edited cells are visited.
      *
-     * @param cellReference The reference of the cell to be registered.
-     * @param cell The cell object to be registered.
+     * @param cyclic Receives the keys of the cells that are part of a circular dependency.
+     * @return The keys of the formula cells to re-evaluate, every cell after all of its precedents.
      */
-    public void registerCell(String cellReference, Cell cell) {
-        cellMap.put(cellReference, cell);
+    public long[] takeRecalculationOrder(Set<Long> cyclic) {
+        long[] order = cycleDetector.orderFrom(dirty, cyclic);
+        dirty.clear();
+        return order;
     }
 
     /**
-     * Retrieves the cell associated with the specified reference from the DependencyManager.
+     * Groups the cells of a recalculation order by dependency level. Cells of level 0 only depend on
+     * cells outside the order; the cells of level n depend on cells of lower levels, so the cells of a
+     * level do not depend on each other and can be evaluated in any order.
      *
-     * @param cellReference The reference of the cell to be retrieved.
-     * @return The cell object associated with the specified reference, or null if not found.
+     * @param order    The recalculation order returned by {@link #takeRecalculationOrder(Set)}.
+     * @param excluded The cells to leave out, such as those on a circular dependency.
+     * @return The keys of the cells of every level, from level 0 upwards.
      */
-    public Cell getCell(String cellReference) {
-        return cellMap.get(cellReference);
+    public long[][] groupByLevel(long[] order, Set<Long> excluded) {
+        Map<Long, Integer> positions = new HashMap<>();
+        for (int i = 0; i < order.length; i++) {
+            positions.put(order[i], i);
+        }
+        int[] levels = new int[order.length];
+        int levelCount = 0;
+        int[] sizes = new int[order.length + 1];
+        for (int i = 0; i < order.length; i++) {
+            if (excluded.contains(order[i])) {
+                continue;
+            }
+            // The order is topological, so the level of this cell is final once it is reached
+            for (long dependent : getDependents(order[i])) {
+                Integer position = positions.get(dependent);
+                if (position != null && position > i) {
+                    levels[position] = Math.max(levels[position], levels[i] + 1);
+                }
+            }
+            sizes[levels[i]]++;
+            levelCount = Math.max(levelCount, levels[i] + 1);
+        }
+        long[][] grouped = new long[levelCount][];
+        for (int level = 0; level < levelCount; level++) {
+            grouped[level] = new long[sizes[level]];
+            sizes[level] = 0;
+        }
+        for (int i = 0; i < order.length; i++) {
+            if (!excluded.contains(order[i])) {
+                grouped[levels[i]][sizes[levels[i]]++] = order[i];
+            }
+        }
+        return grouped;
     }
 }
@@ -0,0 +1,287 @@
+package org.example;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+
+/**
+ * The EditJournal class keeps an append-only log of the cell edits made to a spreadsheet saved as a
+ * workbook file, so that edits survive a crash without rewriting the whole workbook after every change.
+ * <p>
+ * Every edit is appended as a record holding the length of its body, a CRC-32 of the body, and the body:
+ * the kind of content (number, text or formula), the row and column of the cell and the content itself.
+ * Records are buffered and written with a single {@code fsync} once {@link #SYNC_BATCH} records are pending,
+ * {@link #SYNC_INTERVAL_NANOS} have passed since the last sync, or {@link #sync()} is called.
+ * <p>
+ * When the workbook is opened, the journal is replayed on top of it; a record cut short by a crash is
+ * detected by its length or checksum and discarded. Once the journal grows past {@link #COMPACTION_SIZE}
+ * bytes it should be compacted with {@link #compact(SpreadSheet)}, which saves the spreadsheet into the
+ * workbook file and empties the journal.
+ */
+public class EditJournal implements AutoCloseable {
+    /**
+     * Number of pending records that triggers a sync.
+     */
+    static final int SYNC_BATCH = 64;
+    /**
+     * Time after which pending records are synced with the next edit.
+     */
+    static final long SYNC_INTERVAL_NANOS = 200_000_000L;
+    /**
+     * Size in bytes past which the journal should be compacted into the workbook.
+     */
+    static final long COMPACTION_SIZE = 64L << 20;
+
+    private static final int RECORD_HEADER = 2 * Integer.BYTES;
+
+    private final Path workbookPath;
+    private final Path journalPath;
+    private final FileChannel channel;
+    private final CRC32 checksum = new CRC32();
+    private ByteBuffer buffer = ByteBuffer.allocate(64 << 10);
+    private int pendingRecords;
+    private long lastSync = System.nanoTime();
+    private long size;
+
+    /**
+     * Constructs a journal writing to an open channel.
+     *
+     * @param workbookPath The path of the workbook file the journal belongs to.
+     * @param journalPath  The path of the journal file.
+     * @param channel      The channel of the journal file.
+     * @throws IOException If the size of the journal cannot be read.
+     */
+    private EditJournal(Path workbookPath, Path journalPath, FileChannel channel) throws IOException {
+        this.workbookPath = workbookPath;
+        this.journalPath = journalPath;
+        this.channel = channel;
+        this.size = channel.size();
+    }
+
+    /**
+     * Opens the journal of a workbook file, creating it if it does not exist. The journal file is the
+     * workbook path followed by ".journal".
+     *
+     * @param workbookPath The path of the workbook file.
+     * @return The journal.
+     * @throws IOException If the journal cannot be opened.
+     */
+    public static EditJournal open(String workbookPath) throws IOException {
+        Path journalPath = Path.of(workbookPath + ".journal");
+        FileChannel channel = FileChannel.open(journalPath, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        return new EditJournal(Path.of(workbookPath), journalPath, channel);
+    }
+
+    /**
+     * Applies every complete record of the journal to a spreadsheet, in the order they were written, and
+     * cuts off a trailing record left incomplete by a crash. The spreadsheet must not be journaling to
+     * this journal while it is replayed.
+     *
+     * @param spreadsheet The spreadsheet opened from the workbook file.
+     * @return The number of records applied.
+     * @throws IOException If the journal cannot be read.
+     */
+    public int replay(SpreadSheet spreadsheet) throws IOException {
+        ByteBuffer contents = ByteBuffer.allocate((int) Math.min(channel.size(), Integer.MAX_VALUE));
+        // A single read may return fewer bytes than requested, which must not be taken for a torn record
+        while (contents.hasRemaining()) {
+            if (channel.read(contents, contents.position()) < 0) {
+                break;
+            }
+        }
+        contents.flip();
+        int applied = 0;
+        while (contents.remaining() >= RECORD_HEADER) {
+            int start = contents.position();
+            int length = contents.getInt();
+            int crc = contents.getInt();
+            if (length < 9 || length > contents.remaining()) {
+                contents.position(start);
+                break;
+            }
+            checksum.reset();
+            checksum.update(contents.array(), contents.position(), length);
+            if ((int) checksum.getValue() != crc) {
+                contents.position(start);
+                break;
+            }
+            apply(spreadsheet, contents, length);
+            applied++;
+        }
+        if (contents.position() < channel.size()) {
+            System.out.println("Discarding incomplete journal record at byte " + contents.position());
+            channel.truncate(contents.position());
+            channel.force(true);
+        }
+        size = contents.position();
+        return applied;
+    }
+
+    /**
+     * Applies the body of one record to a spreadsheet.
+     *
+     * @param spreadsheet The spreadsheet.
+     * @param record      The buffer positioned at the body of the record.
+     * @param length      The length of the body.
+     */
+    private static void apply(SpreadSheet spreadsheet, ByteBuffer record, int length) {
+        byte type = record.get();
+        int row = record.getInt();
+        int column = record.getInt();
+        spreadsheet.ensureSize(row + 1, column + 1);
+        if (type == CellStore.NUMBER) {
+            spreadsheet.setNumber(row, column, record.getDouble());
+        } else {
+            byte[] text = new byte[length - 9];
+            record.get(text);
+            String content = new String(text, StandardCharsets.UTF_8);
+            if (type == CellStore.FORMULA) {
+                spreadsheet.setFormula(row, column, content);
+            } else {
+                spreadsheet.setText(row, column, content);
+            }
+        }
+    }
+
+    /**
+     * Appends the current content of a cell to the journal.
+     *
+     * @param store  The store holding the cell.
+     * @param row    The row index of the cell.
+     * @param column The column index of the cell.
+     * @throws IOException If the journal cannot be written.
+     */
+    public void record(CellStore store, int row, int column) throws IOException {
+        byte type = store.getType(row, column);
+        byte[] text = null;
+        if (type == CellStore.TEXT) {
+            text = store.getText(row, column).getBytes(StandardCharsets.UTF_8);
+        } else if (type == CellStore.FORMULA) {
+            text = store.getFormula(row, column).getFormulaString().getBytes(StandardCharsets.UTF_8);
+        } else if (type != CellStore.NUMBER) {
+            return;
+        }
+        int length = 9 + (text == null ? Double.BYTES : text.length);
+        if (buffer.remaining() < RECORD_HEADER + length) {
+            writeBuffer();
+            if (buffer.capacity() < RECORD_HEADER + length) {
+                buffer = ByteBuffer.allocate(RECORD_HEADER + length);
+            }
+        }
+        int start = buffer.position();
+        buffer.putInt(length);
+        buffer.putInt(0);
+        buffer.put(type);
+        buffer.putInt(row);
+        buffer.putInt(column);
+        if (text == null) {
+            buffer.putDouble(store.getValue(row, column));
+        } else {
+            buffer.put(text);
+        }
+        checksum.reset();
+        checksum.update(buffer.array(), start + RECORD_HEADER, length);
+        buffer.putInt(start + Integer.BYTES, (int) checksum.getValue());
+        size += RECORD_HEADER + length;
+        pendingRecords++;
+        if (pendingRecords >= SYNC_BATCH || System.nanoTime() - lastSync >= SYNC_INTERVAL_NANOS) {
+            sync();
+        }
+    }
+
+    /**
+     * Writes the pending records and forces them to the storage device.
+     *
+     * @throws IOException If the journal cannot be written.
+     */
+    public void sync() throws IOException {
+        writeBuffer();
+        channel.force(false);
+        pendingRecords = 0;
+        lastSync = System.nanoTime();
+    }
+
+    /**
+     * Checks if the journal has grown enough to be compacted into the workbook file.
+     *
+     * @return True if the journal is larger than {@link #COMPACTION_SIZE}, false otherwise.
+     */
+    public boolean needsCompaction() {
+        return size > COMPACTION_SIZE;
+    }
+
+    /**
+     * Gets the path of the workbook file this journal belongs to.
+     *
+     * @return The workbook path.
+     */
+    public String getWorkbookPath() {
+        return workbookPath.toString();
+    }
+
+    /**
+     * Gets the path of the journal file.
+     *
+     * @return The journal path.
+     */
+    public String getJournalPath() {
+        return journalPath.toString();
+    }
+
+    /**
+     * Saves a spreadsheet into the workbook file and empties the journal. The workbook is written to a
+     * temporary file that replaces the old one atomically, so a crash at any point leaves either the old
+     * workbook with its journal, or the new workbook; replaying the journal on the new workbook again
+     * gives the same cells.
+     *
+     * @param spreadsheet The spreadsheet whose edits are recorded in this journal.
+     * @throws IOException If the workbook or the journal cannot be written.
+     */
+    public void compact(SpreadSheet spreadsheet) throws IOException {
+        sync();
+        Path temporary = Path.of(workbookPath + ".tmp");
+        WorkbookFile.save(spreadsheet, temporary.toString());
+        try (FileChannel saved = FileChannel.open(temporary, StandardOpenOption.WRITE)) {
+            saved.force(true);
+        }
+        Files.move(temporary, workbookPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        channel.truncate(0);
+        channel.force(true);
+        size = 0;
+    }
+
+    /**
+     * Writes the buffered records at the end of the journal file.
+     *
+     * @throws IOException If the journal cannot be written.
+     */
+    private void writeBuffer() throws IOException {
+        buffer.flip();
+        long position = channel.size();
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+        buffer.clear();
+    }
+
+    /**
+     * Syncs the pending records and closes the journal file.
+     *
+     * @throws IOException If the journal cannot be written.
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            sync();
+        } finally {
+            channel.close();
+        }
+    }
+}
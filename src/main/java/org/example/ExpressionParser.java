@@ -1,14 +1,30 @@
 package org.example;
 
-import java.util.ArrayList;
-import java.util.List;
-import java.util.Stack;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.Map;
 /**
  * Parses and evaluates the given expression for a cell in a spreadsheet.
  */
 public class ExpressionParser {
+    /**
+     * Number of compiled RPN programs kept per thread by {@link #compileRPN(String)}.
+     */
+    static final int RPN_CACHE_SIZE = 256;
+
+    /**
+     * The programs compiled by each thread, least recently used first. A program evaluates on its own stack,
+     * so it is only reused by the thread that compiled it.
+     */
+    private static final ThreadLocal<Map<String, RpnProgram>> RPN_PROGRAMS = ThreadLocal.withInitial(
+            () -> new LinkedHashMap<>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, RpnProgram> eldest) {
+                    return size() > RPN_CACHE_SIZE;
+                }
+            });
+
     private SpreadSheet SpreadSheet;
     private Cell currentCell;
 
@@ -42,9 +58,13 @@ public class ExpressionParser {
     public double evaluate(SpreadSheet s, String expression,Cell currentCell) throws Exception {
         try {
             this.SpreadSheet = s;
-            String preprocessedFormula = preprocessFormula(expression);
-            String rpn = infixToRPN(preprocessedFormula,s);
-            double result = buildSyntaxTreeAndCompute(rpn);
+            double result;
+            if (currentCell instanceof FormulaCell formulaCell && isFormulaOf(formulaCell, expression)) {
+                // Reuse the expression tree compiled when the formula was set
+                result = formulaCell.evaluateCompiled(s);
+            } else {
+                result = FormulaCompiler.compile(expression).evaluate(s);
+            }
 
             // Check for circular dependencies
             if (currentCell.isVisited()) {
@@ -56,294 +76,170 @@ public class ExpressionParser {
             }
             // Update the current cell with the new value
             currentCell.setVisited(true);
-            currentCell.updateValue(Double.toString(result));
-            currentCell.notifyDependents();
+            currentCell.setNumericValue(result);
             currentCell.setVisited(false); // Reset visited status
             return result;
-        } catch (ArithmeticException e) {
+        } catch (Exception e) {
+            return reportError(s, e);
+        }
+    }
+    /**
+     * Evaluates the formula of a formula cell through its compiled form, as {@link #evaluate} does for
+     * the formula of its current cell, without converting the formula text. Errors are reported the same way.
+     *
+     * @param s           The spreadsheet.
+     * @param formulaCell The formula cell to evaluate.
+     * @return The result of the evaluation, or NaN if the formula cannot be evaluated.
+     */
+    static double evaluateCell(SpreadSheet s, FormulaCell formulaCell) {
+        try {
+            return formulaCell.evaluateCompiled(s);
+        } catch (Exception e) {
+            return reportError(s, e);
+        }
+    }
+    /**
+     * Reports a failed evaluation on the console and in the recalculation statistics of a spreadsheet.
+     *
+     * @param s The spreadsheet, which may be null.
+     * @param e The exception that stopped the evaluation.
+     * @return NaN, the value of a formula that cannot be evaluated.
+     */
+    private static double reportError(SpreadSheet s, Exception e) {
+        if (e instanceof ArithmeticException) {
             System.out.println("Error detected: Equation divided by zero ");
-            return Double.NaN;
-        } catch (IllegalArgumentException e) {
+        } else if (e instanceof IllegalArgumentException) {
             System.out.println("Error detected: Invalid formula syntax");
-            return Double.NaN;
-        } catch (Exception e) {
+        } else {
             System.out.println("An unexpected error occurred: " + e.getMessage());
-            return Double.NaN;  // Return some default value for other exceptions
         }
+        if (s != null) {
+            s.recordEvaluationError();
+        }
+        return Double.NaN;
     }
     /**
-     * Converts an infix expression to Reverse Polish Notation (RPN).
+     * Checks if the given expression is the formula of the given cell.
+     *
+     * @param formulaCell The formula cell.
+     * @param expression  The expression without the leading "=".
+     * @return True if the cell holds "=" followed by the expression, false otherwise.
+     */
+    private static boolean isFormulaOf(FormulaCell formulaCell, String expression) {
+        String formula = formulaCell.getFormulaString();
+        return formula.length() == expression.length() + 1 && formula.startsWith(expression, 1);
+    }
+    /**
+     * Converts an arithmetic infix expression to Reverse Polish Notation (RPN). Tokens of the result are
+     * separated by a single space. Operands are numbers and cell references as {@link CellReference} accepts
+     * them (e.g., "A1", "$B$2"); they are kept as references, and their values are read when the RPN
+     * expression is evaluated with {@link #buildSyntaxTreeAndCompute(String, SpreadSheet)}. Functions and
+     * ranges have no RPN form, so formulas using them are compiled with {@link FormulaCompiler} instead.
      *
      * @param infixExpression The infix expression to convert.
      * @param spreadSheet    The spreadsheet associated with the expression.
      * @return The RPN representation of the infix expression.
+     * @throws IllegalArgumentException If the expression holds a function, a range, an unknown operand or
+     *                                  character, or unbalanced parentheses.
      */
     public String infixToRPN(String infixExpression, SpreadSheet spreadSheet) {
         StringBuilder output = new StringBuilder();
-        Stack<Character> operatorStack = new Stack<>();
+        Deque<Character> operatorStack = new ArrayDeque<>();
 
         for (int i = 0; i < infixExpression.length(); i++) {
             char c = infixExpression.charAt(i);
 
             if (isOperand(c)) {
-                StringBuilder operand = new StringBuilder();
-                while (i < infixExpression.length() && (Character.isLetterOrDigit(infixExpression.charAt(i)) || infixExpression.charAt(i) == '.')) {
-                    operand.append(infixExpression.charAt(i));
+                int start = i;
+                while (i < infixExpression.length() && isOperand(infixExpression.charAt(i))) {
                     i++;
                 }
+                String operand = infixExpression.substring(start, i);
+                if (i < infixExpression.length() && infixExpression.charAt(i) == '(') {
+                    throw new IllegalArgumentException("Functions cannot be converted to RPN: " + operand);
+                }
+                if (i < infixExpression.length() && infixExpression.charAt(i) == ':') {
+                    throw new IllegalArgumentException("Ranges cannot be converted to RPN: " + operand + ":");
+                }
+                if (!isDecimal(operand) && CellReference.parse(operand) == CellReference.INVALID) {
+                    throw new IllegalArgumentException("Invalid operand: " + operand);
+                }
                 i--; // Move back one position to handle the non-operand character in the next iteration
 
-                // Check if the operand is a cell reference
-                String cellReference = operand.toString();
-                if (org.example.SpreadSheet.isValidCellReference(cellReference)) {
-                    // Replace cell reference with its actual value
-                    Cell cell = org.example.SpreadSheet.getCellByReference(cellReference);
-                    if (cell==null){String cellContent="0";
-                        output.append(cellContent).append(" ");}
-                    else{
-                        String cellContent = Double.toString(cell.getNumericValue());
-                        output.append(cellContent).append(" ");}
-
-                } else {
-                    // Not a cell reference, append as is
-                    output.append(operand).append(" ");
-                }
+                // Cell references and numbers are both appended as is
+                output.append(operand).append(" ");
             } else if (isOperator(c)) {
                 handleOperator(c, operatorStack, output);
-                output.append(" "); // Add space after operator
             } else if (c == '(') {
                 operatorStack.push(c);
             } else if (c == ')') {
                 handleClosingParenthesis(operatorStack, output);
+            } else if (!Character.isWhitespace(c)) {
+                throw new IllegalArgumentException("Unexpected character in formula: " + c);
             }
         }
 
         // Append remaining operators in the stack to the output with spaces
         while (!operatorStack.isEmpty()) {
-            output.append(operatorStack.pop()).append(" ");
+            char operator = operatorStack.pop();
+            if (operator == '(') {
+                throw new IllegalArgumentException("Unbalanced parentheses");
+            }
+            output.append(operator).append(" ");
         }
 
-        // Trim any leading or trailing whitespace
-        String solution=output.toString().trim();
-        return solution.replaceAll("(?<=\\S)(?=[+\\-*/])|(?<=[+\\-*/])(?=\\S)", " ");
-
+        // Remove the space after the last token
+        if (output.length() > 0) {
+            output.setLength(output.length() - 1);
+        }
+        return output.toString();
     }
     /**
      * Handles the closing parenthesis during infix to RPN conversion.
      *
      * @param operatorStack The operator stack.
      * @param output        The output StringBuilder for RPN.
+     * @throws IllegalArgumentException If there is no matching opening parenthesis.
      */
-    private void handleClosingParenthesis(Stack<Character> operatorStack, StringBuilder output) {
+    private void handleClosingParenthesis(Deque<Character> operatorStack, StringBuilder output) {
         while (!operatorStack.isEmpty() && operatorStack.peek() != '(') {
             output.append(operatorStack.pop()).append(" ");
         }
-        if (!operatorStack.isEmpty()) {
-            operatorStack.pop(); // Pop the '('
-        }
-    }
-    /**
-     * Preprocesses the formula by identifying and replacing basic operations.
-     *
-     * @param formula The original formula.
-     * @return The processed formula with basic operations replaced by their computed results.
-     */
-    public String preprocessFormula(String formula) {
-        // Identify and replace basic operations in the formula
-        String processedFormula = formula;
-        // Define a pattern for identifying basic operations like SUMA(), PROMEDIO(), MIN(), and MAX()
-        Pattern pattern = Pattern.compile("(SUMA|PROMEDIO|MIN|MAX)\\(([^)]+)\\)");
-
-        Matcher matcher = pattern.matcher(formula);
-        while (matcher.find()) {
-            String operation = matcher.group(1);
-            String arguments2=extractContentInOutermostParentheses(processedFormula);
-            String innerContent = arguments2.substring(1, arguments2.length() - 1);
-            String[] elements2 = splitOutsideParentheses2(innerContent);
-            for (int i = 0; i < elements2.length; i++) {
-                String element = elements2[i];
-
-                String pattern2 = "^[A-Za-z]+\\d+";
-                Pattern regex = Pattern.compile(pattern2);
-                Matcher matcher2 = regex.matcher(element);
-                if (matcher2.matches()) {
-                    if (org.example.SpreadSheet.isValidCellReference(element)) {
-                        // Replace cell reference with its actual value
-                        Cell cell = org.example.SpreadSheet.getCellByReference(element);
-                        assert cell != null;
-                        elements2[i] = Double.toString(cell.getNumericValue());
-                    }
-                } else {
-                    if (element.contains("SUMA") || element.contains("PROMEDIO") || element.contains("MAX") || element.contains("MIN")) {
-                        FormulaCell formulaCell = new FormulaCell("="+ element);
-                        double result = formulaCell.evaluate(org.example.SpreadSheet.getCellMatrix());
-                        elements2[i]=String.valueOf(result);
-                    }
-                }
-            }
-            String result3 = String.join(";", elements2);
-            FormulaCell formulaCell = new FormulaCell('='+operation +'('+result3+')');
-            double result = formulaCell.evaluate(org.example.SpreadSheet.getCellMatrix());
-            int result2 = (int) result;
-
-            // Replace the matched part in the formula with the computed result as a string
-            processedFormula = processedFormula.replace(operation+arguments2, String.valueOf(result2));
-        }
-
-        return processedFormula;
-    }
-    /**
-     * Extracts content within the outermost parentheses of an expression.
-     *
-     * @param expression The expression containing parentheses.
-     * @return The content within the outermost parentheses.
-     */
-    public static String extractContentInOutermostParentheses(String expression) {
-        int nestingLevel = 0;
-        StringBuilder result = new StringBuilder();
-        int outermostStart = -1; // Track the start index of the outermost parentheses
-
-        for (int i = 0; i < expression.length(); i++) {
-            char c = expression.charAt(i);
-
-            if (c == '(') {
-                if (nestingLevel == 0) {
-                    outermostStart = i;
-                }
-                nestingLevel++;
-            } else if (c == ')') {
-                nestingLevel--;
-                if (nestingLevel == 1) { //ESTO ANTES ESTABA EN 0
-                    //nothing
-                } else if (nestingLevel < 0) {
-                    // Handle case where there is a second parenthesis without a corresponding opening parenthesis
-                    throw new IllegalArgumentException("Invalid parentheses in expression");
-                }else if (nestingLevel==0){
-                    String outermostContent = expression.substring(outermostStart, i + 1);
-                    result.append(handleContent(outermostContent));
-                    outermostStart = -1; // Reset for the next outermost set of parentheses
-                    break;
-                }
-            }
-        }
-
-        if (nestingLevel > 0) {
-            // Handle case where there is a second opening parenthesis without a corresponding closing parenthesis
-            throw new IllegalArgumentException("Invalid parentheses in expression");
-        }
-
-        return result.toString();
-    }
-    /**
-     * Handles the content within parentheses, replacing cell references with actual values.
-     *
-     * @param content The content within parentheses.
-     * @return The processed content with cell references replaced.
-     */
-    private static String handleContent(String content) {
-        if (containsSemicolon(content)) {
-            // Split content into parts based on semicolon
-            String[] parts = content.split(";");
-            StringBuilder result = new StringBuilder();
-
-            // Process each part
-            for (String part : parts) {
-                if (part.contains(":")) {
-                    // If the part contains a colon, treat it as a range and process accordingly
-                    result.append(handleRange(part)).append(";");
-                } else {
-                    // If no colon, append the part as is
-                    result.append(part).append(";");
-                }
-            }
-
-            // Remove the trailing semicolon and return the result
-            return result.deleteCharAt(result.length() - 1).toString();
-        } else {
-            // If no semicolon, return the content as is
-            return content;
+        if (operatorStack.isEmpty()) {
+            throw new IllegalArgumentException("Unbalanced parentheses");
         }
+        operatorStack.pop(); // Pop the '('
     }
     /**
-     * Handles ranges within parentheses.
-     *
-     * @param range The range within parentheses.
-     * @return The processed range.
-     */
-    private static String handleRange(String range) {
-        // Implement logic to handle range, e.g., convert "A1:A3" to "A1 A2 A3"
-        // For simplicity, this example just returns the original range
-        return range;
-    }
-
-    /**
-     * Checks if the given string contains a semicolon.
-     *
-     * @param s The input string.
-     * @return True if the string contains a semicolon, false otherwise.
-     */
-    private static boolean containsSemicolon(String s) {
-        return s.contains(";");
-    }
-    /**
-     * Splits the input string outside parentheses based on semicolons.
-     *
-     * @param input The input string to split.
-     * @return An array of substrings separated by semicolons outside parentheses.
-     */
-    private static String[] splitOutsideParentheses2(String input) {
-        // Initialize variables
-        int depth = 0;
-        int start = 0;
-        List<String> result = new ArrayList<>();
-
-        // Iterate through the characters of the input string
-        for (int i = 0; i < input.length(); i++) {
-            char c = input.charAt(i);
-
-            // Check if the character is a semicolon outside of parentheses
-            if (c == ';' && depth == 0) {
-                // Add the substring from the last start index to the current index
-                result.add(input.substring(start, i));
-                // Update the start index for the next substring
-                start = i + 1;
-            } else if (c == '(') {
-                // Increase the depth when an opening parenthesis is encountered
-                depth++;
-            } else if (c == ')') {
-                // Decrease the depth when a closing parenthesis is encountered
-                depth = Math.max(0, depth - 1);
-            }
-        }
-
-        // Add the remaining substring after the last semicolon
-        result.add(input.substring(start));
-
-        // Convert the list to an array
-        return result.toArray(new String[0]);
-    }
-    /**
-     * Checks if a character is an operand (letter, digit, or dot).
+     * Checks if a character can be part of an operand: a letter, a digit, a dot, or the "$" of an
+     * absolute cell reference.
      *
      * @param c The character to check.
      * @return True if the character is an operand, false otherwise.
      */
     private boolean isOperand(char c) {
-        return Character.isLetterOrDigit(c) || c == '.';
+        return Character.isLetterOrDigit(c) || c == '.' || c == '$';
     }
     /**
-     * Checks if a string represents a numeric value.
+     * Checks if an operand is a plain decimal number: digits with at most one decimal point.
      *
-     * @param str The string to check.
-     * @return True if the string represents a numeric value, false otherwise.
+     * @param operand The operand to check.
+     * @return True if the operand is a decimal number, false otherwise.
      */
-    private static boolean isNumeric(String str) {
-        try {
-            Double.parseDouble(str.replace(",", ".")); // Replace comma with dot for decimal parsing
-            return true;
-        } catch (NumberFormatException e) {
-            return false;
+    private boolean isDecimal(String operand) {
+        int digits = 0;
+        int points = 0;
+        for (int i = 0; i < operand.length(); i++) {
+            char c = operand.charAt(i);
+            if (c >= '0' && c <= '9') {
+                digits++;
+            } else if (c == '.' && points == 0) {
+                points++;
+            } else {
+                return false;
+            }
         }
+        return digits > 0;
     }
     /**
      * Determines the precedence of an operator.
@@ -370,75 +266,54 @@ public class ExpressionParser {
      * @param operatorStack The operator stack.
      * @param output        The output StringBuilder for RPN.
      */
-    private void handleOperator(char operator, Stack<Character> operatorStack, StringBuilder output) {
+    private void handleOperator(char operator, Deque<Character> operatorStack, StringBuilder output) {
         while (!operatorStack.isEmpty() && precedence(operatorStack.peek()) >= precedence(operator)) {
-            output.append(operatorStack.pop());
+            output.append(operatorStack.pop()).append(" ");
         }
         operatorStack.push(operator);
     }
     /**
-     * Represents a node in the syntax tree, which can be either an operator or an operand.
+     * Gets the compiled form of an RPN expression. Programs are cached per thread, so an expression that
+     * is evaluated repeatedly is only tokenized the first time, and later evaluations allocate nothing.
+     *
+     * @param rpnExpression The RPN expression (e.g., "A1 B2 +").
+     * @return The compiled program, to be evaluated by the calling thread only.
+     * @throws IllegalArgumentException If a token is unknown, an operator lacks operands, or the expression
+     *                                  does not leave exactly one value.
      */
-    static class TreeNode {
-        char operator; // Change char to Object to accommodate both operators and operands
-        Double operand; // Add an operand field as Double to distinguish from operators
-        TreeNode left, right;
-
-        TreeNode(char operator) {
-            this.operator = operator;
-            this.left = this.right = null;
-        }
-
-        TreeNode(Double operand) {
-            this.operand = operand;
-            this.left = this.right = null;
+    public static RpnProgram compileRPN(String rpnExpression) {
+        Map<String, RpnProgram> programs = RPN_PROGRAMS.get();
+        RpnProgram program = programs.get(rpnExpression);
+        if (program == null) {
+            program = RpnProgram.compile(rpnExpression);
+            programs.put(rpnExpression, program);
         }
+        return program;
     }
     /**
-     * Builds the syntax tree from the RPN expression and computes the result.
+     * Computes an RPN expression without cell references through its cached {@link RpnProgram}, which
+     * evaluates it on a primitive stack.
      *
      * @param rpnExpression The RPN expression.
      * @return The result of the expression evaluation.
+     * @throws IllegalArgumentException If the expression is malformed or references cells.
+     * @throws ArithmeticException      If a division by zero occurs.
      */
     public static double buildSyntaxTreeAndCompute(String rpnExpression) {
-        Stack<TreeNode> stack = new Stack<>();
-        String[] tokens = rpnExpression.split("\\s+");
-
-        for (String token : tokens) {
-            if (isNumeric(token)) {
-                stack.push(new TreeNode(Double.parseDouble(token)));
-            } else if (isOperator(token.charAt(0))) {
-                TreeNode operand2 = stack.pop();
-                TreeNode operand1 = stack.pop();
-                TreeNode operatorNode = new TreeNode(token.charAt(0));
-
-                operatorNode.left = operand1;
-                operatorNode.right = operand2;
-
-                stack.push(operatorNode);
-            }
-        }
-        return evaluateSyntaxTree(stack.pop());
+        return compileRPN(rpnExpression).evaluate();
     }
     /**
-     * Recursively evaluates the syntax tree to compute the result.
+     * Computes an RPN expression through its cached {@link RpnProgram}, reading the values of referenced
+     * cells from the cell store of a spreadsheet.
      *
-     * @param root The root of the syntax tree.
+     * @param rpnExpression The RPN expression (e.g., "A1 B2 +").
+     * @param spreadSheet   The spreadsheet that provides the values of referenced cells.
      * @return The result of the expression evaluation.
+     * @throws IllegalArgumentException If the expression is malformed.
+     * @throws ArithmeticException      If a division by zero occurs.
      */
-    private static double evaluateSyntaxTree(TreeNode root) {
-        if (root == null) {
-            throw new IllegalArgumentException("Invalid syntax tree");
-        }
-        if (root.operator != 0) { // Check if it's an operator
-            double operand1 = evaluateSyntaxTree(root.left);
-            double operand2 = evaluateSyntaxTree(root.right);
-            return applyOperator(root.operator, operand1, operand2);
-        } else if (root.operand != null) { // Check if it's an operand
-            return root.operand;
-        } else {
-            throw new IllegalArgumentException("Invalid syntax tree node");
-        }
+    public static double buildSyntaxTreeAndCompute(String rpnExpression, SpreadSheet spreadSheet) {
+        return compileRPN(rpnExpression).evaluate(spreadSheet);
     }
     /**
      * Checks if a character is an operator.
@@ -449,30 +324,4 @@ public class ExpressionParser {
     private static boolean isOperator(char c) {
         return c == '+' || c == '-' || c == '*' || c == '/';
     }
-    /**
-     * Applies the specified operator to two operands.
-     *
-     * @param operator The operator character.
-     * @param operand1 The first operand.
-     * @param operand2 The second operand.
-     * @return The result of applying the operator to the operands.
-     */
-    private static double applyOperator(char operator, double operand1, double operand2) {
-        switch (operator) {
-            case '+':
-                return operand1 + operand2;
-            case '-':
-                return operand1 - operand2;
-            case '*':
-                return operand1 * operand2;
-            case '/':
-                if (operand2 != 0) {
-                    return operand1 / operand2;
-                } else {
-                    throw new ArithmeticException("Division by zero");
-                }
-            default:
-                throw new IllegalArgumentException("Invalid operator: " + operator);
-        }
-    }
 }
\ No newline at end of file
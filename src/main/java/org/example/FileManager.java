@@ -4,11 +4,9 @@ import com.opencsv.exceptions.CsvException;
 import com.opencsv.exceptions.CsvValidationException;
 
 import java.io.*;
+import java.nio.charset.StandardCharsets;
 import java.util.List;
 
-import java.io.IOException;
-import java.io.FileReader;
-
 
 /**
  * The FileManager class provides methods for creating, reading, and comparing CSV files.
@@ -16,26 +14,59 @@ import java.io.FileReader;
 public class FileManager {
 
     /**
-     * Creates a spreadsheet from a CSV file.
+     * Creates a spreadsheet from a CSV file. The file is read record by record and every field is stored
+     * as a typed cell as soon as it is read, so only one record is held in memory as strings. The first
+     * record determines the number of columns, and the spreadsheet grows by one row per record.
      *
      * @param filePath The path to the CSV file.
      * @return A spreadsheet object created from the CSV data.
-     * @throws IllegalArgumentException If the CSV file is empty.
+     * @throws IllegalArgumentException If the CSV file is empty or cannot be read.
      */
     public static SpreadSheet createSpreadsheet(String filePath) {
-        String[][] csvData = readCSV(filePath);
-        if (csvData.length == 0 || csvData[0].length == 0) {
+        SpreadSheet spreadsheet = null;
+        try (CSVReader csvReader = new CSVReader(new BufferedReader(new FileReader(filePath)))) {
+            String[] record = csvReader.readNext();
+            if (record != null && record.length > 0) {
+                spreadsheet = new SpreadSheet(0, record.length);
+                int row = 0;
+                while (record != null) {
+                    spreadsheet.ensureSize(row + 1, 0);
+                    spreadsheet.setRow(row++, record);
+                    record = csvReader.readNext();
+                }
+            }
+        } catch (IOException e) {
+            throw new IllegalArgumentException("CSV file cannot be read: " + e.getMessage(), e);
+        } catch (CsvValidationException e) {
+            throw new RuntimeException(e);
+        }
+        if (spreadsheet == null) {
             throw new IllegalArgumentException("CSV file is empty");
         }
-        int rows = csvData.length;
-        int columns = csvData[0].length;
-        SpreadSheet spreadsheet = new SpreadSheet(rows, columns);
-        spreadsheet.setData(csvData);
         return spreadsheet;
     }
 
     /**
-     * Reads data from a CSV file and returns a 2D array of strings.
+     * Creates a spreadsheet from a CSV file using a memory-mapped, multi-threaded loader, which is
+     * faster than {@link #createSpreadsheet(String)} for very large files.
+     *
+     * @param filePath The path to the CSV file.
+     * @param threads  The number of threads parsing the file.
+     * @return A spreadsheet object created from the CSV data.
+     * @throws IllegalArgumentException If the CSV file is empty or cannot be read.
+     */
+    public static SpreadSheet createSpreadsheetMapped(String filePath, int threads) {
+        try {
+            return new MappedCsvLoader(threads).load(filePath);
+        } catch (IOException e) {
+            throw new IllegalArgumentException("CSV file cannot be read: " + filePath, e);
+        }
+    }
+
+    /**
+     * Reads data from a CSV file and returns a 2D array of strings. The whole file is held in memory,
+     * so this is meant for small files such as command lists; use {@link #createSpreadsheet(String)} to
+     * load spreadsheets.
      *
      * @param filePath The path to the CSV file.
      * @return A 2D array of strings representing the CSV data.
@@ -55,29 +86,177 @@ public class FileManager {
     }
 
     /**
-     * Exports a spreadsheet to a CSV file.
+     * Exports the values of a spreadsheet to a CSV file. Formula cells are written as their computed
+     * value, numbers as {@link Double#toString(double)} would write them, and text as it is.
      *
      * @param spreadsheet The spreadsheet to be exported.
      * @param fileName The name of the CSV file.
+     * @throws IOException If the file cannot be written.
      */
-    public void exportToCSV(SpreadSheet spreadsheet, String fileName) {
-        try (BufferedWriter writer = new BufferedWriter(new FileWriter(fileName))) {
+    public void exportToCSV(SpreadSheet spreadsheet, String fileName) throws IOException {
+        exportToCSV(spreadsheet, fileName, NumberFormatter.DEFAULT, false);
+    }
+
+    /**
+     * Exports a spreadsheet to a CSV file. Rows are written block by block following the chunks of the
+     * cell store, so blocks without any populated cell are written without looking at individual cells.
+     * Values are formatted straight into a reusable byte buffer, which is written to the file when full.
+     * Text, and formulas when requested, are quoted if they contain a comma, a quote or a line break.
+     *
+     * @param spreadsheet The spreadsheet to be exported.
+     * @param fileName    The name of the CSV file.
+     * @param formatter   The formatter writing numbers and the values of formula cells.
+     * @param formulas    Whether formula cells are written as their formula instead of their value.
+     * @throws IOException If the file cannot be written.
+     */
+    public void exportToCSV(SpreadSheet spreadsheet, String fileName, NumberFormatter formatter, boolean formulas)
+            throws IOException {
+        try (CsvOutput output = new CsvOutput(new FileOutputStream(fileName))) {
+            CellStore store = spreadsheet.getCellStore();
             int rows = spreadsheet.getRows();
             int columns = spreadsheet.getColumns();
+            byte[] emptyRow = (",".repeat(Math.max(0, columns - 1)) + "\n").getBytes(StandardCharsets.US_ASCII);
+            byte[][] typeChunks = new byte[columns][];
+            double[][] valueChunks = new double[columns][];
 
-            for (int row = 0; row < rows; row++) {
+            for (int chunkIndex = 0; chunkIndex < store.getChunkCount(); chunkIndex++) {
+                boolean emptyBlock = true;
                 for (int col = 0; col < columns; col++) {
-                    Cell cell = spreadsheet.getCell(row, col);
-                    if (cell != null) {
-                        String cellValue = Double.toString(cell.getNumericValue());
-                        writer.write(cellValue + (col < columns - 1 ? "," : "\n"));
-                    } else {
-                        writer.write(col < columns - 1 ? "," : "\n");
+                    typeChunks[col] = store.typeChunk(col, chunkIndex);
+                    valueChunks[col] = store.valueChunk(col, chunkIndex);
+                    emptyBlock &= typeChunks[col] == null;
+                }
+                int firstRow = chunkIndex << CellStore.CHUNK_BITS;
+                int lastRow = Math.min(rows, firstRow + CellStore.CHUNK_SIZE);
+                for (int row = firstRow; row < lastRow; row++) {
+                    if (emptyBlock) {
+                        output.write(emptyRow);
+                        continue;
+                    }
+                    int offset = row - firstRow;
+                    for (int col = 0; col < columns; col++) {
+                        byte type = typeChunks[col] == null ? CellStore.EMPTY : typeChunks[col][offset];
+                        if (type == CellStore.NUMBER || (type == CellStore.FORMULA && !formulas)) {
+                            output.writeNumber(formatter, valueChunks[col][offset]);
+                        } else if (type == CellStore.TEXT) {
+                            output.writeField(store.getText(row, col));
+                        } else if (type == CellStore.FORMULA) {
+                            output.writeField(store.getFormula(row, col).getFormulaString());
+                        }
+                        output.write(col < columns - 1 ? (byte) ',' : (byte) '\n');
                     }
                 }
             }
-        } catch (IOException e) {
-            e.printStackTrace();
+        }
+    }
+
+    /**
+     * A byte buffer in front of an output stream, used to write CSV files without a string per cell.
+     */
+    private static final class CsvOutput implements Closeable {
+        private static final int BUFFER_SIZE = 1 << 20;
+
+        private final OutputStream out;
+        private final byte[] buffer = new byte[BUFFER_SIZE];
+        private int position;
+
+        /**
+         * Constructs a buffer writing to the given stream.
+         *
+         * @param out The stream receiving the bytes.
+         */
+        CsvOutput(OutputStream out) {
+            this.out = out;
+        }
+
+        /**
+         * Writes a single byte.
+         *
+         * @param b The byte to write.
+         * @throws IOException If the stream cannot be written.
+         */
+        void write(byte b) throws IOException {
+            if (position == buffer.length) {
+                flush();
+            }
+            buffer[position++] = b;
+        }
+
+        /**
+         * Writes an array of bytes.
+         *
+         * @param bytes The bytes to write.
+         * @throws IOException If the stream cannot be written.
+         */
+        void write(byte[] bytes) throws IOException {
+            if (bytes.length > buffer.length - position) {
+                flush();
+                if (bytes.length > buffer.length) {
+                    out.write(bytes);
+                    return;
+                }
+            }
+            System.arraycopy(bytes, 0, buffer, position, bytes.length);
+            position += bytes.length;
+        }
+
+        /**
+         * Writes a number with the given formatter.
+         *
+         * @param formatter The formatter writing the number.
+         * @param value     The number to write.
+         * @throws IOException If the stream cannot be written.
+         */
+        void writeNumber(NumberFormatter formatter, double value) throws IOException {
+            if (buffer.length - position < NumberFormatter.MAX_LENGTH) {
+                flush();
+            }
+            position = formatter.format(value, buffer, position);
+        }
+
+        /**
+         * Writes a text field, enclosed in quotes if it contains a comma, a quote or a line break.
+         *
+         * @param text The text to write.
+         * @throws IOException If the stream cannot be written.
+         */
+        void writeField(String text) throws IOException {
+            boolean quote = false;
+            for (int i = 0; i < text.length() && !quote; i++) {
+                char c = text.charAt(i);
+                quote = c == ',' || c == '"' || c == '\n' || c == '\r';
+            }
+            if (!quote) {
+                write(text.getBytes(StandardCharsets.UTF_8));
+                return;
+            }
+            write((byte) '"');
+            write(text.replace("\"", "\"\"").getBytes(StandardCharsets.UTF_8));
+            write((byte) '"');
+        }
+
+        /**
+         * Writes the buffered bytes to the stream.
+         *
+         * @throws IOException If the stream cannot be written.
+         */
+        void flush() throws IOException {
+            out.write(buffer, 0, position);
+            position = 0;
+        }
+
+        /**
+         * Writes the buffered bytes and closes the stream.
+         *
+         * @throws IOException If the stream cannot be written.
+         */
+        @Override
+        public void close() throws IOException {
+            try {
+                flush();
+            } finally {
+                out.close();
+            }
         }
     }
 
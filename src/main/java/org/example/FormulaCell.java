@@ -1,14 +1,22 @@
 package org.example;
-import java.util.HashSet;
-import java.util.Set;
+
+import java.util.function.ToDoubleFunction;
+
 /**
  * The FormulaCell class manages all considerations of functions and the format of cells with formulas.
  */
 public class FormulaCell extends Cell {
     private String formula;
-    private Double value;
-    private Set<String> dependentReferences = new HashSet<>();
+    private double value;
     private String actualCell;
+    private CellStore store;
+    private int row;
+    private int column;
+    private FormulaNode compiledFormula;
+    private boolean evaluating;
+    private int evaluatedPass = -1;
+    private int evaluations;
+    private ToDoubleFunction<SpreadSheet> closure;
 
     /**
      * Constructs a FormulaCell with the specified formula.
@@ -31,21 +39,36 @@ public class FormulaCell extends Cell {
     }
 
     /**
-     * Gets the set of dependent references for this formula cell.
+     * Sets the value of the formula cell based on the provided text.
      *
-     * @return The set of dependent references.
+     * @param text The text value to set.
      */
-    public Set<String> getDependentReferences() {
-        return dependentReferences;
+    public void setValue(String text) {
+        setNumericValue(Double.parseDouble(text));
     }
 
     /**
-     * Sets the value of the formula cell based on the provided text.
+     * Attaches this formula cell to the store that holds it. While attached, the computed value
+     * of the formula is kept in the store.
      *
-     * @param text The text value to set.
+     * @param store  The store holding this cell.
+     * @param row    The row index of this cell.
+     * @param column The column index of this cell.
      */
-    public void setValue(String text) {
-        this.value = Double.parseDouble(text);
+    void attach(CellStore store, int row, int column) {
+        this.store = store;
+        this.row = row;
+        this.column = column;
+    }
+
+    /**
+     * Detaches this formula cell from its store, keeping the last computed value.
+     */
+    void detach() {
+        if (store != null) {
+            value = store.getValue(row, column);
+            store = null;
+        }
     }
 
     /**
@@ -58,210 +81,82 @@ public class FormulaCell extends Cell {
     }
 
     /**
-     * Evaluates the formula cell using the provided cell matrix.
+     * Gets the compiled expression tree of this formula. The formula is compiled the first time
+     * it is requested and the tree is reused on every later evaluation.
      *
-     * @param cells The cell matrix.
-     * @return The result of the evaluation.
+     * @return The root node of the compiled formula.
+     * @throws IllegalArgumentException If the formula syntax is invalid.
      */
-    public double evaluate(Cell[][] cells) {
-        if (formula.startsWith("=SUMA(") || formula.startsWith("=MIN(") || formula.startsWith("=MAX(") || formula.startsWith("=PROMEDIO(")) {
-            int startIndex = formula.indexOf("(") + 1;
-            int endIndex = formula.indexOf(")");
-            String cellRange = formula.substring(startIndex, endIndex);
-
-            String[] cellReferences = cellRange.split(";");
-
-            if (formula.startsWith("=SUMA(")) {
-                double sum = 0;
-                for (String cellReference : cellReferences) {
-                    if (cellReference.contains(":")) {
-                        // Handle range references
-                        String[] range = cellReference.split(":");
-                        int[] startCoordinates = SpreadSheet.convertCellReferenceToCoordinates(range[0]);
-                        int[] endCoordinates = SpreadSheet.convertCellReferenceToCoordinates(range[1]);
-
-                        for (int i = startCoordinates[0]; i <= endCoordinates[0]; i++) {
-                            for (int j = startCoordinates[1]; j <= endCoordinates[1]; j++) {
-                                if (isValidCell(i, j, cells)) {
-                                    Cell cell = cells[i][j];
-                                    if (cell instanceof NumberCell) {
-                                        sum += ((NumberCell) cell).getValue();
-                                    } else if (cell instanceof FormulaCell) {
-                                        sum += ((FormulaCell) cell).evaluate(cells);
-                                    }
-                                }
-                            }
-                        }
-                    } else {
-                        // Handle individual cell references or direct numerical values
-                        try {
-                            double value = Double.parseDouble(cellReference);
-                            sum += value;
-                        } catch (NumberFormatException e) {
-                            int[] coordinates = SpreadSheet.convertCellReferenceToCoordinates(cellReference);
-                            int row = coordinates[0];
-                            int col = coordinates[1];
-                            if (isValidCell(row, col, cells)) {
-                                Cell cell = cells[row][col];
-                                if (cell instanceof NumberCell) {
-                                    sum += ((NumberCell) cell).getValue();
-                                } else if (cell instanceof FormulaCell) {
-                                    sum += ((FormulaCell) cell).evaluate(cells);
-                                }
-                            }
-                        }
-                    }
-                }
-                return sum;
-            } else if (formula.startsWith("=MIN(")) {
-                double min = Double.MAX_VALUE;
-                for (String cellReference : cellReferences) {
-                    if (cellReference.contains(":")) {
-                        // Handle range references
-                        String[] range = cellReference.split(":");
-                        int[] startCoordinates = SpreadSheet.convertCellReferenceToCoordinates(range[0]);
-                        int[] endCoordinates = SpreadSheet.convertCellReferenceToCoordinates(range[1]);
-
-                        for (int i = startCoordinates[0]; i <= endCoordinates[0]; i++) {
-                            for (int j = startCoordinates[1]; j <= endCoordinates[1]; j++) {
-                                if (isValidCell(i, j, cells)) {
-                                    Cell cell = cells[i][j];
-                                    if (cell instanceof NumberCell) {
-                                        min = Math.min(min, ((NumberCell) cell).getValue());
-                                    } else if (cell instanceof FormulaCell) {
-                                        min = Math.min(min, ((FormulaCell) cell).evaluate(cells));
-                                    }
-                                }
-                            }
-                        }
-                    } else {
-                        // Handle individual cell references or direct numerical values
-                        try {
-                            double value = Double.parseDouble(cellReference);
-                            min = Math.min(min, value);
-                        } catch (NumberFormatException e) {
-                            int[] coordinates = SpreadSheet.convertCellReferenceToCoordinates(cellReference);
-                            int row = coordinates[0];
-                            int col = coordinates[1];
-                            if (isValidCell(row, col, cells)) {
-                                Cell cell = cells[row][col];
-                                if (cell instanceof NumberCell) {
-                                    min = Math.min(min, ((NumberCell) cell).getValue());
-                                } else if (cell instanceof FormulaCell) {
-                                    min = Math.min(min, ((FormulaCell) cell).evaluate(cells));
-                                }
-                            }
-                        }
-                    }
-                }
-                return min;
-            } else if (formula.startsWith("=MAX(")) {
-                double max = Double.MIN_VALUE;
-                for (String cellReference : cellReferences) {
-                    if (cellReference.contains(":")) {
-                        // Handle range references
-                        String[] range = cellReference.split(":");
-                        int[] startCoordinates = SpreadSheet.convertCellReferenceToCoordinates(range[0]);
-                        int[] endCoordinates = SpreadSheet.convertCellReferenceToCoordinates(range[1]);
-
-                        for (int i = startCoordinates[0]; i <= endCoordinates[0]; i++) {
-                            for (int j = startCoordinates[1]; j <= endCoordinates[1]; j++) {
-                                if (isValidCell(i, j, cells)) {
-                                    Cell cell = cells[i][j];
-                                    if (cell instanceof NumberCell) {
-                                        max = Math.max(max, ((NumberCell) cell).getValue());
-                                    } else if (cell instanceof FormulaCell) {
-                                        max = Math.max(max, ((FormulaCell) cell).evaluate(cells));
-                                    }
-                                }
-                            }
-                        }
-                    } else {
-                        // Handle individual cell references or direct numerical values
-                        try {
-                            double value = Double.parseDouble(cellReference);
-                            max = Math.max(max, value);
-                        } catch (NumberFormatException e) {
-                            int[] coordinates = SpreadSheet.convertCellReferenceToCoordinates(cellReference);
-                            int row = coordinates[0];
-                            int col = coordinates[1];
-                            if (isValidCell(row, col, cells)) {
-                                Cell cell = cells[row][col];
-                                if (cell instanceof NumberCell) {
-                                    max = Math.max(max, ((NumberCell) cell).getValue());
-                                } else if (cell instanceof FormulaCell) {
-                                    max = Math.max(max, ((FormulaCell) cell).evaluate(cells));
-                                }
-                            }
-                        }
-                    }
-                }
-                return max;
-            } else if (formula.startsWith("=PROMEDIO(")) {
-                double sum = 0;
-                int count = 0;
-                for (String cellReference : cellReferences) {
-                    if (cellReference.contains(":")) {
-                        // Handle range references
-                        String[] range = cellReference.split(":");
-                        int[] startCoordinates = SpreadSheet.convertCellReferenceToCoordinates(range[0]);
-                        int[] endCoordinates = SpreadSheet.convertCellReferenceToCoordinates(range[1]);
+    public FormulaNode getCompiledFormula() {
+        if (compiledFormula == null) {
+            compiledFormula = FormulaCompiler.compile(formula);
+        }
+        return compiledFormula;
+    }
 
-                        for (int i = startCoordinates[0]; i <= endCoordinates[0]; i++) {
-                            for (int j = startCoordinates[1]; j <= endCoordinates[1]; j++) {
-                                if (isValidCell(i, j, cells)) {
-                                    Cell cell = cells[i][j];
-                                    if (cell instanceof NumberCell) {
-                                        sum += ((NumberCell) cell).getValue();
-                                        count++;
-                                    } else if (cell instanceof FormulaCell) {
-                                        sum += ((FormulaCell) cell).evaluate(cells);
-                                        count++;
-                                    }
-                                }
-                            }
-                        }
-                    } else {
-                        // Handle individual cell references or direct numerical values
-                        try {
-                            double value = Double.parseDouble(cellReference);
-                            sum += value;
-                            count++;
-                        } catch (NumberFormatException e) {
-                            int[] coordinates = SpreadSheet.convertCellReferenceToCoordinates(cellReference);
-                            int row = coordinates[0];
-                            int col = coordinates[1];
-                            if (isValidCell(row, col, cells)) {
-                                Cell cell = cells[row][col];
-                                if (cell instanceof NumberCell) {
-                                    sum += ((NumberCell) cell).getValue();
-                                    count++;
-                                } else if (cell instanceof FormulaCell) {
-                                    sum += ((FormulaCell) cell).evaluate(cells);
-                                    count++;
-                                }
-                            }
-                        }
-                    }
-                }
-                if (count > 0) {
-                    return sum / count;
-                }
+    /**
+     * Evaluates the compiled formula of this cell against the given spreadsheet. The result is kept as the
+     * value of the cell and reused until the evaluation pass of the spreadsheet changes, which happens on
+     * every edit and every recalculation, so a formula is computed at most once per pass.
+     *
+     * @param sheet The spreadsheet that provides the values of referenced cells.
+     * @return The result of the evaluation.
+     * @throws IllegalStateException If the cell is reached again while it is being evaluated.
+     */
+    public double evaluateCompiled(SpreadSheet sheet) {
+        int pass = sheet.getEvaluationPass();
+        if (evaluatedPass == pass) {
+            return store != null ? store.getValue(row, column) : value;
+        }
+        if (evaluating) {
+            throw new IllegalStateException("Circular dependency detected involving cell: " + getCellName());
+        }
+        evaluating = true;
+        try {
+            double result = evaluateFormula(sheet);
+            if (store != null) {
+                store.setValue(row, column, result);
+            } else {
+                value = result;
             }
+            evaluatedPass = pass;
+            return result;
+        } finally {
+            evaluating = false;
         }
-        return Double.NaN;
     }
 
     /**
-     * Checks if the cell coordinates are valid within the given cell matrix.
+     * Evaluates the formula, through its closures once it has been evaluated {@link FormulaClosureCompiler#HOT_THRESHOLD}
+     * times, and through its expression tree before.
+     *
+     * @param sheet The spreadsheet that provides the values of referenced cells.
+     * @return The result of the evaluation.
+     */
+    private double evaluateFormula(SpreadSheet sheet) {
+        ToDoubleFunction<SpreadSheet> compiled = closure;
+        if (compiled != null) {
+            return compiled.applyAsDouble(sheet);
+        }
+        FormulaNode tree = getCompiledFormula();
+        if (FormulaClosureCompiler.ENABLED && ++evaluations >= FormulaClosureCompiler.HOT_THRESHOLD) {
+            closure = FormulaClosureCompiler.compile(tree);
+        }
+        return tree.evaluate(sheet);
+    }
+
+    /**
+     * Evaluates the aggregate function (SUMA, MIN, MAX or PROMEDIO) this formula consists of.
      *
-     * @param row   The row index.
-     * @param col   The column index.
-     * @param cells The cell matrix.
-     * @return True if the cell coordinates are valid, false otherwise.
+     * @param sheet The spreadsheet that provides the values of referenced cells.
+     * @return The result of the evaluation, or NaN if the formula is not an aggregate function.
+     * @throws IllegalArgumentException If the formula syntax is invalid.
      */
-    private boolean isValidCell(int row, int col, Cell[][] cells) {
-        return row >= 0 && row < cells.length && col >= 0 && col < cells[0].length;
+    public double evaluate(SpreadSheet sheet) {
+        if (getCompiledFormula() instanceof FormulaNode.Aggregate aggregate) {
+            return aggregate.aggregate(sheet);
+        }
+        return Double.NaN;
     }
 
     /**
@@ -301,8 +196,9 @@ public class FormulaCell extends Cell {
      *
      * @return The numeric value of the formula.
      */
+    @Override
     public Double getNumericValue() {
-        return value;
+        return store != null ? store.getValue(row, column) : value;
     }
 
     /**
@@ -312,6 +208,10 @@ public class FormulaCell extends Cell {
      */
     @Override
     public void setNumericValue(Double result) {
-        this.value = result;
+        if (store != null) {
+            store.setValue(row, column, result);
+        } else {
+            this.value = result;
+        }
     }
 }
@@ -0,0 +1,270 @@
+package org.example;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * The FormulaCompiler class turns the text of a formula into an immutable tree of {@link FormulaNode}s.
+ * Compilation happens once per formula; evaluating the result does not touch the formula text again.
+ */
+public class FormulaCompiler {
+
+    private FormulaCompiler() {
+    }
+
+    /**
+     * Compiles a formula into an expression tree.
+     *
+     * @param formula The formula, with or without the leading "=" (e.g., "=3*SUMA(A1:B2)").
+     * @return The root node of the compiled formula.
+     * @throws IllegalArgumentException If the formula syntax is invalid.
+     */
+    public static FormulaNode compile(String formula) {
+        int start = formula.startsWith("=") ? 1 : 0;
+        return compileExpression(formula, start, formula.length());
+    }
+
+    /**
+     * Compiles an infix expression using the shunting-yard algorithm, building tree nodes
+     * directly instead of an intermediate RPN string.
+     *
+     * @param expression The text containing the expression.
+     * @param start      The index of the first character of the expression.
+     * @param end        The index after the last character of the expression.
+     * @return The root node of the compiled expression.
+     */
+    private static FormulaNode compileExpression(String expression, int start, int end) {
+        Deque<FormulaNode> operands = new ArrayDeque<>();
+        Deque<Character> operators = new ArrayDeque<>();
+        boolean expectOperand = true;
+        int i = start;
+        while (i < end) {
+            char c = expression.charAt(i);
+            if (c == ' ') {
+                i++;
+            } else if (isOperand(c)) {
+                if (!expectOperand) {
+                    throw new IllegalArgumentException("Invalid formula syntax");
+                }
+                int tokenEnd = i;
+                while (tokenEnd < end && isOperand(expression.charAt(tokenEnd))) {
+                    tokenEnd++;
+                }
+                if (tokenEnd < end && expression.charAt(tokenEnd) == '(') {
+                    int close = findClosingParenthesis(expression, tokenEnd, end);
+                    operands.push(compileAggregate(expression.substring(i, tokenEnd), expression, tokenEnd + 1, close));
+                    i = close + 1;
+                } else {
+                    operands.push(compileOperand(expression, i, tokenEnd));
+                    i = tokenEnd;
+                }
+                expectOperand = false;
+            } else if (isOperator(c)) {
+                if (expectOperand) {
+                    throw new IllegalArgumentException("Invalid formula syntax");
+                }
+                while (!operators.isEmpty() && precedence(operators.peek()) >= precedence(c)) {
+                    reduce(operators.pop(), operands);
+                }
+                operators.push(c);
+                expectOperand = true;
+                i++;
+            } else if (c == '(') {
+                if (!expectOperand) {
+                    throw new IllegalArgumentException("Invalid formula syntax");
+                }
+                operators.push(c);
+                i++;
+            } else if (c == ')') {
+                if (expectOperand) {
+                    throw new IllegalArgumentException("Invalid formula syntax");
+                }
+                while (!operators.isEmpty() && operators.peek() != '(') {
+                    reduce(operators.pop(), operands);
+                }
+                if (operators.isEmpty()) {
+                    throw new IllegalArgumentException("Invalid parentheses in expression");
+                }
+                operators.pop(); // Pop the '('
+                i++;
+            } else {
+                throw new IllegalArgumentException("Invalid character in formula: " + c);
+            }
+        }
+        if (expectOperand) {
+            throw new IllegalArgumentException("Invalid formula syntax");
+        }
+        while (!operators.isEmpty()) {
+            char operator = operators.pop();
+            if (operator == '(') {
+                throw new IllegalArgumentException("Invalid parentheses in expression");
+            }
+            reduce(operator, operands);
+        }
+        return operands.pop();
+    }
+
+    /**
+     * Compiles an aggregate function call. Arguments are separated by semicolons outside parentheses
+     * and can be ranges (e.g., "A1:B2") or any expression.
+     *
+     * @param function   The function name.
+     * @param expression The text containing the call.
+     * @param start      The index of the first character after the opening parenthesis.
+     * @param end        The index of the closing parenthesis.
+     * @return The compiled aggregate node.
+     */
+    private static FormulaNode compileAggregate(String function, String expression, int start, int end) {
+        if (!function.equals("SUMA") && !function.equals("MIN") && !function.equals("MAX") && !function.equals("PROMEDIO")) {
+            throw new IllegalArgumentException("Unknown function: " + function);
+        }
+        List<FormulaNode> arguments = new ArrayList<>();
+        int depth = 0;
+        int argumentStart = start;
+        for (int i = start; i <= end; i++) {
+            char c = i < end ? expression.charAt(i) : ';';
+            if (c == ';' && depth == 0) {
+                arguments.add(compileArgument(expression, argumentStart, i));
+                argumentStart = i + 1;
+            } else if (c == '(') {
+                depth++;
+            } else if (c == ')') {
+                depth--;
+            }
+        }
+        return new FormulaNode.Aggregate(function, arguments.toArray(new FormulaNode[0]));
+    }
+
+    /**
+     * Compiles a single argument of an aggregate function.
+     *
+     * @param expression The text containing the argument.
+     * @param start      The index of the first character of the argument.
+     * @param end        The index after the last character of the argument.
+     * @return The compiled argument.
+     */
+    private static FormulaNode compileArgument(String expression, int start, int end) {
+        int colon = expression.indexOf(':', start);
+        int parenthesis = expression.indexOf('(', start);
+        if (colon >= 0 && colon < end && (parenthesis < 0 || parenthesis >= end)) {
+            while (start < end && expression.charAt(start) == ' ') {
+                start++;
+            }
+            while (end > start && expression.charAt(end - 1) == ' ') {
+                end--;
+            }
+            colon = CellReference.rangeSeparator(expression, start, end);
+            if (colon < 0) {
+                throw new IllegalArgumentException("Invalid range: " + expression.substring(start, end));
+            }
+            long from = CellReference.parse(expression, start, colon);
+            long to = CellReference.parse(expression, colon + 1, end);
+            return new FormulaNode.Range(Math.min(DependencyManager.row(from), DependencyManager.row(to)),
+                    Math.min(DependencyManager.column(from), DependencyManager.column(to)),
+                    Math.max(DependencyManager.row(from), DependencyManager.row(to)),
+                    Math.max(DependencyManager.column(from), DependencyManager.column(to)));
+        }
+        return compileExpression(expression, start, end);
+    }
+
+    /**
+     * Compiles an operand, which is either a cell reference or a numeric constant.
+     *
+     * @param expression The text containing the operand.
+     * @param start      The index of the first character of the operand.
+     * @param end        The index after the last character of the operand.
+     * @return The compiled operand.
+     */
+    private static FormulaNode compileOperand(String expression, int start, int end) {
+        char first = expression.charAt(start);
+        if (Character.isLetter(first) || first == '$') {
+            long key = CellReference.parse(expression, start, end);
+            if (key == CellReference.INVALID) {
+                throw new IllegalArgumentException("Invalid cell reference: " + expression.substring(start, end));
+            }
+            return new FormulaNode.Reference(DependencyManager.row(key), DependencyManager.column(key));
+        }
+        return new FormulaNode.Constant(Double.parseDouble(expression.substring(start, end)));
+    }
+
+    /**
+     * Pops two operands and pushes the operation node combining them.
+     *
+     * @param operator The operator character.
+     * @param operands The operand stack.
+     */
+    private static void reduce(char operator, Deque<FormulaNode> operands) {
+        if (operands.size() < 2) {
+            throw new IllegalArgumentException("Invalid formula syntax");
+        }
+        FormulaNode right = operands.pop();
+        FormulaNode left = operands.pop();
+        operands.push(new FormulaNode.Operation(operator, left, right));
+    }
+
+    /**
+     * Finds the parenthesis closing the one at the given index.
+     *
+     * @param expression The expression.
+     * @param open       The index of the opening parenthesis.
+     * @param end        The index after the last character to search.
+     * @return The index of the matching closing parenthesis.
+     * @throws IllegalArgumentException If the parenthesis is never closed.
+     */
+    private static int findClosingParenthesis(String expression, int open, int end) {
+        int depth = 0;
+        for (int i = open; i < end; i++) {
+            char c = expression.charAt(i);
+            if (c == '(') {
+                depth++;
+            } else if (c == ')') {
+                depth--;
+                if (depth == 0) {
+                    return i;
+                }
+            }
+        }
+        throw new IllegalArgumentException("Invalid parentheses in expression");
+    }
+
+    /**
+     * Checks if a character is part of an operand (letter, digit, dot, or the '$' of an absolute reference).
+     *
+     * @param c The character to check.
+     * @return True if the character is part of an operand, false otherwise.
+     */
+    private static boolean isOperand(char c) {
+        return Character.isLetterOrDigit(c) || c == '.' || c == '$';
+    }
+
+    /**
+     * Checks if a character is an operator.
+     *
+     * @param c The character to check.
+     * @return True if the character is an operator, false otherwise.
+     */
+    private static boolean isOperator(char c) {
+        return c == '+' || c == '-' || c == '*' || c == '/';
+    }
+
+    /**
+     * Determines the precedence of an operator.
+     *
+     * @param operator The operator character.
+     * @return The precedence level of the operator.
+     */
+    private static int precedence(char operator) {
+        switch (operator) {
+            case '+':
+            case '-':
+                return 1;
+            case '*':
+            case '/':
+                return 2;
+            default:
+                return 0;
+        }
+    }
+}
@@ -0,0 +1,347 @@
+package org.example;
+
+import java.util.List;
+
+/**
+ * The FormulaNode class represents a node of a compiled formula. A formula is compiled once into an
+ * immutable tree of nodes, and recalculation only walks that tree instead of re-parsing the formula text.
+ */
+public abstract class FormulaNode {
+
+    /**
+     * Evaluates this node against the given spreadsheet.
+     *
+     * @param sheet The spreadsheet that provides the values of referenced cells.
+     * @return The result of the evaluation.
+     */
+    public abstract double evaluate(SpreadSheet sheet);
+
+    /**
+     * Collects the cell references and ranges used by this node and its children.
+     *
+     * @param references The list that receives the {@link Reference} and {@link Range} nodes.
+     */
+    public void collectReferences(List<FormulaNode> references) {
+    }
+
+    /**
+     * Represents a numeric constant inside a formula.
+     */
+    public static final class Constant extends FormulaNode {
+        private final double value;
+
+        /**
+         * Constructs a constant node.
+         *
+         * @param value The constant value.
+         */
+        public Constant(double value) {
+            this.value = value;
+        }
+
+        /**
+         * Gets the constant value.
+         *
+         * @return The constant value.
+         */
+        public double getValue() {
+            return value;
+        }
+
+        @Override
+        public double evaluate(SpreadSheet sheet) {
+            return value;
+        }
+    }
+
+    /**
+     * Represents a reference to a single cell (e.g., "A1") inside a formula.
+     */
+    public static final class Reference extends FormulaNode {
+        private final int row;
+        private final int column;
+
+        /**
+         * Constructs a reference node.
+         *
+         * @param row    The zero-based row index of the referenced cell.
+         * @param column The zero-based column index of the referenced cell.
+         */
+        public Reference(int row, int column) {
+            this.row = row;
+            this.column = column;
+        }
+
+        /**
+         * Gets the row index of the referenced cell.
+         *
+         * @return The zero-based row index.
+         */
+        public int getRow() {
+            return row;
+        }
+
+        /**
+         * Gets the column index of the referenced cell.
+         *
+         * @return The zero-based column index.
+         */
+        public int getColumn() {
+            return column;
+        }
+
+        @Override
+        public void collectReferences(List<FormulaNode> references) {
+            references.add(this);
+        }
+
+        /**
+         * Evaluates the reference. Empty cells count as 0 and text cells as NaN.
+         *
+         * @param sheet The spreadsheet that provides the values of referenced cells.
+         * @return The value of the referenced cell.
+         */
+        @Override
+        public double evaluate(SpreadSheet sheet) {
+            return sheet.getCellStore().getNumericValue(row, column);
+        }
+    }
+
+    /**
+     * Represents a range of cells (e.g., "A1:B2"). A range is only valid as an argument of an aggregate function.
+     */
+    public static final class Range extends FormulaNode {
+        private final int startRow;
+        private final int startColumn;
+        private final int endRow;
+        private final int endColumn;
+
+        /**
+         * Constructs a range node.
+         *
+         * @param startRow    The zero-based row index of the first cell.
+         * @param startColumn The zero-based column index of the first cell.
+         * @param endRow      The zero-based row index of the last cell.
+         * @param endColumn   The zero-based column index of the last cell.
+         */
+        public Range(int startRow, int startColumn, int endRow, int endColumn) {
+            this.startRow = startRow;
+            this.startColumn = startColumn;
+            this.endRow = endRow;
+            this.endColumn = endColumn;
+        }
+
+        /**
+         * Gets the row index of the first cell of the range.
+         *
+         * @return The zero-based row index.
+         */
+        public int getStartRow() {
+            return startRow;
+        }
+
+        /**
+         * Gets the column index of the first cell of the range.
+         *
+         * @return The zero-based column index.
+         */
+        public int getStartColumn() {
+            return startColumn;
+        }
+
+        /**
+         * Gets the row index of the last cell of the range.
+         *
+         * @return The zero-based row index.
+         */
+        public int getEndRow() {
+            return endRow;
+        }
+
+        /**
+         * Gets the column index of the last cell of the range.
+         *
+         * @return The zero-based column index.
+         */
+        public int getEndColumn() {
+            return endColumn;
+        }
+
+        @Override
+        public void collectReferences(List<FormulaNode> references) {
+            references.add(this);
+        }
+
+        /**
+         * A range has no single value outside of an aggregate function.
+         *
+         * @param sheet The spreadsheet.
+         * @return Never returns normally.
+         * @throws IllegalArgumentException Always.
+         */
+        @Override
+        public double evaluate(SpreadSheet sheet) {
+            throw new IllegalArgumentException("Range used outside of a function");
+        }
+    }
+
+    /**
+     * Represents a binary arithmetic operation (+, -, *, /).
+     */
+    public static final class Operation extends FormulaNode {
+        private final char operator;
+        private final FormulaNode left;
+        private final FormulaNode right;
+
+        /**
+         * Constructs an operation node.
+         *
+         * @param operator The operator character.
+         * @param left     The left operand.
+         * @param right    The right operand.
+         */
+        public Operation(char operator, FormulaNode left, FormulaNode right) {
+            this.operator = operator;
+            this.left = left;
+            this.right = right;
+        }
+
+        /**
+         * Gets the operator of this operation.
+         *
+         * @return The operator character.
+         */
+        public char getOperator() {
+            return operator;
+        }
+
+        /**
+         * Gets the left operand of this operation.
+         *
+         * @return The left operand.
+         */
+        public FormulaNode getLeft() {
+            return left;
+        }
+
+        /**
+         * Gets the right operand of this operation.
+         *
+         * @return The right operand.
+         */
+        public FormulaNode getRight() {
+            return right;
+        }
+
+        @Override
+        public void collectReferences(List<FormulaNode> references) {
+            left.collectReferences(references);
+            right.collectReferences(references);
+        }
+
+        /**
+         * Evaluates both operands and applies the operator.
+         *
+         * @param sheet The spreadsheet that provides the values of referenced cells.
+         * @return The result of the operation.
+         * @throws ArithmeticException If a division by zero occurs.
+         */
+        @Override
+        public double evaluate(SpreadSheet sheet) {
+            double operand1 = left.evaluate(sheet);
+            double operand2 = right.evaluate(sheet);
+            switch (operator) {
+                case '+':
+                    return operand1 + operand2;
+                case '-':
+                    return operand1 - operand2;
+                case '*':
+                    return operand1 * operand2;
+                case '/':
+                    if (operand2 != 0) {
+                        return operand1 / operand2;
+                    } else {
+                        throw new ArithmeticException("Division by zero");
+                    }
+                default:
+                    throw new IllegalArgumentException("Invalid operator: " + operator);
+            }
+        }
+    }
+
+    /**
+     * Represents one of the aggregate functions SUMA, MIN, MAX and PROMEDIO.
+     */
+    public static final class Aggregate extends FormulaNode {
+        private final String function;
+        private final FormulaNode[] arguments;
+
+        /**
+         * Constructs an aggregate node.
+         *
+         * @param function  The function name (SUMA, MIN, MAX or PROMEDIO).
+         * @param arguments The arguments of the function.
+         */
+        public Aggregate(String function, FormulaNode[] arguments) {
+            this.function = function;
+            this.arguments = arguments;
+        }
+
+        /**
+         * Gets the function name of this aggregate.
+         *
+         * @return The function name.
+         */
+        public String getFunction() {
+            return function;
+        }
+
+        /**
+         * Gets the arguments of this aggregate.
+         *
+         * @return The arguments.
+         */
+        public FormulaNode[] getArguments() {
+            return arguments;
+        }
+
+        @Override
+        public void collectReferences(List<FormulaNode> references) {
+            for (FormulaNode argument : arguments) {
+                argument.collectReferences(references);
+            }
+        }
+
+        /**
+         * Evaluates the aggregate.
+         *
+         * @param sheet The spreadsheet that provides the values of referenced cells.
+         * @return The aggregated value.
+         */
+        @Override
+        public double evaluate(SpreadSheet sheet) {
+            return aggregate(sheet);
+        }
+
+        /**
+         * Evaluates every argument and combines the values. Ranges are scanned by the
+         * {@link RangeAggregator}; empty and text cells are ignored.
+         *
+         * @param sheet The spreadsheet that provides the values of referenced cells.
+         * @return The aggregated value.
+         */
+        public double aggregate(SpreadSheet sheet) {
+            Accumulator accumulator = new Accumulator();
+            for (FormulaNode argument : arguments) {
+                if (argument instanceof Range range) {
+                    RangeAggregator.accumulate(sheet, range.startRow, range.startColumn, range.endRow, range.endColumn, accumulator);
+                } else if (argument instanceof Reference reference) {
+                    RangeAggregator.accumulate(sheet, reference.row, reference.column, accumulator);
+                } else {
+                    accumulator.add(argument.evaluate(sheet));
+                }
+            }
+            return accumulator.result(function);
+        }
+    }
+}
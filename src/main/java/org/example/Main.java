@@ -1,38 +1,99 @@
 package org.example;
 
 import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
 import java.io.InputStreamReader;
 import java.util.Scanner;
 import static org.example.FileManager.readCSV;
 import java.io.IOException;
+import javax.management.JMException;
 
 /**
  * The Main class represents the main entry point for the spreadsheet application.
  * It provides a user interface for interacting with spreadsheets.
  */
 public class Main {
+    /**
+     * The workbook file where the spreadsheet is saved with its formulas.
+     */
+    private static final String WORKBOOK_FILE = "TemplateSpreadSheet.wbk";
 
     private FileManager FM = new FileManager();
     SpreadSheet_Manager manager = new SpreadSheet_Manager();
-    DependencyManager dependencyManager = new DependencyManager();
     private BufferedReader reader = new BufferedReader(new InputStreamReader(System.in));
     private boolean end = false;
 
     /**
-     * Main method to start the program.
+     * Main method to start the program. With the arguments "--batch script", the commands of the script
+     * are applied by a {@link BatchRunner} instead of showing the menu; a script named "-" is read from
+     * the standard input, and the process exits with status 1 if any line failed. With the arguments
+     * "--serve port", the spreadsheets are served to local clients by a {@link SpreadSheetServer} until the
+     * process is stopped.
      *
-     * @param args Command-line arguments (not used in this application).
+     * @param args Command-line arguments: none for the interactive menu, "--batch" and a script path, or
+     *             "--serve" and a port.
      * @throws Exception If an exception occurs during program execution.
      */
     public static void main(String[] args) throws Exception {
         Main m = new Main();
-        m.run();
+        if (args.length == 2 && args[0].equals("--batch")) {
+            if (!m.runBatch(args[1])) {
+                System.exit(1);
+            }
+        } else if (args.length == 2 && args[0].equals("--serve")) {
+            m.serve(Integer.parseInt(args[1]));
+        } else {
+            m.run();
+        }
+    }
+
+    /**
+     * Applies the commands of a script without showing the menu.
+     *
+     * @param scriptPath The path of the script, or "-" to read it from the standard input.
+     * @return True if every line of the script was applied and the journals were synced, false otherwise.
+     */
+    public boolean runBatch(String scriptPath) {
+        try (BufferedReader script = scriptPath.equals("-") ? reader : new BufferedReader(new FileReader(scriptPath))) {
+            long errors = new BatchRunner(manager, System.out).run(script);
+            manager.syncJournals();
+            return errors == 0;
+        } catch (IOException e) {
+            System.out.println("Error running the batch script: " + e.getMessage());
+            return false;
+        }
     }
 
     /**
-     * Default constructor for the Main class.
+     * Default constructor for the Main class. When the system property "spreadsheet.metrics" is true,
+     * recalculation metrics are published through JMX.
      */
     public Main() {
+        if (Boolean.getBoolean("spreadsheet.metrics")) {
+            RecalculationMetrics metrics = new RecalculationMetrics();
+            try {
+                metrics.register("main");
+                manager.setRecalculationListener(metrics);
+            } catch (JMException e) {
+                System.out.println("Error registering recalculation metrics: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Serves the spreadsheets of the manager to local clients until the process is stopped.
+     *
+     * @param port The port to listen on, or 0 for any free port.
+     */
+    public void serve(int port) {
+        try (SpreadSheetServer server = new SpreadSheetServer(manager)) {
+            server.bind(port);
+            System.out.println("Listening on " + server.getPort());
+            server.serve();
+        } catch (IOException e) {
+            System.out.println("Error running the server: " + e.getMessage());
+        }
     }
 
     /**
@@ -103,8 +164,18 @@ public class Main {
      * Loads an existing spreadsheet.
      */
     public void loadSpreadSheet() {
-        SpreadSheet ls = FileManager.createSpreadsheet("TemplateSpreadSheet");
-        manager.addSpreadSheet(ls);
+        SpreadSheet ls;
+        if (new File(WORKBOOK_FILE).exists()) {
+            try {
+                ls = manager.openWorkbook(WORKBOOK_FILE);
+            } catch (IOException e) {
+                System.out.println("Error opening the workbook: " + e.getMessage());
+                return;
+            }
+        } else {
+            ls = FileManager.createSpreadsheet("TemplateSpreadSheet");
+            manager.addSpreadSheet(ls);
+        }
         ls.printSpreadsheet();
     }
 
@@ -142,11 +213,21 @@ public class Main {
     }
 
     /**
-     * Saves the current spreadsheet to a CSV file.
+     * Saves the current spreadsheet to a workbook file, which keeps the formulas and their values, and
+     * exports its values to a CSV file.
      */
     public void SaveSpreadSheet() {
         SpreadSheet retrievedSpreadsheet = manager.getSpreadSheet(0);
-        FM.exportToCSV(retrievedSpreadsheet, "TemplateSpreadSheet");
+        try {
+            manager.saveWorkbook(0, WORKBOOK_FILE);
+        } catch (IOException e) {
+            System.out.println("Error saving the workbook: " + e.getMessage());
+        }
+        try {
+            FM.exportToCSV(retrievedSpreadsheet, "TemplateSpreadSheet");
+        } catch (IOException e) {
+            System.out.println("Error exporting the spreadsheet: " + e.getMessage());
+        }
     }
 
     /**
@@ -157,38 +238,22 @@ public class Main {
         while (true) {
             try {
                 SpreadSheet spreadSheet = manager.getSpreadSheet(0);
-                SpreadSheet.setDependencyManager(dependencyManager);
                 System.out.println("Enter cell reference (e.g., A1) or EXIT to close EDITOR):");
                 String command = scanner.nextLine().toUpperCase();
-                Cell currentCell;
                 if (command.equals("EXIT")) {
-                    // Exit the editor
+                    // Exit the editor, making sure the journaled edits are on disk
+                    syncJournals();
                     break;
                 } else {
                     System.out.println("Enter formula (e.g., =3*SUM(A1:B2)):");
                     String formula = scanner.nextLine();
+                    // The cell is written and journaled once; the recalculation below computes a formula
+                    // and reports its errors
                     spreadSheet.setCellreference(command, formula);
-                    currentCell = SpreadSheet.getCellByReference(command);
-                    if (formula.startsWith("=")) {
-                        ExpressionParser parser = new ExpressionParser(spreadSheet, currentCell);
-                        String formulaWithoutEquals = formula.substring(1);
-                        try {
-                            if (currentCell != null) {
-                                parser.setCurrentCell(currentCell);
-                            }
-                            assert currentCell != null;
-                            double result = parser.evaluate(spreadSheet, formulaWithoutEquals, currentCell);
-                            SpreadSheet.setValueByCellReference(command, String.valueOf(result), formula, currentCell);
-                        } catch (Exception e) {
-                            System.out.println("Error: " + e.getMessage());
-                        }
-                    } else {
-                        SpreadSheet.setValueByCellReference(command, formula, formula, currentCell);
-                    }
                 }
                 spreadSheet.computeValues();
-                spreadSheet.setDataFromCell();
                 spreadSheet.printSpreadsheet();
+                compactJournal();
             } catch (IOException e) {
                 System.out.println("Error reading input. Please try again.");
             } catch (Exception e) {
@@ -197,6 +262,28 @@ public class Main {
         }
     }
 
+    /**
+     * Compacts the edit journal of the current spreadsheet into its workbook file when it has grown too large.
+     */
+    private void compactJournal() {
+        try {
+            manager.compactJournal(0);
+        } catch (IOException e) {
+            System.out.println("Error compacting the edit journal: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Forces the journaled edits of every spreadsheet to disk.
+     */
+    private void syncJournals() {
+        try {
+            manager.syncJournals();
+        } catch (IOException e) {
+            System.out.println("Error writing the edit journal: " + e.getMessage());
+        }
+    }
+
     /**
      * Runs a pre-established formula test.
      *
@@ -207,16 +294,15 @@ public class Main {
         SpreadSheet SpreadSheet = new SpreadSheet(Integer.parseInt("5"), Integer.parseInt("5"));
         manager.addSpreadSheet(SpreadSheet);
         SpreadSheet spreadSheet = manager.getSpreadSheet(0);
-        org.example.SpreadSheet.setDependencyManager(dependencyManager);
         spreadSheet.setCellreference("A1", "1");
         spreadSheet.setCellreference("A2", "2");
         spreadSheet.setCellreference("B1", "3");
         spreadSheet.setCellreference("B2", "4");
         // Anem a probar formules
         for (int i = 0; i < commands.length; i++) {
-            String[] positions = {"C1", "C2", "C3", "C4", "C5", "D1", "D2", "D3", "D4", "D5"};
+            String[] positions = {"C1", "C2", "C3", "C4", "C5", "D1", "D2", "D3", "D4", "D5", "E1"};
             spreadSheet.setCellreference(positions[i], "=" + commands[i][0]);
-            Cell currentCell = org.example.SpreadSheet.getCellByReference(positions[i]);
+            Cell currentCell = spreadSheet.getCellByReference(positions[i]);
             ExpressionParser parser = new ExpressionParser(spreadSheet, currentCell);
             String formulaWithoutEquals = commands[i][0];
             try {
@@ -225,13 +311,12 @@ public class Main {
                 }
                 assert currentCell != null;
                 double result = parser.evaluate(spreadSheet, formulaWithoutEquals, currentCell);
-                org.example.SpreadSheet.setValueByCellReference(positions[i], String.valueOf(result), "=" + formulaWithoutEquals, currentCell);
+                spreadSheet.setValueByCellReference(positions[i], String.valueOf(result), "=" + formulaWithoutEquals, currentCell);
             } catch (Exception e) {
                 System.out.println("Error: " + e.getMessage());
             }
         }
         spreadSheet.computeValues();
-        spreadSheet.setDataFromCell();
         spreadSheet.printSpreadsheet();
         SpreadSheet retrievedSpreadsheet = manager.getSpreadSheet(0);
         FM.exportToCSV(retrievedSpreadsheet, "SpreadSheetTestResults");
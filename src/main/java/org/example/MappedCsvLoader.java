@@ -0,0 +1,309 @@
+package org.example;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * The MappedCsvLoader class loads large CSV files into a spreadsheet using several threads.
+ * <p>
+ * The file is memory-mapped and a first sequential pass, which only tracks whether it is inside quotes,
+ * splits it into slices of about {@link #SLICE_SIZE} bytes that end at a record boundary. Slices are then
+ * parsed and typed (number, text or formula) on a pool of worker threads, and the main thread stores the
+ * parsed slices into the spreadsheet in file order, since a spreadsheet is not thread-safe. Only a bounded
+ * number of slices is parsed ahead of the main thread, so memory stays bounded for files of any size.
+ * <p>
+ * Fields follow RFC 4180: they are separated by commas, may be enclosed in double quotes, and a double
+ * quote inside a quoted field is written twice. Records end with LF or CRLF.
+ */
+public class MappedCsvLoader {
+    /**
+     * Target size in bytes of the slices parsed by a worker.
+     */
+    static final int SLICE_SIZE = 8 << 20;
+    /**
+     * Maximum number of bytes mapped at once by the boundary pre-scan.
+     */
+    private static final long SCAN_SEGMENT_SIZE = 1L << 30;
+
+    private final int threads;
+
+    /**
+     * Constructs a loader that parses with the given number of threads.
+     *
+     * @param threads The number of parsing threads.
+     */
+    public MappedCsvLoader(int threads) {
+        this.threads = Math.max(1, threads);
+    }
+
+    /**
+     * Loads a CSV file into a new spreadsheet. The first record determines the number of columns, and the
+     * spreadsheet has one row per record.
+     *
+     * @param filePath The path to the CSV file.
+     * @return The loaded spreadsheet.
+     * @throws IOException              If the file cannot be read.
+     * @throws IllegalArgumentException If the CSV file is empty.
+     */
+    public SpreadSheet load(String filePath) throws IOException {
+        try (FileChannel channel = FileChannel.open(Path.of(filePath), StandardOpenOption.READ)) {
+            long[] boundaries = findSliceBoundaries(channel);
+            ExecutorService executor = Executors.newFixedThreadPool(threads);
+            try {
+                return apply(channel, boundaries, executor);
+            } finally {
+                executor.shutdownNow();
+            }
+        }
+    }
+
+    /**
+     * Parses the slices on the executor and stores them into a new spreadsheet in file order, keeping
+     * at most two slices per thread in flight.
+     *
+     * @param channel    The channel of the file.
+     * @param boundaries The offsets where slices start, followed by the size of the file.
+     * @param executor   The executor parsing the slices.
+     * @return The loaded spreadsheet.
+     * @throws IOException If a slice cannot be read.
+     */
+    private SpreadSheet apply(FileChannel channel, long[] boundaries, ExecutorService executor) throws IOException {
+        Deque<Future<ParsedSlice>> pending = new ArrayDeque<>();
+        int nextSlice = 0;
+        int sliceCount = boundaries.length - 1;
+        SpreadSheet spreadsheet = null;
+        int row = 0;
+        while (nextSlice < sliceCount || !pending.isEmpty()) {
+            while (nextSlice < sliceCount && pending.size() < threads * 2) {
+                MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, boundaries[nextSlice],
+                        boundaries[nextSlice + 1] - boundaries[nextSlice]);
+                pending.add(executor.submit(() -> parse(buffer)));
+                nextSlice++;
+            }
+            ParsedSlice slice;
+            try {
+                slice = pending.poll().get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Loading interrupted", e);
+            } catch (ExecutionException e) {
+                throw new IOException("Error parsing CSV: " + e.getCause().getMessage(), e.getCause());
+            }
+            if (spreadsheet == null && slice.records > 0) {
+                spreadsheet = new SpreadSheet(0, slice.recordEnds[0]);
+            }
+            if (spreadsheet != null) {
+                row = slice.storeInto(spreadsheet, row);
+            }
+        }
+        if (spreadsheet == null || spreadsheet.getColumns() == 0) {
+            throw new IllegalArgumentException("CSV file is empty");
+        }
+        return spreadsheet;
+    }
+
+    /**
+     * Scans the file once to find slice boundaries. A boundary is placed after the first line break
+     * outside quotes found once a slice has reached {@link #SLICE_SIZE} bytes. The file is mapped in
+     * segments of at most {@link #SCAN_SEGMENT_SIZE} bytes.
+     *
+     * @param channel The channel of the file.
+     * @return The offsets where slices start, followed by the size of the file.
+     * @throws IOException If the file cannot be read.
+     */
+    private static long[] findSliceBoundaries(FileChannel channel) throws IOException {
+        long size = channel.size();
+        long[] boundaries = new long[16];
+        int count = 0;
+        boundaries[count++] = 0;
+        boolean quoted = false;
+        long nextTarget = SLICE_SIZE;
+        for (long segmentStart = 0; segmentStart < size; segmentStart += SCAN_SEGMENT_SIZE) {
+            long segmentSize = Math.min(SCAN_SEGMENT_SIZE, size - segmentStart);
+            MappedByteBuffer segment = channel.map(FileChannel.MapMode.READ_ONLY, segmentStart, segmentSize);
+            for (int i = 0; i < segmentSize; i++) {
+                byte b = segment.get(i);
+                if (b == '"') {
+                    quoted = !quoted;
+                } else if (b == '\n' && !quoted && segmentStart + i >= nextTarget && segmentStart + i + 1 < size) {
+                    if (count == boundaries.length) {
+                        boundaries = Arrays.copyOf(boundaries, count * 2);
+                    }
+                    boundaries[count++] = segmentStart + i + 1;
+                    nextTarget = segmentStart + i + 1 + SLICE_SIZE;
+                }
+            }
+        }
+        if (count == boundaries.length) {
+            boundaries = Arrays.copyOf(boundaries, count + 1);
+        }
+        boundaries[count++] = size;
+        return Arrays.copyOf(boundaries, count);
+    }
+
+    /**
+     * Parses the records of a slice and types every field.
+     *
+     * @param buffer The bytes of the slice, starting at a record boundary.
+     * @return The parsed slice.
+     */
+    private static ParsedSlice parse(MappedByteBuffer buffer) {
+        ParsedSlice slice = new ParsedSlice();
+        byte[] field = new byte[256];
+        int length = 0;
+        boolean quoted = false;
+        boolean wasQuoted = false;
+        int limit = buffer.limit();
+        for (int i = 0; i < limit; i++) {
+            byte b = buffer.get(i);
+            if (quoted) {
+                if (b == '"') {
+                    if (i + 1 < limit && buffer.get(i + 1) == '"') {
+                        b = buffer.get(++i);
+                    } else {
+                        quoted = false;
+                        continue;
+                    }
+                }
+            } else if (b == '"') {
+                quoted = true;
+                wasQuoted = true;
+                continue;
+            } else if (b == ',') {
+                slice.addField(new String(field, 0, length, StandardCharsets.UTF_8));
+                length = 0;
+                wasQuoted = false;
+                continue;
+            } else if (b == '\n' || (b == '\r' && i + 1 < limit && buffer.get(i + 1) == '\n')) {
+                if (b == '\r') {
+                    i++;
+                }
+                slice.addField(new String(field, 0, length, StandardCharsets.UTF_8));
+                slice.endRecord();
+                length = 0;
+                wasQuoted = false;
+                continue;
+            }
+            if (length == field.length) {
+                field = Arrays.copyOf(field, length * 2);
+            }
+            field[length++] = b;
+        }
+        if (length > 0 || wasQuoted || slice.pendingFields()) {
+            slice.addField(new String(field, 0, length, StandardCharsets.UTF_8));
+            slice.endRecord();
+        }
+        return slice;
+    }
+
+    /**
+     * The typed fields of the records of one slice, kept in flat arrays until the main thread stores them.
+     */
+    private static final class ParsedSlice {
+        private int records;
+        private int fields;
+        private int[] recordEnds = new int[1024];
+        private byte[] types = new byte[4096];
+        private double[] numbers = new double[4096];
+        private final List<String> texts = new ArrayList<>();
+        private int[] textIndexes = new int[4096];
+
+        /**
+         * Adds a field to the current record, deciding its type.
+         *
+         * @param content The content of the field, without enclosing quotes.
+         */
+        void addField(String content) {
+            if (fields == types.length) {
+                types = Arrays.copyOf(types, fields * 2);
+                numbers = Arrays.copyOf(numbers, fields * 2);
+                textIndexes = Arrays.copyOf(textIndexes, fields * 2);
+            }
+            if (content.isEmpty()) {
+                types[fields] = CellStore.EMPTY;
+            } else if (content.startsWith("=")) {
+                types[fields] = CellStore.FORMULA;
+                textIndexes[fields] = texts.size();
+                texts.add(content);
+            } else {
+                try {
+                    numbers[fields] = Double.parseDouble(content);
+                    types[fields] = CellStore.NUMBER;
+                } catch (NumberFormatException e) {
+                    types[fields] = CellStore.TEXT;
+                    textIndexes[fields] = texts.size();
+                    texts.add(content);
+                }
+            }
+            fields++;
+        }
+
+        /**
+         * Ends the current record.
+         */
+        void endRecord() {
+            if (records == recordEnds.length) {
+                recordEnds = Arrays.copyOf(recordEnds, records * 2);
+            }
+            recordEnds[records++] = fields;
+        }
+
+        /**
+         * Checks if fields were added after the last record ended.
+         *
+         * @return True if the current record has fields, false otherwise.
+         */
+        boolean pendingFields() {
+            return fields > (records == 0 ? 0 : recordEnds[records - 1]);
+        }
+
+        /**
+         * Stores the records of this slice into consecutive rows of a spreadsheet, growing it as needed.
+         * Fields past the last column are ignored.
+         *
+         * @param spreadsheet The spreadsheet receiving the cells.
+         * @param firstRow    The row of the first record.
+         * @return The row following the last record.
+         */
+        int storeInto(SpreadSheet spreadsheet, int firstRow) {
+            int columns = spreadsheet.getColumns();
+            int field = 0;
+            for (int record = 0; record < records; record++) {
+                int row = firstRow + record;
+                spreadsheet.ensureSize(row + 1, 0);
+                for (int column = 0; field < recordEnds[record]; field++, column++) {
+                    if (column >= columns) {
+                        continue;
+                    }
+                    switch (types[field]) {
+                        case CellStore.NUMBER:
+                            spreadsheet.setNumber(row, column, numbers[field]);
+                            break;
+                        case CellStore.TEXT:
+                            spreadsheet.setText(row, column, texts.get(textIndexes[field]));
+                            break;
+                        case CellStore.FORMULA:
+                            spreadsheet.setFormula(row, column, texts.get(textIndexes[field]));
+                            break;
+                        default:
+                            break;
+                    }
+                }
+            }
+            return firstRow + records;
+        }
+    }
+}
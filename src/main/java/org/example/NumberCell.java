@@ -24,6 +24,16 @@ public class NumberCell extends Cell {
         return value;
     }
 
+    /**
+     * Gets the numeric value stored in the cell.
+     *
+     * @return The numeric value.
+     */
+    @Override
+    public Double getNumericValue() {
+        return value;
+    }
+
     /**
      * Gets the data stored in the cell as a string.
      *
@@ -0,0 +1,64 @@
+package org.example;
+
+/**
+ * The NumberFormatter interface writes numbers as ASCII text into a byte buffer, for exporters that
+ * write cell values without creating a string per value.
+ */
+public interface NumberFormatter {
+    /**
+     * Maximum number of bytes a formatter may write for one value.
+     */
+    int MAX_LENGTH = 64;
+
+    /**
+     * Formats numbers exactly like {@link Double#toString(double)} (e.g., "29.0", "2.5", "1.0E7").
+     */
+    NumberFormatter DEFAULT = NumberFormatter::formatDouble;
+
+    /**
+     * Writes a number into a buffer.
+     *
+     * @param value  The number to write.
+     * @param buffer The buffer receiving the text. At least {@link #MAX_LENGTH} bytes are free from the offset.
+     * @param offset The index of the first byte to write.
+     * @return The index after the last byte written.
+     */
+    int format(double value, byte[] buffer, int offset);
+
+    /**
+     * Writes a number into a buffer with the same text as {@link Double#toString(double)}. Integral values
+     * below 10^7, the usual contents of a spreadsheet, are written digit by digit without allocating.
+     *
+     * @param value  The number to write.
+     * @param buffer The buffer receiving the text.
+     * @param offset The index of the first byte to write.
+     * @return The index after the last byte written.
+     */
+    static int formatDouble(double value, byte[] buffer, int offset) {
+        long integral = (long) value;
+        if (integral == value && integral > -10_000_000L && integral < 10_000_000L
+                && (integral != 0 || Double.doubleToRawLongBits(value) == 0)) {
+            if (integral < 0) {
+                buffer[offset++] = '-';
+                integral = -integral;
+            }
+            int digits = 1;
+            for (long limit = 10; integral >= limit; limit *= 10) {
+                digits++;
+            }
+            for (int i = offset + digits - 1; i >= offset; i--) {
+                buffer[i] = (byte) ('0' + integral % 10);
+                integral /= 10;
+            }
+            offset += digits;
+            buffer[offset++] = '.';
+            buffer[offset++] = '0';
+            return offset;
+        }
+        String text = Double.toString(value);
+        for (int i = 0; i < text.length(); i++) {
+            buffer[offset++] = (byte) text.charAt(i);
+        }
+        return offset;
+    }
+}
@@ -0,0 +1,94 @@
+package org.example;
+
+/**
+ * The RangeAggregator class feeds the cells of a rectangular range into an {@link Accumulator}.
+ * The range is given as resolved coordinates and scanned column by column straight over the chunk
+ * arrays of the {@link CellStore}, so visiting a cell allocates nothing and unpopulated chunks are skipped.
+ */
+public class RangeAggregator {
+
+    private RangeAggregator() {
+    }
+
+    /**
+     * Adds the numeric and formula cells of a range to an accumulator. Empty and text cells are ignored,
+     * and the part of the range outside the store is skipped.
+     *
+     * @param sheet       The spreadsheet holding the cells. Outside a recalculation, formula cells are
+     *                    evaluated; during a recalculation their stored value is already up to date.
+     * @param startRow    The zero-based row index of the first cell.
+     * @param startColumn The zero-based column index of the first cell.
+     * @param endRow      The zero-based row index of the last cell.
+     * @param endColumn   The zero-based column index of the last cell.
+     * @param accumulator The accumulator receiving the values.
+     */
+    public static void accumulate(SpreadSheet sheet, int startRow, int startColumn, int endRow, int endColumn,
+                                  Accumulator accumulator) {
+        CellStore store = sheet.getCellStore();
+        boolean storedFormulas = sheet.isRecalculating();
+        int firstRow = Math.max(startRow, 0);
+        int lastRow = Math.min(endRow, store.getRows() - 1);
+        int firstColumn = Math.max(startColumn, 0);
+        int lastColumn = Math.min(endColumn, store.getColumns() - 1);
+        if (firstRow > lastRow) {
+            return;
+        }
+        int firstChunk = firstRow >>> CellStore.CHUNK_BITS;
+        int lastChunk = lastRow >>> CellStore.CHUNK_BITS;
+        for (int column = firstColumn; column <= lastColumn; column++) {
+            ColumnAggregateIndex index = store.getAggregateIndex(column);
+            if (index != null) {
+                index.accumulateNumbers(firstRow, lastRow, accumulator);
+                if (storedFormulas) {
+                    index.accumulateFormulaValues(firstRow, lastRow, accumulator);
+                    continue;
+                }
+                for (int row = index.nextFormulaRow(firstRow); row >= 0 && row <= lastRow; row = index.nextFormulaRow(row + 1)) {
+                    accumulator.add(store.getFormula(row, column).evaluateCompiled(sheet));
+                }
+                continue;
+            }
+            for (int chunkIndex = firstChunk; chunkIndex <= lastChunk; chunkIndex++) {
+                byte[] types = store.typeChunk(column, chunkIndex);
+                if (types == null) {
+                    continue;
+                }
+                double[] values = store.valueChunk(column, chunkIndex);
+                int base = chunkIndex << CellStore.CHUNK_BITS;
+                int from = Math.max(firstRow - base, 0);
+                int to = Math.min(lastRow - base, CellStore.CHUNK_SIZE - 1);
+                for (int k = from; k <= to; k++) {
+                    byte type = types[k];
+                    if (type == CellStore.NUMBER || (type == CellStore.FORMULA && storedFormulas)) {
+                        accumulator.add(values[k]);
+                    } else if (type == CellStore.FORMULA) {
+                        accumulator.add(store.getFormula(base + k, column).evaluateCompiled(sheet));
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Adds a single cell to an accumulator if it holds a number or a formula. A formula cell is read as
+     * by {@link #accumulate(SpreadSheet, int, int, int, int, Accumulator)}: evaluated outside a recalculation,
+     * and through its stored value during one.
+     *
+     * @param sheet       The spreadsheet holding the cell.
+     * @param row         The zero-based row index of the cell.
+     * @param column      The zero-based column index of the cell.
+     * @param accumulator The accumulator receiving the value.
+     */
+    public static void accumulate(SpreadSheet sheet, int row, int column, Accumulator accumulator) {
+        CellStore store = sheet.getCellStore();
+        if (!store.contains(row, column)) {
+            return;
+        }
+        byte type = store.getType(row, column);
+        if (type == CellStore.NUMBER || (type == CellStore.FORMULA && sheet.isRecalculating())) {
+            accumulator.add(store.getValue(row, column));
+        } else if (type == CellStore.FORMULA) {
+            accumulator.add(store.getFormula(row, column).evaluateCompiled(sheet));
+        }
+    }
+}
@@ -0,0 +1,16 @@
+package org.example;
+
+/**
+ * The RecalculationListener interface receives the statistics of every recalculation of a spreadsheet.
+ * Statistics are only collected while a listener is set, so spreadsheets without a listener are
+ * recalculated without any measuring.
+ */
+public interface RecalculationListener {
+    /**
+     * Called on the recalculating thread after {@link SpreadSheet#computeValues()} finished.
+     *
+     * @param spreadsheet The recalculated spreadsheet.
+     * @param stats       The statistics of the recalculation.
+     */
+    void recalculationFinished(SpreadSheet spreadsheet, RecalculationStats stats);
+}
@@ -0,0 +1,138 @@
+package org.example;
+
+import java.lang.management.ManagementFactory;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * The RecalculationMetrics class accumulates the statistics of the recalculations of one or more
+ * spreadsheets and publishes them as an MXBean. Set it as the recalculation listener of the spreadsheets
+ * to measure, and register it to read the metrics with any JMX client (e.g., JConsole).
+ */
+public class RecalculationMetrics implements RecalculationListener, RecalculationMetricsMXBean {
+    private long recalculationCount;
+    private long cellsEvaluated;
+    private long totalNanos;
+    private long cyclesDetected;
+    private long evaluationErrors;
+    private RecalculationStats last;
+    private ObjectName registeredName;
+
+    /**
+     * Adds the statistics of a recalculation to the totals.
+     *
+     * @param spreadsheet The recalculated spreadsheet.
+     * @param stats       The statistics of the recalculation.
+     */
+    @Override
+    public synchronized void recalculationFinished(SpreadSheet spreadsheet, RecalculationStats stats) {
+        recalculationCount++;
+        cellsEvaluated += stats.getCellsEvaluated();
+        totalNanos += stats.getTotalNanos();
+        cyclesDetected += stats.getCyclicCells().size();
+        evaluationErrors += stats.getErrors();
+        last = stats;
+    }
+
+    /**
+     * Registers these metrics in the platform MBean server under
+     * "org.example:type=RecalculationMetrics,name=" followed by the given name.
+     *
+     * @param name The name distinguishing these metrics from others.
+     * @throws JMException If the metrics cannot be registered.
+     */
+    public synchronized void register(String name) throws JMException {
+        ObjectName objectName = new ObjectName("org.example:type=RecalculationMetrics,name=" + ObjectName.quote(name));
+        ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+        registeredName = objectName;
+    }
+
+    /**
+     * Removes these metrics from the platform MBean server. Does nothing if they are not registered.
+     *
+     * @throws JMException If the metrics cannot be unregistered.
+     */
+    public synchronized void unregister() throws JMException {
+        if (registeredName != null) {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(registeredName);
+            registeredName = null;
+        }
+    }
+
+    /**
+     * Gets the statistics of the last recalculation.
+     *
+     * @return The statistics, or null if no recalculation finished yet.
+     */
+    public synchronized RecalculationStats getLastStats() {
+        return last;
+    }
+
+    @Override
+    public synchronized long getRecalculationCount() {
+        return recalculationCount;
+    }
+
+    @Override
+    public synchronized long getCellsEvaluated() {
+        return cellsEvaluated;
+    }
+
+    @Override
+    public synchronized double getTotalRecalculationMillis() {
+        return totalNanos / 1e6;
+    }
+
+    @Override
+    public synchronized double getLastRecalculationMillis() {
+        return last == null ? 0 : last.getTotalNanos() / 1e6;
+    }
+
+    @Override
+    public synchronized double getLastOrderMillis() {
+        return last == null ? 0 : last.getOrderNanos() / 1e6;
+    }
+
+    @Override
+    public synchronized double getLastGroupingMillis() {
+        return last == null ? 0 : last.getGroupingNanos() / 1e6;
+    }
+
+    @Override
+    public synchronized double getLastEvaluationMillis() {
+        return last == null ? 0 : last.getEvaluationNanos() / 1e6;
+    }
+
+    @Override
+    public synchronized long getCyclesDetected() {
+        return cyclesDetected;
+    }
+
+    @Override
+    public synchronized long getEvaluationErrors() {
+        return evaluationErrors;
+    }
+
+    @Override
+    public synchronized String[] getLastCyclicCells() {
+        return last == null ? new String[0] : last.getCyclicCells().toArray(new String[0]);
+    }
+
+    @Override
+    public synchronized String[] getSlowestFormulas() {
+        if (last == null) {
+            return new String[0];
+        }
+        return last.getSlowestFormulas().stream().map(RecalculationStats.FormulaTiming::toString).toArray(String[]::new);
+    }
+
+    @Override
+    public synchronized void reset() {
+        recalculationCount = 0;
+        cellsEvaluated = 0;
+        totalNanos = 0;
+        cyclesDetected = 0;
+        evaluationErrors = 0;
+        last = null;
+    }
+}
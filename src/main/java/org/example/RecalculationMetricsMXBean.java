@@ -0,0 +1,90 @@
+package org.example;
+
+/**
+ * The RecalculationMetricsMXBean interface exposes the recalculation metrics of spreadsheets through JMX.
+ * Totals accumulate over every recalculation since the metrics were created or reset; the other
+ * attributes describe the last recalculation.
+ */
+public interface RecalculationMetricsMXBean {
+    /**
+     * Gets the number of recalculations.
+     *
+     * @return The number of recalculations.
+     */
+    long getRecalculationCount();
+
+    /**
+     * Gets the total number of formula cells evaluated.
+     *
+     * @return The number of evaluated cells.
+     */
+    long getCellsEvaluated();
+
+    /**
+     * Gets the total time spent recalculating.
+     *
+     * @return The time in milliseconds.
+     */
+    double getTotalRecalculationMillis();
+
+    /**
+     * Gets the duration of the last recalculation.
+     *
+     * @return The time in milliseconds.
+     */
+    double getLastRecalculationMillis();
+
+    /**
+     * Gets the time the last recalculation spent ordering cells and detecting cycles.
+     *
+     * @return The time in milliseconds.
+     */
+    double getLastOrderMillis();
+
+    /**
+     * Gets the time the last recalculation spent grouping cells into dependency levels.
+     *
+     * @return The time in milliseconds.
+     */
+    double getLastGroupingMillis();
+
+    /**
+     * Gets the time the last recalculation spent evaluating formulas, summed over all threads.
+     *
+     * @return The time in milliseconds.
+     */
+    double getLastEvaluationMillis();
+
+    /**
+     * Gets the total number of formula cells found in circular dependencies.
+     *
+     * @return The number of cyclic cells.
+     */
+    long getCyclesDetected();
+
+    /**
+     * Gets the total number of failed formula evaluations.
+     *
+     * @return The number of errors.
+     */
+    long getEvaluationErrors();
+
+    /**
+     * Gets the cells found in circular dependencies by the last recalculation.
+     *
+     * @return The references of the cells.
+     */
+    String[] getLastCyclicCells();
+
+    /**
+     * Gets the slowest formulas of the last recalculation, slowest first.
+     *
+     * @return The cell, formula and evaluation time of each formula.
+     */
+    String[] getSlowestFormulas();
+
+    /**
+     * Resets every metric.
+     */
+    void reset();
+}
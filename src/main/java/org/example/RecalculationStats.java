@@ -0,0 +1,243 @@
+package org.example;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The RecalculationStats class holds the measurements of one recalculation: how many formula cells were
+ * evaluated, how long each phase took, which cells were part of a circular dependency, and the slowest
+ * formulas.
+ * <p>
+ * A recalculation has two phases: ordering, which walks the dependency graph from the edited cells and
+ * detects cycles, and evaluation. Parallel recalculations add a grouping phase that splits the order into
+ * dependency levels. Measurements are recorded by the recalculating threads, so they are thread-safe.
+ */
+public final class RecalculationStats {
+    /**
+     * Number of slowest formulas kept.
+     */
+    public static final int SLOWEST_FORMULAS = 10;
+
+    private final LongAdder cellsEvaluated = new LongAdder();
+    private final LongAdder evaluationNanos = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+    private final List<String> cyclicCells = new ArrayList<>();
+    private final PriorityQueue<FormulaTiming> slowest =
+            new PriorityQueue<>(SLOWEST_FORMULAS + 1, (a, b) -> Long.compare(a.nanos, b.nanos));
+    private volatile long slowestThreshold;
+    private long orderNanos;
+    private long groupingNanos;
+    private long totalNanos;
+
+    /**
+     * Constructs empty statistics, filled in by the spreadsheet being recalculated.
+     */
+    RecalculationStats() {
+    }
+
+    /**
+     * Records the evaluation of a formula cell.
+     *
+     * @param row     The row index of the cell.
+     * @param column  The column index of the cell.
+     * @param formula The formula of the cell.
+     * @param nanos   The time spent evaluating the cell, in nanoseconds.
+     */
+    void cellEvaluated(int row, int column, FormulaCell formula, long nanos) {
+        cellsEvaluated.increment();
+        evaluationNanos.add(nanos);
+        if (nanos > slowestThreshold) {
+            synchronized (slowest) {
+                slowest.add(new FormulaTiming(CellReference.toString(row, column), formula.getFormulaString(), nanos));
+                if (slowest.size() > SLOWEST_FORMULAS) {
+                    slowest.poll();
+                    slowestThreshold = slowest.peek().nanos;
+                }
+            }
+        }
+    }
+
+    /**
+     * Records an error while evaluating a formula.
+     */
+    void evaluationFailed() {
+        errors.increment();
+    }
+
+    /**
+     * Records a formula cell that is part of a circular dependency.
+     *
+     * @param row    The row index of the cell.
+     * @param column The column index of the cell.
+     */
+    void cycleDetected(int row, int column) {
+        cyclicCells.add(CellReference.toString(row, column));
+    }
+
+    /**
+     * Records the time spent computing the recalculation order.
+     *
+     * @param nanos The time in nanoseconds.
+     */
+    void orderComputed(long nanos) {
+        orderNanos = nanos;
+    }
+
+    /**
+     * Records the time spent grouping the recalculation order into dependency levels.
+     *
+     * @param nanos The time in nanoseconds.
+     */
+    void levelsGrouped(long nanos) {
+        groupingNanos = nanos;
+    }
+
+    /**
+     * Records the total time of the recalculation.
+     *
+     * @param nanos The time in nanoseconds.
+     */
+    void finished(long nanos) {
+        totalNanos = nanos;
+    }
+
+    /**
+     * Gets the number of formula cells evaluated.
+     *
+     * @return The number of evaluated cells.
+     */
+    public long getCellsEvaluated() {
+        return cellsEvaluated.sum();
+    }
+
+    /**
+     * Gets the time spent walking the dependency graph to order the cells and detect cycles.
+     *
+     * @return The time in nanoseconds.
+     */
+    public long getOrderNanos() {
+        return orderNanos;
+    }
+
+    /**
+     * Gets the time spent grouping cells into dependency levels for a parallel recalculation.
+     *
+     * @return The time in nanoseconds, or 0 if the recalculation was sequential.
+     */
+    public long getGroupingNanos() {
+        return groupingNanos;
+    }
+
+    /**
+     * Gets the time spent evaluating formula cells. For parallel recalculations, this is the sum of the
+     * time spent by every thread, and may be longer than the recalculation itself.
+     *
+     * @return The time in nanoseconds.
+     */
+    public long getEvaluationNanos() {
+        return evaluationNanos.sum();
+    }
+
+    /**
+     * Gets the total time of the recalculation.
+     *
+     * @return The time in nanoseconds.
+     */
+    public long getTotalNanos() {
+        return totalNanos;
+    }
+
+    /**
+     * Gets the number of formula evaluations that failed.
+     *
+     * @return The number of errors.
+     */
+    public long getErrors() {
+        return errors.sum();
+    }
+
+    /**
+     * Gets the formula cells found to be part of a circular dependency.
+     *
+     * @return The references of the cells (e.g., "A1").
+     */
+    public List<String> getCyclicCells() {
+        return Collections.unmodifiableList(cyclicCells);
+    }
+
+    /**
+     * Gets the slowest formulas of the recalculation, at most {@link #SLOWEST_FORMULAS}.
+     *
+     * @return The slowest formulas, slowest first.
+     */
+    public List<FormulaTiming> getSlowestFormulas() {
+        List<FormulaTiming> result;
+        synchronized (slowest) {
+            result = new ArrayList<>(slowest);
+        }
+        result.sort((a, b) -> Long.compare(b.nanos, a.nanos));
+        return result;
+    }
+
+    /**
+     * The time spent evaluating one formula cell.
+     */
+    public static final class FormulaTiming {
+        private final String cell;
+        private final String formula;
+        private final long nanos;
+
+        /**
+         * Constructs a formula timing.
+         *
+         * @param cell    The reference of the cell (e.g., "A1").
+         * @param formula The formula of the cell.
+         * @param nanos   The evaluation time in nanoseconds.
+         */
+        FormulaTiming(String cell, String formula, long nanos) {
+            this.cell = cell;
+            this.formula = formula;
+            this.nanos = nanos;
+        }
+
+        /**
+         * Gets the reference of the cell.
+         *
+         * @return The cell reference (e.g., "A1").
+         */
+        public String getCell() {
+            return cell;
+        }
+
+        /**
+         * Gets the formula of the cell.
+         *
+         * @return The formula, including the leading "=".
+         */
+        public String getFormula() {
+            return formula;
+        }
+
+        /**
+         * Gets the time spent evaluating the cell.
+         *
+         * @return The time in nanoseconds.
+         */
+        public long getNanos() {
+            return nanos;
+        }
+
+        /**
+         * Formats the timing as the cell, its formula and the time in microseconds.
+         *
+         * @return The formatted timing (e.g., "B7 =SUMA(A1:A1000) 12.5 us").
+         */
+        @Override
+        public String toString() {
+            return cell + " " + formula + " " + (nanos / 100) / 10.0 + " us";
+        }
+    }
+}
@@ -0,0 +1,272 @@
+package org.example;
+
+import java.util.Arrays;
+
+/**
+ * The RpnProgram class is an arithmetic expression in Reverse Polish Notation, tokenized once into typed
+ * instructions: pushing a constant, pushing the value of a cell, or applying one of the operators +, -, * and /.
+ * Cell references are resolved to their row and column when compiling, and their values are read from the
+ * cell store of the spreadsheet when evaluating, never through text.
+ * <p>
+ * Compiling checks that the program never pops an empty stack and computes the deepest stack it needs,
+ * so evaluating it is a single loop over primitive arrays that does not allocate and does not fail
+ * except on a division by zero.
+ */
+public final class RpnProgram {
+    private static final byte PUSH = 0;
+    private static final byte ADD = 1;
+    private static final byte SUBTRACT = 2;
+    private static final byte MULTIPLY = 3;
+    private static final byte DIVIDE = 4;
+    private static final byte LOAD = 5;
+
+    private final byte[] instructions;
+    private final double[] constants;
+    private final long[] references;
+    private final double[] stack;
+
+    /**
+     * Constructs a program from its instructions.
+     *
+     * @param instructions The instructions.
+     * @param constants    The constant pushed by each PUSH instruction, at the same index.
+     * @param references   The key of the cell read by each LOAD instruction, at the same index.
+     * @param maxDepth     The deepest stack reached while evaluating the program.
+     */
+    private RpnProgram(byte[] instructions, double[] constants, long[] references, int maxDepth) {
+        this.instructions = instructions;
+        this.constants = constants;
+        this.references = references;
+        this.stack = new double[maxDepth];
+    }
+
+    /**
+     * Compiles an RPN expression whose tokens are separated by whitespace (e.g., "A1 2.0 B3 * +").
+     * A token is a number if it is written like {@link Double#toString(double)} or a plain decimal writes
+     * it, optionally with a comma as decimal separator; a cell reference if {@link CellReference} accepts it;
+     * or one of the operators +, -, * and /. The expression must leave exactly one value on the stack.
+     *
+     * @param rpnExpression The RPN expression.
+     * @return The compiled program.
+     * @throws IllegalArgumentException If a token is unknown, an operator lacks operands, or the expression
+     *                                  does not leave exactly one value.
+     */
+    public static RpnProgram compile(String rpnExpression) {
+        int length = rpnExpression.length();
+        byte[] instructions = new byte[8];
+        double[] constants = new double[8];
+        long[] references = new long[8];
+        int count = 0;
+        int depth = 0;
+        int maxDepth = 0;
+        int i = 0;
+        while (i < length) {
+            while (i < length && Character.isWhitespace(rpnExpression.charAt(i))) {
+                i++;
+            }
+            int start = i;
+            while (i < length && !Character.isWhitespace(rpnExpression.charAt(i))) {
+                i++;
+            }
+            if (start == i) {
+                break;
+            }
+            byte instruction;
+            long reference = CellReference.INVALID;
+            if (isNumber(rpnExpression, start, i)
+                    || (reference = CellReference.parse(rpnExpression, start, i)) != CellReference.INVALID) {
+                instruction = reference == CellReference.INVALID ? PUSH : LOAD;
+                depth++;
+                maxDepth = Math.max(maxDepth, depth);
+            } else {
+                instruction = i - start == 1 ? operator(rpnExpression.charAt(start)) : PUSH;
+                if (instruction == PUSH) {
+                    throw new IllegalArgumentException("Unknown token: " + rpnExpression.substring(start, i));
+                }
+                if (depth < 2) {
+                    throw new IllegalArgumentException("Invalid formula syntax");
+                }
+                depth--;
+            }
+            if (count == instructions.length) {
+                instructions = Arrays.copyOf(instructions, count * 2);
+                constants = Arrays.copyOf(constants, count * 2);
+                references = Arrays.copyOf(references, count * 2);
+            }
+            instructions[count] = instruction;
+            if (instruction == PUSH) {
+                constants[count] = Double.parseDouble(rpnExpression.substring(start, i).replace(',', '.'));
+            } else if (instruction == LOAD) {
+                references[count] = reference;
+            }
+            count++;
+        }
+        if (depth != 1) {
+            throw new IllegalArgumentException("Invalid formula syntax");
+        }
+        return new RpnProgram(Arrays.copyOf(instructions, count), Arrays.copyOf(constants, count),
+                Arrays.copyOf(references, count), maxDepth);
+    }
+
+    /**
+     * Evaluates a program without cell references.
+     *
+     * @return The value on top of the stack once every instruction has run.
+     * @throws ArithmeticException      If a division by zero occurs.
+     * @throws IllegalArgumentException If the program references cells.
+     */
+    public double evaluate() {
+        return evaluate(null, stack);
+    }
+
+    /**
+     * Evaluates the program, reading referenced cells from a spreadsheet. The program keeps its own stack,
+     * so it must not be evaluated by several threads at the same time; use
+     * {@link #evaluate(SpreadSheet, double[])} with a stack per thread instead.
+     *
+     * @param sheet The spreadsheet that provides the values of referenced cells.
+     * @return The value on top of the stack once every instruction has run.
+     * @throws ArithmeticException If a division by zero occurs.
+     */
+    public double evaluate(SpreadSheet sheet) {
+        return evaluate(sheet, stack);
+    }
+
+    /**
+     * Evaluates the program on the given stack. Empty cells and cells outside the spreadsheet count as 0
+     * and text cells as NaN, as in compiled formulas.
+     *
+     * @param sheet The spreadsheet that provides the values of referenced cells, or null if the program
+     *              does not reference cells.
+     * @param stack The stack, with at least {@link #getMaxDepth()} elements.
+     * @return The value on top of the stack once every instruction has run.
+     * @throws ArithmeticException      If a division by zero occurs.
+     * @throws IllegalArgumentException If the program references cells and no spreadsheet is given.
+     */
+    public double evaluate(SpreadSheet sheet, double[] stack) {
+        int top = -1;
+        for (int i = 0; i < instructions.length; i++) {
+            switch (instructions[i]) {
+                case PUSH:
+                    stack[++top] = constants[i];
+                    break;
+                case LOAD:
+                    if (sheet == null) {
+                        throw new IllegalArgumentException("Cell reference without a spreadsheet");
+                    }
+                    long reference = references[i];
+                    stack[++top] = sheet.getCellStore().getNumericValue(DependencyManager.row(reference),
+                            DependencyManager.column(reference));
+                    break;
+                case ADD:
+                    stack[top - 1] += stack[top];
+                    top--;
+                    break;
+                case SUBTRACT:
+                    stack[top - 1] -= stack[top];
+                    top--;
+                    break;
+                case MULTIPLY:
+                    stack[top - 1] *= stack[top];
+                    top--;
+                    break;
+                default:
+                    if (stack[top] == 0) {
+                        throw new ArithmeticException("Division by zero");
+                    }
+                    stack[top - 1] /= stack[top];
+                    top--;
+                    break;
+            }
+        }
+        return stack[top];
+    }
+
+    /**
+     * Gets the deepest stack reached while evaluating the program.
+     *
+     * @return The number of stack elements the program needs.
+     */
+    public int getMaxDepth() {
+        return stack.length;
+    }
+
+    /**
+     * Gets the instruction applying an operator.
+     *
+     * @param c The operator character.
+     * @return The instruction, or {@link #PUSH} if the character is not an operator.
+     */
+    private static byte operator(char c) {
+        switch (c) {
+            case '+':
+                return ADD;
+            case '-':
+                return SUBTRACT;
+            case '*':
+                return MULTIPLY;
+            case '/':
+                return DIVIDE;
+            default:
+                return PUSH;
+        }
+    }
+
+    /**
+     * Checks if a character is an ASCII digit.
+     *
+     * @param c The character to check.
+     * @return True if the character is between '0' and '9', false otherwise.
+     */
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    /**
+     * Checks if a token is a number: an optional sign followed by "NaN", "Infinity", or digits with an
+     * optional decimal point or comma and an optional exponent.
+     *
+     * @param text  The text containing the token.
+     * @param start The index of the first character of the token.
+     * @param end   The index after the last character of the token.
+     * @return True if the token is a number, false otherwise.
+     */
+    private static boolean isNumber(String text, int start, int end) {
+        int i = start;
+        if (i < end && (text.charAt(i) == '+' || text.charAt(i) == '-')) {
+            i++;
+        }
+        if (text.startsWith("NaN", i) || text.startsWith("Infinity", i)) {
+            return end - i == (text.charAt(i) == 'N' ? 3 : 8);
+        }
+        int digits = 0;
+        while (i < end && isDigit(text.charAt(i))) {
+            i++;
+            digits++;
+        }
+        if (i < end && (text.charAt(i) == '.' || text.charAt(i) == ',')) {
+            i++;
+            while (i < end && isDigit(text.charAt(i))) {
+                i++;
+                digits++;
+            }
+        }
+        if (digits == 0) {
+            return false;
+        }
+        if (i < end && (text.charAt(i) == 'E' || text.charAt(i) == 'e')) {
+            i++;
+            if (i < end && (text.charAt(i) == '+' || text.charAt(i) == '-')) {
+                i++;
+            }
+            int exponentStart = i;
+            while (i < end && isDigit(text.charAt(i))) {
+                i++;
+            }
+            if (i == exponentStart) {
+                return false;
+            }
+        }
+        return i == end;
+    }
+}
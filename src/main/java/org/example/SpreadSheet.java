@@ -1,14 +1,36 @@
 package org.example;
+import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.Consumer;
 /**
  * The SpreadSheet class manages all considerations inside a SpreadSheet needs.
+ * All the state of a spreadsheet belongs to its instance, so independent spreadsheets can be
+ * loaded and recalculated at the same time on different threads. A single spreadsheet is not
+ * thread-safe and must be used by one thread at a time.
  */
 public class SpreadSheet {
-    private static int rows;
-    private static int columns;
-    private static String[][] data;
-    private static Cell[][] cellMatrix;
-    private static DependencyManager dependencyManager;
+    private int rows;
+    private int columns;
+    private CellStore store;
+    private DependencyManager dependencyManager;
+    private Cell currentCell;
+    private ForkJoinPool recalculationPool;
+    private volatile boolean recalculating;
+    private volatile int evaluationPass;
+    private EditJournal editJournal;
+    private RecalculationListener recalculationListener;
+    private RecalculationStats recalculationStats;
+    /**
+     * The contents every cell written by the open batch had before the batch, or null if no batch is open.
+     */
+    private Map<Long, CellSnapshot> batchOriginals;
+
+    /**
+     * Recalculations and dependency levels with fewer formula cells than this are evaluated sequentially.
+     */
+    private static final int PARALLEL_THRESHOLD = 64;
 
     /**
      * Constructs a SpreadSheet with the specified number of rows and columns.
@@ -17,10 +39,10 @@ public class SpreadSheet {
      * @param Columns The number of columns in the spreadsheet.
      */
     public SpreadSheet(int Rows, int Columns) {
-        rows = Rows;
-        columns = Columns;
-        data = new String[rows][columns];
-        cellMatrix = new Cell[rows][columns];
+        this.rows = Rows;
+        this.columns = Columns;
+        store = new CellStore(rows, columns);
+        dependencyManager = new DependencyManager();
     }
 
     /**
@@ -32,19 +54,15 @@ public class SpreadSheet {
      */
     public void setCellreference(String name, String formula) throws Exception {
         int[] coordinates = convertCellReferenceToCoordinates(name);
+        rememberOriginal(coordinates[0], coordinates[1]);
         if (formula.startsWith("=")) {
-            cellMatrix[coordinates[0]][coordinates[1]] = createCell(formula);
-            cellMatrix[coordinates[0]][coordinates[1]].setValue("0");
-            cellMatrix[coordinates[0]][coordinates[1]].setCellName(name);
+            putFormula(coordinates[0], coordinates[1], formula, 0);
         } else if (isNumeric(formula)) {
-            cellMatrix[coordinates[0]][coordinates[1]] = createCell(formula);
-            cellMatrix[coordinates[0]][coordinates[1]].setValue(formula);
-            cellMatrix[coordinates[0]][coordinates[1]].setCellName(name);
+            store.setNumber(coordinates[0], coordinates[1], Double.parseDouble(formula));
         } else {
-            cellMatrix[coordinates[0]][coordinates[1]] = new StringCell(formula);
-            cellMatrix[coordinates[0]][coordinates[1]].setValue(formula);
-            cellMatrix[coordinates[0]][coordinates[1]].setCellName(name);
+            store.setText(coordinates[0], coordinates[1], formula);
         }
+        updateDependencies(coordinates[0], coordinates[1]);
     }
 
     /**
@@ -53,13 +71,14 @@ public class SpreadSheet {
      * @param cellReference The cell reference (e.g., "A1", "B2").
      * @return The cell corresponding to the cell reference.
      */
-    static Cell getCellByReference(String cellReference) {
-        if (isValidCellReference(cellReference)) {
-            int row = cellReference.charAt(0) - 'A';
-            int col = Integer.parseInt(cellReference.substring(1)) - 1;
-
-            if (row >= 0 && row < rows && col >= 0 && col < columns) {
-                return cellMatrix[col][row];
+    Cell getCellByReference(String cellReference) {
+        long key = CellReference.parse(cellReference);
+        if (key != CellReference.INVALID) {
+            int row = DependencyManager.row(key);
+            int col = DependencyManager.column(key);
+
+            if (isValidCell(row, col)) {
+                return materializeCell(row, col);
             } else {
                 System.out.println("Invalid cell reference: " + cellReference);
             }
@@ -70,15 +89,13 @@ public class SpreadSheet {
     }
 
     /**
-     * Checks if a cell reference is in the correct format (e.g., "A1", "B2").
+     * Checks if a cell reference is in the correct format (e.g., "A1", "AB12", "$B$2").
      *
      * @param cellReference The cell reference to check.
      * @return True if the cell reference is in the correct format, false otherwise.
      */
     public static boolean isValidCellReference(String cellReference) {
-        // Regular expression to check if the cell reference is in the correct format (e.g., A1, B2)
-        String cellReferencePattern = "^[A-Z]+\\d+$";
-        return cellReference.matches(cellReferencePattern);
+        return CellReference.isValid(cellReference);
     }
 
     /**
@@ -88,10 +105,9 @@ public class SpreadSheet {
      * @param col    The column index.
      * @return The cell reference corresponding to the row and column indices.
      */
-    public static String convertToCellReference(int row, int col) {
-        if (row >= 0 && row < rows && col >= 0 && col < columns) {
-            char columnLetter = (char) ('A' + col);
-            return columnLetter + String.valueOf(row + 1); // Add 1 to row to match Excel's 1-based indexing
+    public String convertToCellReference(int row, int col) {
+        if (isValidCell(row, col)) {
+            return CellReference.toString(row, col);
         } else {
             // Handle invalid coordinates
             return "Invalid Cell";
@@ -106,44 +122,25 @@ public class SpreadSheet {
      * @param formula       The formula associated with the cell.
      * @param currentCell   The current cell being processed.
      */
-    public static void setValueByCellReference(String cellReference, String cellValue, String formula, Cell currentCell) {
+    public void setValueByCellReference(String cellReference, String cellValue, String formula, Cell currentCell) {
         try {
             int[] coordinates = convertCellReferenceToCoordinates(cellReference);
-            data[coordinates[0]][coordinates[1]] = cellValue;
+            rememberOriginal(coordinates[0], coordinates[1]);
 
             if (formula.startsWith("=")) {
-                cellMatrix[coordinates[0]][coordinates[1]] = createCell(formula);
-                cellMatrix[coordinates[0]][coordinates[1]].setValue(cellValue);
-                cellMatrix[coordinates[0]][coordinates[1]].setCellName(cellReference);
-            } else if (!formula.startsWith("=") && !isNumeric(formula)) {
-                cellMatrix[coordinates[0]][coordinates[1]] = new StringCell(cellValue);
-                cellMatrix[coordinates[0]][coordinates[1]].setValue(cellValue);
-                cellMatrix[coordinates[0]][coordinates[1]].setCellName(cellReference);
-                cellMatrix[coordinates[0]][coordinates[1]].setStringValue(formula);
-            } else if (isNumeric(formula)) {
-                cellMatrix[coordinates[0]][coordinates[1]] = createCell(formula);
-                cellMatrix[coordinates[0]][coordinates[1]].setValue(cellValue);
-                cellMatrix[coordinates[0]][coordinates[1]].setCellName(cellReference);
+                putFormula(coordinates[0], coordinates[1], formula, Double.parseDouble(cellValue));
+            } else if (!isNumeric(formula)) {
+                store.setText(coordinates[0], coordinates[1], formula);
+            } else {
+                store.setNumber(coordinates[0], coordinates[1], Double.parseDouble(cellValue));
             }
 
             if (currentCell != null) {
-                Cell.setCurrentCell(currentCell);
+                this.currentCell = currentCell;
             }
 
             // Register dependencies
-            Cell cell = cellMatrix[coordinates[0]][coordinates[1]];
-            if (cell instanceof FormulaCell formulaCell) {
-                for (String dependentReference : formulaCell.getDependentReferences()) {
-                    Cell dependentCell = dependencyManager.getCell(dependentReference);
-                    if (dependentCell != null && !dependentCell.addDependent(cell)) {
-                        // Circular dependency detected
-                        System.out.println("Circular Dependency Detected involving cell: " + dependentCell.getData());
-                        // Take appropriate action to resolve circular dependency
-                        // For example, break the loop, set a default value, etc.
-                        dependentCell.setVisited(false);
-                    }
-                }
-            }
+            updateDependencies(coordinates[0], coordinates[1]);
         } catch (Exception e) {
             // Handle any other exceptions here
             System.out.println("Error: " + e.getMessage());
@@ -151,12 +148,64 @@ public class SpreadSheet {
     }
 
     /**
-     * Sets the dependency manager for the spreadsheet.
+     * Gets the cell that was last set through {@link #setValueByCellReference}.
+     *
+     * @return The current cell, or null if none was set.
+     */
+    public Cell getCurrentCell() {
+        return currentCell;
+    }
+
+    /**
+     * Gets the dependency manager that tracks the precedents and dependents of the cells.
+     *
+     * @return The dependency manager.
+     */
+    public DependencyManager getDependencyManager() {
+        return dependencyManager;
+    }
+
+    /**
+     * Registers the precedents of the cell at the given position in the dependency graph and marks it
+     * as edited, so that the next recalculation re-evaluates it and its transitive dependents.
      *
-     * @param manager The dependency manager to set.
+     * @param row    The row index of the cell.
+     * @param column The column index of the cell.
      */
-    public static void setDependencyManager(DependencyManager manager) {
-        dependencyManager = manager;
+    private void updateDependencies(int row, int column) {
+        if (batchOriginals != null) {
+            // Registered once per cell when the batch is committed
+            evaluationPass++;
+            return;
+        }
+        long key = DependencyManager.key(row, column);
+        FormulaCell formulaCell = store.getFormula(row, column);
+        if (formulaCell != null) {
+            try {
+                dependencyManager.setPrecedents(key, formulaCell.getCompiledFormula());
+            } catch (IllegalArgumentException e) {
+                // The formula cannot be compiled, so it has no precedents and is left out of recalculations;
+                // its error is reported and its value set once here
+                dependencyManager.removePrecedents(key);
+                store.setValue(row, column, ExpressionParser.evaluateCell(this, formulaCell));
+            }
+            dependencyManager.markDirty(key);
+        } else {
+            dependencyManager.removePrecedents(key);
+            // A constant without dependents affects nothing; formulas referencing it later are marked themselves
+            if (dependencyManager.hasDependents(key)) {
+                dependencyManager.markDirty(key);
+            }
+        }
+        // Formula results computed before the edit may depend on the old contents of the cell
+        evaluationPass++;
+        if (editJournal != null) {
+            try {
+                editJournal.record(store, row, column);
+            } catch (IOException e) {
+                System.out.println("Error writing edit journal: " + e.getMessage());
+            }
+        }
     }
 
     /**
@@ -164,21 +213,16 @@ public class SpreadSheet {
      *
      * @param cellReference The cell reference (e.g., "A1", "B2").
      * @return An array containing row and column indices.
+     * @throws IllegalArgumentException If the cell reference is invalid.
      */
     static int[] convertCellReferenceToCoordinates(String cellReference) {
-        // Extract column letters (e.g., "A", "B", "C")
-        String columnPart = cellReference.replaceAll("[0-9]", "");
-        char[] columnChars = columnPart.toCharArray();
-
-        int col = 0;
-        for (char c : columnChars) {
-            col = col * 26 + (c - 'A' + 1);
+        long key = CellReference.parse(cellReference);
+        if (key == CellReference.INVALID) {
+            throw new IllegalArgumentException("Invalid cell reference: " + cellReference);
         }
-
-        int row = Integer.parseInt(cellReference.replaceAll("[A-Z]", "")) - 1; // Adjust for 0-based indexing
-
-        return new int[]{row, col - 1}; // Adjust for 0-based indexing
+        return new int[]{DependencyManager.row(key), DependencyManager.column(key)};
     }
+
     /**
      * Gets the number of rows in the spreadsheet.
      *
@@ -207,77 +251,125 @@ public class SpreadSheet {
      */
     public Cell getCell(int row, int column) {
         if (isValidCell(row, column)) {
-            return cellMatrix[row][column];
+            return materializeCell(row, column);
         } else {
             throw new IllegalArgumentException("Invalid cell coordinates");
         }
     }
 
     /**
-     * Gets the entire cell matrix of the spreadsheet.
+     * Gets the cell at the specified row and column indices without failing on invalid coordinates.
+     *
+     * @param row    The row index.
+     * @param column The column index.
+     * @return The cell at the specified indices, or null if it is empty or outside the spreadsheet.
+     */
+    Cell cellAt(int row, int column) {
+        return isValidCell(row, column) ? materializeCell(row, column) : null;
+    }
+
+    /**
+     * Gets the store holding the contents of the spreadsheet.
      *
-     * @return The cell matrix.
+     * @return The cell store.
      */
-    public static Cell[][] getCellMatrix() {
-        return cellMatrix;
+    public CellStore getCellStore() {
+        return store;
     }
 
     /**
-     * Checks if the specified cell coordinates are valid.
+     * Creates the cell object for the contents stored at the specified position. Number and text
+     * cells are created on demand as views of the store; formula cells are returned as stored.
      *
      * @param row    The row index.
      * @param column The column index.
-     * @return True if the cell coordinates are valid, false otherwise.
+     * @return The cell, or null if the position is empty.
      */
-    private boolean isValidCell(int row, int column) {
-        return row >= 0 && row < rows && column >= 0 && column < columns;
+    private Cell materializeCell(int row, int column) {
+        Cell cell;
+        switch (store.getType(row, column)) {
+            case CellStore.NUMBER:
+                cell = new NumberCell(store.getValue(row, column));
+                break;
+            case CellStore.TEXT:
+                cell = new StringCell(store.getText(row, column));
+                break;
+            case CellStore.FORMULA:
+                cell = store.getFormula(row, column);
+                break;
+            default:
+                return null;
+        }
+        cell.setCellName(convertToCellReference(row, column));
+        return cell;
     }
 
     /**
-     * Gets the variable string from the cell at the specified cell reference.
+     * Stores a formula at the specified position. A formula cell already holding the same formula is
+     * kept, so its compiled expression tree is reused.
      *
-     * @param cellReference The cell reference (e.g., "A1", "B2").
-     * @return The variable string from the cell.
-     * @throws IllegalArgumentException If the cell reference is invalid.
+     * @param row     The row index.
+     * @param column  The column index.
+     * @param formula The formula, including the leading "=".
+     * @param value   The initial value of the formula.
      */
-    public String getVariableString(String cellReference) {
-        // Assuming cellReference is in the format "A1", "B2", etc.
-        int row = parseRow(cellReference);
-        int col = parseColumn(cellReference);
-        // Check if the cell coordinates are valid
-        if (isValidCell(row, col)) {
-            return data[row][col];
-        } else {
-            throw new IllegalArgumentException("Invalid cell reference: " + cellReference);
+    private void putFormula(int row, int column, String formula, double value) {
+        rememberOriginal(row, column);
+        FormulaCell formulaCell = store.getFormula(row, column);
+        if (formulaCell == null || !formulaCell.getFormulaString().equals(formula)) {
+            formulaCell = new FormulaCell(formula);
         }
+        store.setFormula(row, column, formulaCell, value);
+        formulaCell.setCellName(convertToCellReference(row, column));
     }
 
     /**
-     * Parses the row index from the cell reference.
+     * Gets the text shown for the cell at the specified position.
      *
-     * @param cellReference The cell reference (e.g., "A1", "B2").
-     * @return The parsed row index (adjusted to zero-based index).
+     * @param row    The row index.
+     * @param column The column index.
+     * @return The text of a text cell, the value of a number or formula cell, or "null" if the cell is empty.
      */
-    private int parseRow(String cellReference) {
-        // Assuming the row index is specified as the numeric part of the cell reference
-        String rowPart = cellReference.replaceAll("[^0-9]", "");
-        return Integer.parseInt(rowPart) - 1; // Adjust to zero-based index
+    private String getDisplayValue(int row, int column) {
+        switch (store.getType(row, column)) {
+            case CellStore.TEXT:
+                return store.getText(row, column);
+            case CellStore.NUMBER:
+            case CellStore.FORMULA:
+                return store.getValue(row, column) + "\t";
+            default:
+                return "null";
+        }
     }
 
     /**
-     * Parses the column index from the cell reference.
+     * Checks if the specified cell coordinates are valid.
+     *
+     * @param row    The row index.
+     * @param column The column index.
+     * @return True if the cell coordinates are valid, false otherwise.
+     */
+    private boolean isValidCell(int row, int column) {
+        return row >= 0 && row < rows && column >= 0 && column < columns;
+    }
+
+    /**
+     * Gets the variable string from the cell at the specified cell reference.
      *
      * @param cellReference The cell reference (e.g., "A1", "B2").
-     * @return The parsed column index (adjusted to zero-based index).
+     * @return The variable string from the cell.
+     * @throws IllegalArgumentException If the cell reference is invalid.
      */
-    private int parseColumn(String cellReference) {
-        // Assuming the column index is specified as the alphabetic part of the cell reference
-        String colPart = cellReference.replaceAll("[^A-Za-z]", "").toUpperCase();
-        int result = 0;
-        for (char c : colPart.toCharArray()) {
-            result = result * 26 + (c - 'A' + 1);
+    public String getVariableString(String cellReference) {
+        long key = CellReference.parse(cellReference);
+        int row = DependencyManager.row(key);
+        int col = DependencyManager.column(key);
+        // Check if the cell coordinates are valid
+        if (key != CellReference.INVALID && isValidCell(row, col)) {
+            return getDisplayValue(row, col);
+        } else {
+            throw new IllegalArgumentException("Invalid cell reference: " + cellReference);
         }
-        return result - 1; // Adjust to zero-based index
     }
 
     /**
@@ -287,8 +379,7 @@ public class SpreadSheet {
         // Print column headers (A, B, C, ...)
         System.out.print("\t"); // Create space for row numbers
         for (int col = 0; col < columns; col++) {
-            char columnLetter = (char) ('A' + col);
-            System.out.print(columnLetter + "\t" + "\t");
+            System.out.print(CellReference.columnName(col) + "\t" + "\t");
         }
         System.out.println(); // Move to the next line
 
@@ -296,30 +387,13 @@ public class SpreadSheet {
         for (int row = 0; row < rows; row++) {
             System.out.print((row + 1) + "\t"); // Row number
             for (int col = 0; col < columns; col++) {
-                System.out.print(data[row][col] + "\t"); // Data value
+                System.out.print(getDisplayValue(row, col) + "\t"); // Data value
             }
             System.out.println(); // Move to the next line
         }
     }
 
 
-    /**
-     * Creates a cell based on the given value. Detects whether the value is numeric,
-     * a formula, or a string and creates the corresponding cell type.
-     *
-     * @param value The value to create a cell for.
-     * @return The created cell.
-     */
-    private static Cell createCell(String value) {
-        if (isNumeric(value)) {
-            return new NumberCell(Double.parseDouble(value));
-        } else if (isFormula(value)) {
-            return new FormulaCell(value);
-        } else {
-            return new StringCell(value);
-        }
-    }
-
     /**
      * Checks if the given value is numeric.
      *
@@ -346,68 +420,575 @@ public class SpreadSheet {
     }
 
     /**
-     * Sets the data of the spreadsheet using the provided CSV data.
+     * Sets the data of the spreadsheet using the provided CSV data. Every non-empty field becomes a
+     * number, formula or text cell, and formulas are registered for the next recalculation.
      *
      * @param csvData The CSV data to set.
      */
     public void setData(String[][] csvData) {
-        data = csvData;
+        for (int row = 0; row < csvData.length && row < rows; row++) {
+            setRow(row, csvData[row]);
+        }
     }
 
     /**
-     * Computes the values of all cells in the spreadsheet.
+     * Sets the contents of one row. Every non-empty field becomes a number, formula or text cell, and
+     * fields past the last column are ignored.
+     *
+     * @param row    The row index.
+     * @param fields The contents of the cells of the row, from the first column.
      */
-    public void computeValues() {
-        for (int row = 0; row < rows; row++) {
-            for (int col = 0; col < columns; col++) {
-                computeCellValue(row, col);
+    public void setRow(int row, String[] fields) {
+        for (int col = 0; col < fields.length && col < columns; col++) {
+            String content = fields[col];
+            if (content == null || content.isEmpty()) {
+                continue;
             }
+            setContent(row, col, content);
         }
     }
 
     /**
-     * Computes the value of a specific cell in the spreadsheet.
+     * Stores the content of a cell given as text: a formula if it starts with "=", a number if it is
+     * numeric, and text otherwise.
      *
-     * @param row The row index of the cell.
-     * @param col The column index of the cell.
+     * @param row     The row index.
+     * @param column  The column index.
+     * @param content The content of the cell.
      */
-    private void computeCellValue(int row, int col) {
-        Cell cell = cellMatrix[row][col];
-        if (cell instanceof FormulaCell formulaCell) {
-            try {
-                String formulita = formulaCell.getFormulaString();
-                double result = someMethod(this, cell, formulita);
-                cell.setNumericValue(result);
-                cell.setValue(Double.toString(result));
-            } catch (Exception e) {
-                // Handle evaluation error
-                System.out.println("Error evaluating formula in cell " + convertToCellReference(row, col) + ": " + e.getMessage());
+    public void setContent(int row, int column, String content) {
+        if (isFormula(content)) {
+            setFormula(row, column, content);
+        } else if (isNumeric(content)) {
+            setNumber(row, column, Double.parseDouble(content));
+        } else {
+            setText(row, column, content);
+        }
+    }
+
+    /**
+     * Stores a number in the cell at the specified position.
+     *
+     * @param row    The row index.
+     * @param column The column index.
+     * @param value  The number to store.
+     */
+    public void setNumber(int row, int column, double value) {
+        rememberOriginal(row, column);
+        store.setNumber(row, column, value);
+        updateDependencies(row, column);
+    }
+
+    /**
+     * Stores text in the cell at the specified position.
+     *
+     * @param row    The row index.
+     * @param column The column index.
+     * @param text   The text to store.
+     */
+    public void setText(int row, int column, String text) {
+        rememberOriginal(row, column);
+        store.setText(row, column, text);
+        updateDependencies(row, column);
+    }
+
+    /**
+     * Stores a formula in the cell at the specified position. The formula is evaluated by the next recalculation.
+     *
+     * @param row     The row index.
+     * @param column  The column index.
+     * @param formula The formula, including the leading "=".
+     */
+    public void setFormula(int row, int column, String formula) {
+        putFormula(row, column, formula, 0);
+        updateDependencies(row, column);
+    }
+
+    /**
+     * Stores a formula together with its last computed value, for example when reading a saved workbook.
+     * The formula is registered in the dependency graph like any other edit.
+     *
+     * @param row     The row index.
+     * @param column  The column index.
+     * @param formula The formula, including the leading "=".
+     * @param value   The computed value of the formula.
+     */
+    void restoreFormula(int row, int column, String formula, double value) {
+        putFormula(row, column, formula, value);
+        updateDependencies(row, column);
+    }
+
+    /**
+     * Starts a batch of edits. Until the batch is committed, the cells written are not registered in the
+     * dependency graph, not journaled and not recalculated; the values of the formula cells depending on them
+     * are out of date. Committing registers every cell once, with its last contents, and recalculates once.
+     *
+     * @throws IllegalStateException If a batch is already open.
+     */
+    public void beginBatch() {
+        if (batchOriginals != null) {
+            throw new IllegalStateException("A batch of edits is already open");
+        }
+        batchOriginals = new LinkedHashMap<>();
+    }
+
+    /**
+     * Checks if a batch of edits is open.
+     *
+     * @return True between {@link #beginBatch()} and the matching commit or rollback, false otherwise.
+     */
+    public boolean isInBatch() {
+        return batchOriginals != null;
+    }
+
+    /**
+     * Commits the open batch: updates the dependencies of every cell written by the batch, skipping cells whose
+     * contents ended up unchanged, journals them, and recalculates the affected formula cells once.
+     *
+     * @throws IllegalStateException If no batch is open.
+     */
+    public void commitBatch() {
+        Map<Long, CellSnapshot> originals = takeBatch();
+        for (Map.Entry<Long, CellSnapshot> entry : originals.entrySet()) {
+            int row = DependencyManager.row(entry.getKey());
+            int column = DependencyManager.column(entry.getKey());
+            if (!entry.getValue().matches(store, row, column)) {
+                updateDependencies(row, column);
             }
-        } else if (cell instanceof StringCell) {
-            // String cells don't need computation
-            cell.setNumericValue(cell.getNumericValue());
-        } else if (cell instanceof NumberCell) {
-            // Numeric cells don't need computation
-            cell.setNumericValue(cell.getNumericValue());
         }
+        computeValues();
     }
 
     /**
-     * Sets the data of the spreadsheet based on the current cell values.
+     * Rolls back the open batch, restoring every cell written by the batch to its contents before the batch.
+     *
+     * @throws IllegalStateException If no batch is open.
      */
-    public void setDataFromCell() {
-        for (int row = 0; row < rows; row++) {
-            for (int col = 0; col < columns; col++) {
-                if (Objects.equals(cellMatrix[row][col], null)) {
-                    data[row][col] = "null";
-                } else {
-                    if (cellMatrix[row][col] instanceof StringCell) {
-                        data[row][col] = cellMatrix[row][col].getStringValue();
-                    } else {
-                        data[row][col] = cellMatrix[row][col].getNumericValue() + "\t";
+    public void rollbackBatch() {
+        Map<Long, CellSnapshot> originals = takeBatch();
+        for (Map.Entry<Long, CellSnapshot> entry : originals.entrySet()) {
+            entry.getValue().restore(this, DependencyManager.row(entry.getKey()), DependencyManager.column(entry.getKey()));
+        }
+        // The dependency graph was never updated, so it already matches the restored contents
+        evaluationPass++;
+    }
+
+    /**
+     * Applies a group of edits as one batch: commits them if they complete, or rolls them back and rethrows
+     * the exception if they fail.
+     *
+     * @param edits The edits, applied to this spreadsheet.
+     */
+    public void applyBatch(Consumer<SpreadSheet> edits) {
+        beginBatch();
+        try {
+            edits.accept(this);
+        } catch (RuntimeException | Error e) {
+            rollbackBatch();
+            throw e;
+        }
+        commitBatch();
+    }
+
+    /**
+     * Closes the open batch.
+     *
+     * @return The original contents of the cells written by the batch.
+     * @throws IllegalStateException If no batch is open.
+     */
+    private Map<Long, CellSnapshot> takeBatch() {
+        Map<Long, CellSnapshot> originals = batchOriginals;
+        if (originals == null) {
+            throw new IllegalStateException("No batch of edits is open");
+        }
+        batchOriginals = null;
+        return originals;
+    }
+
+    /**
+     * Records the contents of a cell about to be written, if a batch is open and the cell was not written
+     * by the batch yet.
+     *
+     * @param row    The row index.
+     * @param column The column index.
+     */
+    private void rememberOriginal(int row, int column) {
+        if (batchOriginals != null) {
+            batchOriginals.computeIfAbsent(DependencyManager.key(row, column), k -> CellSnapshot.of(store, row, column));
+        }
+    }
+
+    /**
+     * The contents of a cell at the start of a batch.
+     *
+     * @param type    The type of the cell, one of the {@link CellStore} constants.
+     * @param value   The number, or the value of the formula.
+     * @param content The text, or the formula; null for numbers and empty cells.
+     */
+    private record CellSnapshot(byte type, double value, String content) {
+        /**
+         * Takes the snapshot of a cell.
+         *
+         * @param store  The store holding the cell.
+         * @param row    The row index.
+         * @param column The column index.
+         * @return The snapshot.
+         */
+        static CellSnapshot of(CellStore store, int row, int column) {
+            byte type = store.getType(row, column);
+            String content = type == CellStore.TEXT ? store.getText(row, column)
+                    : type == CellStore.FORMULA ? store.getFormula(row, column).getFormulaString() : null;
+            return new CellSnapshot(type, store.getValue(row, column), content);
+        }
+
+        /**
+         * Checks if a cell still holds the contents of this snapshot.
+         *
+         * @param store  The store holding the cell.
+         * @param row    The row index.
+         * @param column The column index.
+         * @return True if the cell has the same type and number, text or formula, false otherwise.
+         */
+        boolean matches(CellStore store, int row, int column) {
+            CellSnapshot current = of(store, row, column);
+            return current.type == type && (type == CellStore.NUMBER
+                    ? Double.compare(current.value, value) == 0 : Objects.equals(current.content, content));
+        }
+
+        /**
+         * Writes the contents of this snapshot back into a cell, without updating dependencies.
+         *
+         * @param sheet  The spreadsheet holding the cell.
+         * @param row    The row index.
+         * @param column The column index.
+         */
+        void restore(SpreadSheet sheet, int row, int column) {
+            switch (type) {
+                case CellStore.NUMBER:
+                    sheet.store.setNumber(row, column, value);
+                    break;
+                case CellStore.TEXT:
+                    sheet.store.setText(row, column, content);
+                    break;
+                case CellStore.FORMULA:
+                    sheet.putFormula(row, column, content, value);
+                    break;
+                default:
+                    sheet.store.clear(row, column);
+            }
+        }
+    }
+
+    /**
+     * Sets the journal that records every edit made to this spreadsheet, so that edits made after the
+     * spreadsheet was saved as a workbook survive a crash.
+     *
+     * @param journal The journal to write to, or null to stop journaling.
+     */
+    public void setEditJournal(EditJournal journal) {
+        this.editJournal = journal;
+    }
+
+    /**
+     * Gets the journal recording the edits made to this spreadsheet.
+     *
+     * @return The edit journal, or null if edits are not journaled.
+     */
+    public EditJournal getEditJournal() {
+        return editJournal;
+    }
+
+    /**
+     * Checks if cells were edited since the last recalculation, so that the values of some formula cells
+     * may be out of date.
+     *
+     * @return True if {@link #computeValues()} has work to do, false otherwise.
+     */
+    public boolean needsRecalculation() {
+        return dependencyManager.hasDirtyCells();
+    }
+
+    /**
+     * Marks the values of every formula cell as up to date, for example after restoring a workbook that
+     * was saved right after a recalculation.
+     */
+    void markClean() {
+        dependencyManager.clearDirty();
+    }
+
+    /**
+     * Grows the spreadsheet so that it has at least the given number of rows and columns. Existing
+     * cells are kept and the new cells are empty.
+     *
+     * @param rows    The minimum number of rows.
+     * @param columns The minimum number of columns.
+     */
+    public void ensureSize(int rows, int columns) {
+        store.ensureSize(rows, columns);
+        this.rows = Math.max(this.rows, rows);
+        this.columns = Math.max(this.columns, columns);
+    }
+
+    /**
+     * Enables or disables the aggregate index of a column. While enabled, SUMA, MIN, MAX and PROMEDIO over
+     * a range of the column add up its numbers in logarithmic time instead of visiting every row, and every
+     * write to the column also updates the index. It pays off for columns aggregated by many overlapping ranges.
+     *
+     * @param column  The column index.
+     * @param enabled Whether the column is indexed.
+     * @throws IllegalArgumentException If the column is outside the spreadsheet.
+     */
+    public void setAggregateIndexEnabled(int column, boolean enabled) {
+        if (column < 0 || column >= columns) {
+            throw new IllegalArgumentException("Column out of bounds: " + column);
+        }
+        store.setAggregateIndexEnabled(column, enabled);
+    }
+
+    /**
+     * Checks if a column has an aggregate index.
+     *
+     * @param column The column index.
+     * @return True if the column is indexed, false otherwise.
+     */
+    public boolean isAggregateIndexEnabled(int column) {
+        return column >= 0 && store.getAggregateIndex(column) != null;
+    }
+
+    /**
+     * Recalculates the cells edited since the last recalculation and their transitive dependents,
+     * in topological order. Formula cells that are part of a circular dependency are set to NaN.
+     * <p>
+     * When a recalculation pool is set, formula cells are grouped by dependency level and the cells of
+     * each level, which do not depend on each other, are evaluated in parallel. Every cell is evaluated
+     * by the same code from the same inputs, so the results are identical to a sequential recalculation.
+     */
+    public void computeValues() {
+        RecalculationListener listener = recalculationListener;
+        RecalculationStats stats = listener == null ? null : new RecalculationStats();
+        long started = stats == null ? 0 : System.nanoTime();
+        evaluationPass++;
+        Set<Long> cyclic = new HashSet<>();
+        long[] order = dependencyManager.takeRecalculationOrder(cyclic);
+        if (stats != null) {
+            stats.orderComputed(System.nanoTime() - started);
+        }
+        recalculationStats = stats;
+        recalculating = true;
+        try {
+            if (!cyclic.isEmpty()) {
+                for (long[] cycle : dependencyManager.getCycles()) {
+                    if (cyclic.contains(cycle[0])) {
+                        System.out.println("Circular dependency detected involving cells: "
+                                + String.join(", ", toReferences(cycle)));
+                    }
+                }
+            }
+            for (long key : cyclic) {
+                int row = DependencyManager.row(key);
+                int col = DependencyManager.column(key);
+                if (store.getFormula(row, col) != null) {
+                    store.setValue(row, col, Double.NaN);
+                    if (stats != null) {
+                        stats.cycleDetected(row, col);
+                    }
+                }
+            }
+            if (recalculationPool == null || order.length < PARALLEL_THRESHOLD) {
+                for (long key : order) {
+                    if (!cyclic.contains(key)) {
+                        computeCellValue(DependencyManager.row(key), DependencyManager.column(key));
+                    }
+                }
+            } else {
+                // Chunks read lazily from a workbook must be in memory before several threads read them
+                store.loadAllChunks();
+                long grouping = stats == null ? 0 : System.nanoTime();
+                long[][] levels = dependencyManager.groupByLevel(order, cyclic);
+                if (stats != null) {
+                    stats.levelsGrouped(System.nanoTime() - grouping);
+                }
+                // Aggregate indexes are refreshed between levels rather than by the threads computing a level
+                store.setAggregateUpdatesDeferred(true);
+                try {
+                    for (long[] level : levels) {
+                        if (level.length < PARALLEL_THRESHOLD) {
+                            new LevelTask(level, 0, level.length).compute();
+                        } else {
+                            recalculationPool.invoke(new LevelTask(level, 0, level.length));
+                        }
+                        store.flushAggregateIndexes();
                     }
+                } finally {
+                    store.setAggregateUpdatesDeferred(false);
                 }
             }
+        } finally {
+            recalculating = false;
+            recalculationStats = null;
+        }
+        if (stats != null) {
+            stats.finished(System.nanoTime() - started);
+            listener.recalculationFinished(this, stats);
+        }
+    }
+
+    /**
+     * Gets the circular dependencies of the spreadsheet. Every cycle is reported as the cells of its strongly
+     * connected component: each of them depends, directly or through other cells of the list, on all the others.
+     *
+     * @return The references of the cells of every cycle (e.g., ["A1", "B1"]), each sorted by row and column.
+     */
+    public List<List<String>> getCircularDependencies() {
+        List<List<String>> cycles = new ArrayList<>();
+        for (long[] cells : dependencyManager.getCycles()) {
+            cycles.add(toReferences(cells));
+        }
+        return cycles;
+    }
+
+    /**
+     * Converts cell keys to cell references.
+     *
+     * @param cells The keys of the cells.
+     * @return The references of the cells, in the same order.
+     */
+    private static List<String> toReferences(long[] cells) {
+        List<String> references = new ArrayList<>(cells.length);
+        for (long key : cells) {
+            references.add(CellReference.toString(DependencyManager.row(key), DependencyManager.column(key)));
+        }
+        return references;
+    }
+
+    /**
+     * Sets the listener receiving the statistics of every recalculation. Statistics are only measured
+     * while a listener is set.
+     *
+     * @param listener The listener, or null to stop measuring recalculations.
+     */
+    public void setRecalculationListener(RecalculationListener listener) {
+        this.recalculationListener = listener;
+    }
+
+    /**
+     * Gets the listener receiving the statistics of every recalculation.
+     *
+     * @return The listener, or null if recalculations are not measured.
+     */
+    public RecalculationListener getRecalculationListener() {
+        return recalculationListener;
+    }
+
+    /**
+     * Records a failed formula evaluation during a measured recalculation.
+     */
+    void recordEvaluationError() {
+        RecalculationStats stats = recalculationStats;
+        if (stats != null) {
+            stats.evaluationFailed();
+        }
+    }
+
+    /**
+     * Sets the pool used to evaluate independent formula cells in parallel during {@link #computeValues()}.
+     *
+     * @param pool The pool to use, or null to recalculate sequentially.
+     */
+    public void setRecalculationPool(ForkJoinPool pool) {
+        this.recalculationPool = pool;
+    }
+
+    /**
+     * Gets the pool used to evaluate independent formula cells in parallel.
+     *
+     * @return The recalculation pool, or null if recalculation is sequential.
+     */
+    public ForkJoinPool getRecalculationPool() {
+        return recalculationPool;
+    }
+
+    /**
+     * Checks if a recalculation is in progress. During a recalculation every formula cell is evaluated
+     * after its precedents, so the stored values of formula cells are up to date and can be read directly.
+     *
+     * @return True while {@link #computeValues()} is running, false otherwise.
+     */
+    public boolean isRecalculating() {
+        return recalculating;
+    }
+
+    /**
+     * Gets the current evaluation pass. The pass changes on every edit and at the start of every
+     * recalculation; formula results computed within the same pass are still valid and are reused.
+     *
+     * @return The current evaluation pass.
+     */
+    public int getEvaluationPass() {
+        return evaluationPass;
+    }
+
+    /**
+     * Evaluates a slice of the formula cells of one dependency level, splitting it between
+     * the workers of the recalculation pool.
+     */
+    private class LevelTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private final long[] cells;
+        private final int start;
+        private final int end;
+
+        /**
+         * Constructs a task evaluating {@code cells[start..end)}.
+         *
+         * @param cells The keys of the cells of the level.
+         * @param start The index of the first cell to evaluate.
+         * @param end   The index after the last cell to evaluate.
+         */
+        LevelTask(long[] cells, int start, int end) {
+            this.cells = cells;
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        protected void compute() {
+            if (end - start <= PARALLEL_THRESHOLD) {
+                for (int i = start; i < end; i++) {
+                    computeCellValue(DependencyManager.row(cells[i]), DependencyManager.column(cells[i]));
+                }
+            } else {
+                int middle = (start + end) >>> 1;
+                invokeAll(new LevelTask(cells, start, middle), new LevelTask(cells, middle, end));
+            }
+        }
+    }
+
+    /**
+     * Recalculates every formula cell of the spreadsheet.
+     */
+    public void computeAllValues() {
+        dependencyManager.markAllDirty();
+        computeValues();
+    }
+
+    /**
+     * Computes the value of a specific cell in the spreadsheet.
+     *
+     * @param row The row index of the cell.
+     * @param col The column index of the cell.
+     */
+    private void computeCellValue(int row, int col) {
+        // Number and text cells don't need computation
+        FormulaCell formulaCell = store.getFormula(row, col);
+        if (formulaCell != null) {
+            RecalculationStats stats = recalculationStats;
+            long started = stats == null ? 0 : System.nanoTime();
+            // The cell evaluates its own formula, so its compiled form is used directly
+            store.setValue(row, col, ExpressionParser.evaluateCell(this, formulaCell));
+            if (stats != null) {
+                stats.cellEvaluated(row, col, formulaCell, System.nanoTime() - started);
+            }
         }
     }
 
@@ -422,7 +1003,6 @@ public class SpreadSheet {
      */
     public double someMethod(SpreadSheet currentSpreadSheet, Cell cell, String formula) throws Exception {
         ExpressionParser parser = new ExpressionParser(currentSpreadSheet, cell);
-        cell.setFormulaString(formula);
         String formulaWithoutEquals = formula.substring(1);
         parser.setCurrentCell(cell);
         return parser.evaluate(currentSpreadSheet, formulaWithoutEquals, cell);
@@ -0,0 +1,396 @@
+package org.example;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * The SpreadSheetServer class serves the spreadsheets of a {@link SpreadSheet_Manager} to local clients over
+ * a simple line protocol, so that short jobs do not pay for starting a JVM and reloading their files.
+ * <p>
+ * Every connection is handled by its own virtual thread, so thousands of idle or slow clients cost little.
+ * A client sends one request per line and receives one line per request, starting with "OK" and the result,
+ * or with "ERR" and the error message. Spreadsheets are identified by their index in the manager:
+ * <ul>
+ *     <li>{@code NEW rows columns}: creates an empty spreadsheet; answers its index.</li>
+ *     <li>{@code LOAD path}: opens a workbook file (".wbk") or loads a CSV file; answers its index.</li>
+ *     <li>{@code GET sheet cell}: answers the value of a cell: the number or the value of the formula, the
+ *     text, or nothing if the cell is empty.</li>
+ *     <li>{@code SET sheet cell content}: writes a number, text or formula into a cell and recalculates.</li>
+ *     <li>{@code SETRANGE sheet cell rows}: reads the given number of following lines, each with the
+ *     tab-separated contents of one row starting at the cell, and applies them as one batch with a single
+ *     recalculation; empty fields are left unchanged. At most {@link #MAX_RANGE_ROWS} rows are accepted.</li>
+ *     <li>{@code RECALC sheet}: recalculates the spreadsheet.</li>
+ *     <li>{@code EXPORT sheet path}: exports the values of the spreadsheet to a CSV file; answers "ERR" with
+ *     the reason if the file cannot be written.</li>
+ *     <li>{@code QUIT}: closes the connection.</li>
+ * </ul>
+ * Edits to a spreadsheet opened from a workbook file are synced to its {@link EditJournal} before SET and
+ * SETRANGE are answered, so an edit confirmed to a client survives a crash.
+ * <p>
+ * A spreadsheet is not thread-safe, so requests on the same spreadsheet are serialized by a lock of the
+ * spreadsheet, while requests on different spreadsheets run at the same time. The locks are
+ * {@link ReentrantLock}s rather than monitors, which would pin a virtual thread to its carrier thread for
+ * the whole recalculation.
+ */
+public class SpreadSheetServer implements AutoCloseable {
+    /**
+     * Maximum number of rows of a SETRANGE request, which are held in memory until they are applied.
+     */
+    static final int MAX_RANGE_ROWS = 100_000;
+
+    private final SpreadSheet_Manager manager;
+    private final ExecutorService connections = Executors.newVirtualThreadPerTaskExecutor();
+    private final Map<SpreadSheet, ReentrantLock> locks = new ConcurrentHashMap<>();
+    private final ReentrantLock managerLock = new ReentrantLock();
+    private ServerSocket serverSocket;
+
+    /**
+     * Constructs a server for the spreadsheets of a manager.
+     *
+     * @param manager The manager holding the spreadsheets.
+     */
+    public SpreadSheetServer(SpreadSheet_Manager manager) {
+        this.manager = manager;
+    }
+
+    /**
+     * Starts listening on a port of the loopback interface.
+     *
+     * @param port The port, or 0 to use any free port.
+     * @throws IOException If the port cannot be bound.
+     */
+    public void bind(int port) throws IOException {
+        serverSocket = new ServerSocket(port, 512, InetAddress.getLoopbackAddress());
+    }
+
+    /**
+     * Gets the port the server listens on.
+     *
+     * @return The local port.
+     */
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    /**
+     * Accepts connections until the server is closed, handing every connection to a new virtual thread.
+     *
+     * @throws IOException If accepting a connection fails for a reason other than the server being closed.
+     */
+    public void serve() throws IOException {
+        while (!serverSocket.isClosed()) {
+            Socket socket;
+            try {
+                socket = serverSocket.accept();
+            } catch (SocketException e) {
+                if (serverSocket.isClosed()) {
+                    return;
+                }
+                throw e;
+            }
+            // Responses are short and sent one by one, so they must not wait for the acknowledgement of the last one
+            socket.setTcpNoDelay(true);
+            connections.execute(() -> handle(socket));
+        }
+    }
+
+    /**
+     * Stops accepting connections and waits for the open connections to finish.
+     *
+     * @throws IOException If the server socket cannot be closed.
+     */
+    @Override
+    public void close() throws IOException {
+        serverSocket.close();
+        connections.close();
+    }
+
+    /**
+     * Answers the requests of one connection until the client disconnects or sends QUIT.
+     *
+     * @param socket The socket of the connection.
+     */
+    private void handle(Socket socket) {
+        try (socket;
+             BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+             Writer out = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = in.readLine()) != null) {
+                String request = line.strip();
+                if (request.equalsIgnoreCase("QUIT")) {
+                    break;
+                }
+                String response;
+                try {
+                    response = "OK " + execute(request, in);
+                } catch (Exception e) {
+                    response = "ERR " + e.getMessage();
+                }
+                out.write(response.replace('\n', ' '));
+                out.write('\n');
+                if (!in.ready()) {
+                    // Answers to pipelined requests are written together
+                    out.flush();
+                }
+            }
+            out.flush();
+        } catch (IOException e) {
+            System.out.println("Error serving client: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Executes one request.
+     *
+     * @param request The request line.
+     * @param in      The reader of the connection, for requests followed by data lines.
+     * @return The result of the request.
+     * @throws Exception If the request is unknown, malformed or fails.
+     */
+    private String execute(String request, BufferedReader in) throws Exception {
+        String[] words = request.split("\\s+", 4);
+        String command = words[0].toUpperCase(Locale.ROOT);
+        switch (command) {
+            case "NEW":
+                requireWords(words, 3, "NEW rows columns");
+                return String.valueOf(add(new SpreadSheet(Integer.parseInt(words[1]), Integer.parseInt(words[2]))));
+            case "LOAD": {
+                requireWords(words, 2, "LOAD path");
+                String path = request.substring(words[0].length()).strip();
+                if (path.endsWith(".wbk")) {
+                    managerLock.lock();
+                    try {
+                        manager.openWorkbook(path);
+                        return String.valueOf(manager.getSpreadSheetCount() - 1);
+                    } finally {
+                        managerLock.unlock();
+                    }
+                }
+                return String.valueOf(add(FileManager.createSpreadsheet(path)));
+            }
+            case "GET": {
+                requireWords(words, 3, "GET sheet cell");
+                SpreadSheet sheet = sheet(words[1]);
+                long key = cell(words[2]);
+                return locked(sheet, () -> valueOf(sheet, DependencyManager.row(key), DependencyManager.column(key)));
+            }
+            case "SET": {
+                requireWords(words, 4, "SET sheet cell content");
+                SpreadSheet sheet = sheet(words[1]);
+                long key = cell(words[2]);
+                return locked(sheet, () -> {
+                    sheet.applyBatch(s -> write(s, DependencyManager.row(key), DependencyManager.column(key), words[3]));
+                    syncJournal(sheet);
+                    return valueOf(sheet, DependencyManager.row(key), DependencyManager.column(key));
+                });
+            }
+            case "SETRANGE": {
+                requireWords(words, 4, "SETRANGE sheet cell rows");
+                int count = Integer.parseInt(words[3]);
+                if (count < 0) {
+                    throw new IllegalArgumentException("Invalid number of rows: " + count);
+                }
+                // The data lines are read before anything else is checked, so they are never taken for requests;
+                // the lines of a range that is too large are read and dropped without being kept
+                String[][] rows = count <= MAX_RANGE_ROWS ? new String[count][] : null;
+                for (int i = 0; i < count; i++) {
+                    String row = in.readLine();
+                    if (row == null) {
+                        throw new IOException("Connection closed in the middle of SETRANGE");
+                    }
+                    if (rows != null) {
+                        rows[i] = row.split("\t", -1);
+                    }
+                }
+                if (rows == null) {
+                    throw new IllegalArgumentException("SETRANGE accepts at most " + MAX_RANGE_ROWS + " rows");
+                }
+                SpreadSheet sheet = sheet(words[1]);
+                long key = cell(words[2]);
+                int[] cells = new int[1];
+                locked(sheet, () -> {
+                    sheet.applyBatch(s -> {
+                        for (int i = 0; i < rows.length; i++) {
+                            for (int j = 0; j < rows[i].length; j++) {
+                                if (!rows[i][j].isEmpty()) {
+                                    write(s, DependencyManager.row(key) + i, DependencyManager.column(key) + j, rows[i][j]);
+                                    cells[0]++;
+                                }
+                            }
+                        }
+                    });
+                    syncJournal(sheet);
+                    return null;
+                });
+                return String.valueOf(cells[0]);
+            }
+            case "RECALC": {
+                requireWords(words, 2, "RECALC sheet");
+                SpreadSheet sheet = sheet(words[1]);
+                long started = System.nanoTime();
+                locked(sheet, () -> {
+                    sheet.computeValues();
+                    return null;
+                });
+                return String.format(Locale.ROOT, "%.3f ms", (System.nanoTime() - started) / 1e6);
+            }
+            case "EXPORT": {
+                requireWords(words, 3, "EXPORT sheet path");
+                SpreadSheet sheet = sheet(words[1]);
+                String path = request.split("\\s+", 3)[2];
+                locked(sheet, () -> {
+                    new FileManager().exportToCSV(sheet, path);
+                    return null;
+                });
+                return "";
+            }
+            default:
+                throw new IllegalArgumentException("Unknown command: " + words[0]);
+        }
+    }
+
+    /**
+     * Writes the content of a cell given as text, growing the spreadsheet if needed.
+     *
+     * @param sheet   The spreadsheet.
+     * @param row     The row index.
+     * @param column  The column index.
+     * @param content The number, text or formula (starting with "=").
+     */
+    private static void write(SpreadSheet sheet, int row, int column, String content) {
+        sheet.ensureSize(row + 1, column + 1);
+        sheet.setContent(row, column, content);
+    }
+
+    /**
+     * Forces the edits of a spreadsheet to its journal on disk, if it journals its edits.
+     *
+     * @param sheet The spreadsheet.
+     * @throws IOException If the journal cannot be written.
+     */
+    private static void syncJournal(SpreadSheet sheet) throws IOException {
+        EditJournal journal = sheet.getEditJournal();
+        if (journal != null) {
+            journal.sync();
+        }
+    }
+
+    /**
+     * Formats the value of a cell for a response.
+     *
+     * @param sheet  The spreadsheet.
+     * @param row    The row index.
+     * @param column The column index.
+     * @return The number or formula value, the text, or an empty string for an empty cell or outside the sheet.
+     */
+    private static String valueOf(SpreadSheet sheet, int row, int column) {
+        CellStore store = sheet.getCellStore();
+        if (row >= sheet.getRows() || column >= sheet.getColumns()) {
+            return "";
+        }
+        switch (store.getType(row, column)) {
+            case CellStore.NUMBER:
+            case CellStore.FORMULA:
+                return String.valueOf(store.getValue(row, column));
+            case CellStore.TEXT:
+                return store.getText(row, column);
+            default:
+                return "";
+        }
+    }
+
+    /**
+     * Adds a spreadsheet to the manager.
+     *
+     * @param sheet The spreadsheet.
+     * @return The index of the spreadsheet.
+     */
+    private int add(SpreadSheet sheet) {
+        managerLock.lock();
+        try {
+            manager.addSpreadSheet(sheet);
+            return manager.getSpreadSheetCount() - 1;
+        } finally {
+            managerLock.unlock();
+        }
+    }
+
+    /**
+     * Runs an action while holding the lock of a spreadsheet.
+     *
+     * @param sheet  The spreadsheet.
+     * @param action The action.
+     * @param <T>    The type of the result of the action.
+     * @return The result of the action.
+     * @throws Exception If the action fails.
+     */
+    private <T> T locked(SpreadSheet sheet, Callable<T> action) throws Exception {
+        ReentrantLock lock = locks.computeIfAbsent(sheet, k -> new ReentrantLock());
+        lock.lock();
+        try {
+            return action.call();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Gets a spreadsheet of the manager from its index.
+     *
+     * @param index The index, as text.
+     * @return The spreadsheet.
+     * @throws IllegalArgumentException If there is no spreadsheet at the index.
+     */
+    private SpreadSheet sheet(String index) {
+        SpreadSheet sheet = manager.getSpreadSheet(Integer.parseInt(index));
+        if (sheet == null) {
+            throw new IllegalArgumentException("No spreadsheet at index " + index);
+        }
+        return sheet;
+    }
+
+    /**
+     * Parses a cell reference.
+     *
+     * @param reference The cell reference (e.g., "A1").
+     * @return The cell key.
+     * @throws IllegalArgumentException If the reference is invalid.
+     */
+    private static long cell(String reference) {
+        long key = CellReference.parse(reference);
+        if (key == CellReference.INVALID) {
+            throw new IllegalArgumentException("Invalid cell reference: " + reference);
+        }
+        return key;
+    }
+
+    /**
+     * Checks that a request has enough words.
+     *
+     * @param words The words of the request.
+     * @param count The number of words expected.
+     * @param usage The syntax of the request, for the error message.
+     * @throws IllegalArgumentException If the request has fewer words.
+     */
+    private static void requireWords(String[] words, int count, String usage) {
+        if (words.length < count) {
+            throw new IllegalArgumentException("Usage: " + usage);
+        }
+    }
+}
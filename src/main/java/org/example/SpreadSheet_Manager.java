@@ -1,19 +1,28 @@
 package org.example;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * The SpreadSheet_Manager class manages a collection of spreadsheets.
+ * Spreadsheets can be added from several threads, and independent spreadsheets can be
+ * recalculated in parallel.
  */
 public class SpreadSheet_Manager {
     private List<SpreadSheet> spreadsheets;
+    private volatile RecalculationListener recalculationListener;
 
     /**
      * Constructs a SpreadSheet_Manager with an empty list of spreadsheets.
      */
     public SpreadSheet_Manager() {
-        spreadsheets = new ArrayList<>();
+        spreadsheets = new CopyOnWriteArrayList<>();
     }
 
     /**
@@ -22,9 +31,25 @@ public class SpreadSheet_Manager {
      * @param spreadsheet The spreadsheet to be added.
      */
     public void addSpreadSheet(SpreadSheet spreadsheet) {
+        if (recalculationListener != null) {
+            spreadsheet.setRecalculationListener(recalculationListener);
+        }
         spreadsheets.add(spreadsheet);
     }
 
+    /**
+     * Sets the listener receiving the recalculation statistics of every spreadsheet of the manager,
+     * including the spreadsheets added later.
+     *
+     * @param listener The listener, or null to stop measuring recalculations.
+     */
+    public void setRecalculationListener(RecalculationListener listener) {
+        this.recalculationListener = listener;
+        for (SpreadSheet spreadsheet : spreadsheets) {
+            spreadsheet.setRecalculationListener(listener);
+        }
+    }
+
     /**
      * Gets a specific spreadsheet by index.
      *
@@ -38,4 +63,114 @@ public class SpreadSheet_Manager {
             return null;
         }
     }
+
+    /**
+     * Gets the number of spreadsheets held by the manager.
+     *
+     * @return The number of spreadsheets.
+     */
+    public int getSpreadSheetCount() {
+        return spreadsheets.size();
+    }
+
+    /**
+     * Opens a workbook file and adds its spreadsheet to the manager. The file is memory-mapped and cells
+     * are read the first time they are accessed, so opening takes about the same time for any size.
+     * Edits recorded in the journal of the workbook since it was last saved are replayed, and later edits
+     * are recorded in the same journal.
+     *
+     * @param filePath The path of the workbook file.
+     * @return The opened spreadsheet.
+     * @throws IOException If the file cannot be read or is not a workbook file.
+     */
+    public SpreadSheet openWorkbook(String filePath) throws IOException {
+        SpreadSheet spreadsheet = WorkbookFile.open(filePath);
+        EditJournal journal = EditJournal.open(filePath);
+        int replayed = journal.replay(spreadsheet);
+        if (replayed > 0) {
+            System.out.println("Recovered " + replayed + " edits from " + journal.getJournalPath());
+        }
+        spreadsheet.setEditJournal(journal);
+        addSpreadSheet(spreadsheet);
+        return spreadsheet;
+    }
+
+    /**
+     * Saves a spreadsheet of the manager to a workbook file. If the spreadsheet journals its edits for the
+     * same file, the journal is compacted into it; otherwise a new journal is started for the file.
+     *
+     * @param index    The index of the spreadsheet to save.
+     * @param filePath The path of the workbook file.
+     * @throws IOException If the file cannot be written.
+     * @throws IllegalArgumentException If there is no spreadsheet at the index.
+     */
+    public void saveWorkbook(int index, String filePath) throws IOException {
+        SpreadSheet spreadsheet = getSpreadSheet(index);
+        if (spreadsheet == null) {
+            throw new IllegalArgumentException("No spreadsheet at index " + index);
+        }
+        EditJournal journal = spreadsheet.getEditJournal();
+        if (journal == null || !journal.getWorkbookPath().equals(filePath)) {
+            if (journal != null) {
+                journal.close();
+            }
+            journal = EditJournal.open(filePath);
+            spreadsheet.setEditJournal(journal);
+        }
+        journal.compact(spreadsheet);
+    }
+
+    /**
+     * Compacts the edit journal of a spreadsheet into its workbook file once the journal has grown past
+     * its size limit. Does nothing if the spreadsheet does not journal its edits.
+     *
+     * @param index The index of the spreadsheet.
+     * @throws IOException If the workbook or the journal cannot be written.
+     */
+    public void compactJournal(int index) throws IOException {
+        SpreadSheet spreadsheet = getSpreadSheet(index);
+        if (spreadsheet != null && spreadsheet.getEditJournal() != null
+                && spreadsheet.getEditJournal().needsCompaction()) {
+            spreadsheet.getEditJournal().compact(spreadsheet);
+        }
+    }
+
+    /**
+     * Forces the pending edits of every journaling spreadsheet to disk.
+     *
+     * @throws IOException If a journal cannot be written.
+     */
+    public void syncJournals() throws IOException {
+        for (SpreadSheet spreadsheet : spreadsheets) {
+            if (spreadsheet.getEditJournal() != null) {
+                spreadsheet.getEditJournal().sync();
+            }
+        }
+    }
+
+    /**
+     * Recalculates every spreadsheet, running independent spreadsheets at the same time.
+     * Each spreadsheet is recalculated by a single thread.
+     *
+     * @param threads The maximum number of spreadsheets recalculated at the same time.
+     * @throws Exception If the recalculation of a spreadsheet fails or the calling thread is interrupted.
+     */
+    public void computeValues(int threads) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(threads, spreadsheets.size())));
+        try {
+            List<Future<?>> results = new ArrayList<>();
+            for (SpreadSheet spreadsheet : spreadsheets) {
+                results.add(executor.submit(spreadsheet::computeValues));
+            }
+            for (Future<?> result : results) {
+                try {
+                    result.get();
+                } catch (ExecutionException e) {
+                    throw new Exception("Error recalculating spreadsheet: " + e.getCause().getMessage(), e.getCause());
+                }
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
 }
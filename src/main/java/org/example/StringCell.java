@@ -24,6 +24,16 @@ public class StringCell extends Cell {
         this.Textvalue = text;
     }
 
+    /**
+     * Gets the numeric value of the cell.
+     *
+     * @return Always null, since a StringCell does not hold a number.
+     */
+    @Override
+    public Double getNumericValue() {
+        return null;
+    }
+
     /**
      * Gets the string value stored in the cell.
      *
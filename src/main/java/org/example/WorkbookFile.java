@@ -0,0 +1,453 @@
+package org.example;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The WorkbookFile class saves spreadsheets in a binary workbook format and opens them again.
+ * <p>
+ * A workbook file holds, in this order:
+ * <ul>
+ *     <li>a header of {@link #HEADER_SIZE} bytes with the magic number, version, dimensions, flags, chunk size
+ *     and the offsets of the other sections;</li>
+ *     <li>one value block per populated chunk of the {@link CellStore}: the {@link CellStore#CHUNK_SIZE} cell
+ *     types, the cell values (the computed value for formula cells) and, for the text and formula cells in
+ *     row order, their index in the string or formula table;</li>
+ *     <li>the string table and the formula table, where every distinct text or formula is stored once;</li>
+ *     <li>the column directory, listing for every column the populated chunks, the offset of their block
+ *     and whether they contain formulas.</li>
+ * </ul>
+ * All numbers are big-endian. Opening a workbook memory-maps the file and only reads the header, the
+ * directory and the chunks that contain formulas, which are needed by the dependency graph. Every other
+ * chunk is read the first time it is accessed.
+ * <p>
+ * Formulas are saved together with their last computed value. If the spreadsheet had no pending
+ * recalculation when it was saved, the header is marked clean ({@link #FLAG_CLEAN}) and the opened
+ * spreadsheet uses the saved values without recalculating; otherwise every formula is recalculated by
+ * the next {@link SpreadSheet#computeValues()}.
+ */
+public class WorkbookFile implements CellStore.ChunkSource {
+    /**
+     * The magic number at the start of a workbook file ("SSWB").
+     */
+    static final int MAGIC = 0x53535742;
+    /**
+     * The version of the format written by this class.
+     */
+    static final int VERSION = 1;
+    /**
+     * The size in bytes of the header.
+     */
+    static final int HEADER_SIZE = 64;
+    /**
+     * Header flag set when the saved values of every formula cell were up to date.
+     */
+    static final int FLAG_CLEAN = 1;
+    /**
+     * The maximum number of bytes mapped by a single buffer. Consecutive segments overlap by
+     * {@link #SEGMENT_OVERLAP} bytes, so a value block always fits in the segment where it starts.
+     */
+    private static final long SEGMENT_SIZE = 1L << 30;
+    private static final long SEGMENT_OVERLAP = 1L << 20;
+    private static final int BLOCK_DATA_SIZE = CellStore.CHUNK_SIZE + CellStore.CHUNK_SIZE * Double.BYTES;
+
+    private final SpreadSheet spreadsheet;
+    private final MappedByteBuffer[] segments;
+    private final long[][] blockOffsets;
+    private final long[] stringOffsets;
+    private final String[] strings;
+
+    /**
+     * Constructs the reader of an opened workbook.
+     *
+     * @param spreadsheet   The spreadsheet receiving the cells.
+     * @param segments      The mapped segments of the file.
+     * @param blockOffsets  For every column, the offset of the block of each chunk, or 0 if the chunk is empty.
+     * @param stringOffsets The offsets of the entries of the string table.
+     */
+    private WorkbookFile(SpreadSheet spreadsheet, MappedByteBuffer[] segments, long[][] blockOffsets, long[] stringOffsets) {
+        this.spreadsheet = spreadsheet;
+        this.segments = segments;
+        this.blockOffsets = blockOffsets;
+        this.stringOffsets = stringOffsets;
+        this.strings = new String[stringOffsets.length];
+    }
+
+    /**
+     * Saves a spreadsheet to a workbook file.
+     *
+     * @param spreadsheet The spreadsheet to save.
+     * @param filePath    The path of the workbook file.
+     * @throws IOException If the file cannot be written.
+     */
+    public static void save(SpreadSheet spreadsheet, String filePath) throws IOException {
+        CellStore store = spreadsheet.getCellStore();
+        int columns = spreadsheet.getColumns();
+        Map<String, Integer> stringIndexes = new HashMap<>();
+        Map<String, Integer> formulaIndexes = new HashMap<>();
+        List<String> stringTable = new ArrayList<>();
+        List<String> formulaTable = new ArrayList<>();
+        long[][] offsets = new long[columns][];
+        boolean[][] hasFormulas = new boolean[columns][];
+        long position = HEADER_SIZE;
+
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(filePath), 1 << 20))) {
+            out.write(new byte[HEADER_SIZE]);
+            int[] references = new int[CellStore.CHUNK_SIZE];
+            for (int column = 0; column < columns; column++) {
+                offsets[column] = new long[store.getChunkCount()];
+                hasFormulas[column] = new boolean[store.getChunkCount()];
+                for (int chunkIndex = 0; chunkIndex < store.getChunkCount(); chunkIndex++) {
+                    byte[] types = store.typeChunk(column, chunkIndex);
+                    if (types == null) {
+                        continue;
+                    }
+                    double[] values = store.valueChunk(column, chunkIndex);
+                    int referenceCount = 0;
+                    int firstRow = chunkIndex << CellStore.CHUNK_BITS;
+                    for (int k = 0; k < CellStore.CHUNK_SIZE; k++) {
+                        if (types[k] == CellStore.TEXT) {
+                            references[referenceCount++] = intern(store.getText(firstRow + k, column), stringIndexes, stringTable);
+                        } else if (types[k] == CellStore.FORMULA) {
+                            references[referenceCount++] = intern(store.getFormula(firstRow + k, column).getFormulaString(),
+                                    formulaIndexes, formulaTable);
+                            hasFormulas[column][chunkIndex] = true;
+                        }
+                    }
+                    offsets[column][chunkIndex] = position;
+                    out.write(types);
+                    for (double value : values) {
+                        out.writeDouble(value);
+                    }
+                    out.writeInt(referenceCount);
+                    for (int i = 0; i < referenceCount; i++) {
+                        out.writeInt(references[i]);
+                    }
+                    position += BLOCK_DATA_SIZE + Integer.BYTES + (long) referenceCount * Integer.BYTES;
+                }
+            }
+
+            long stringTableOffset = position;
+            position += writeTable(out, stringTable, position);
+            long formulaTableOffset = position;
+            position += writeTable(out, formulaTable, position);
+
+            long directoryOffset = position;
+            for (int column = 0; column < columns; column++) {
+                int entries = 0;
+                for (long offset : offsets[column]) {
+                    entries += offset != 0 ? 1 : 0;
+                }
+                out.writeInt(entries);
+                for (int chunkIndex = 0; chunkIndex < offsets[column].length; chunkIndex++) {
+                    if (offsets[column][chunkIndex] != 0) {
+                        out.writeInt(chunkIndex);
+                        out.writeBoolean(hasFormulas[column][chunkIndex]);
+                        out.writeLong(offsets[column][chunkIndex]);
+                    }
+                }
+            }
+            out.flush();
+
+            try (RandomAccessFile file = new RandomAccessFile(filePath, "rw")) {
+                file.writeInt(MAGIC);
+                file.writeInt(VERSION);
+                file.writeInt(spreadsheet.getRows());
+                file.writeInt(columns);
+                file.writeInt(spreadsheet.needsRecalculation() ? 0 : FLAG_CLEAN);
+                file.writeInt(CellStore.CHUNK_SIZE);
+                file.writeLong(directoryOffset);
+                file.writeLong(stringTableOffset);
+                file.writeLong(formulaTableOffset);
+            }
+        }
+    }
+
+    /**
+     * Opens a workbook file as a new spreadsheet. The file is memory-mapped; chunks containing formulas are
+     * read right away and every other chunk is read the first time it is accessed. Formula cells get their
+     * saved values, and are only marked for recalculation if the workbook was not saved clean.
+     *
+     * @param filePath The path of the workbook file.
+     * @return The spreadsheet holding the contents of the workbook.
+     * @throws IOException If the file cannot be read or is not a workbook file.
+     */
+    public static SpreadSheet open(String filePath) throws IOException {
+        MappedByteBuffer[] segments;
+        long size;
+        try (FileChannel channel = FileChannel.open(Path.of(filePath), StandardOpenOption.READ)) {
+            size = channel.size();
+            if (size < HEADER_SIZE) {
+                throw new IOException("Not a workbook file: " + filePath);
+            }
+            segments = new MappedByteBuffer[(int) ((size + SEGMENT_SIZE - 1) / SEGMENT_SIZE)];
+            for (int i = 0; i < segments.length; i++) {
+                long start = i * SEGMENT_SIZE;
+                segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(SEGMENT_SIZE + SEGMENT_OVERLAP, size - start));
+            }
+        }
+        MappedByteBuffer header = segments[0];
+        if (header.getInt(0) != MAGIC || header.getInt(4) != VERSION || header.getInt(20) != CellStore.CHUNK_SIZE) {
+            throw new IOException("Unsupported workbook file: " + filePath);
+        }
+        int rows = header.getInt(8);
+        int columns = header.getInt(12);
+        boolean clean = (header.getInt(16) & FLAG_CLEAN) != 0;
+        long directoryOffset = header.getLong(24);
+        long stringTableOffset = header.getLong(32);
+        long formulaTableOffset = header.getLong(40);
+
+        SpreadSheet spreadsheet = new SpreadSheet(rows, columns);
+        int chunkCount = spreadsheet.getCellStore().getChunkCount();
+        long[][] blockOffsets = new long[columns][];
+        boolean[][] pending = new boolean[columns][];
+        List<long[]> formulaChunks = new ArrayList<>();
+        long position = directoryOffset;
+        for (int column = 0; column < columns; column++) {
+            int entries = getInt(segments, position);
+            position += Integer.BYTES;
+            if (entries > 0) {
+                blockOffsets[column] = new long[chunkCount];
+                pending[column] = new boolean[chunkCount];
+            }
+            for (int i = 0; i < entries; i++) {
+                int chunkIndex = getInt(segments, position);
+                boolean formulas = segment(segments, position + 4).get(index(position + 4)) != 0;
+                long offset = getLong(segments, position + 5);
+                position += 13;
+                blockOffsets[column][chunkIndex] = offset;
+                if (formulas) {
+                    formulaChunks.add(new long[]{column, chunkIndex});
+                } else {
+                    pending[column][chunkIndex] = true;
+                }
+            }
+        }
+
+        WorkbookFile workbook = new WorkbookFile(spreadsheet, segments, blockOffsets, readTableOffsets(segments, stringTableOffset));
+        String[] formulas = readTable(segments, formulaTableOffset);
+        for (long[] chunk : formulaChunks) {
+            workbook.loadChunk((int) chunk[0], (int) chunk[1], formulas);
+        }
+        spreadsheet.getCellStore().setChunkSource(workbook, pending);
+        if (clean) {
+            spreadsheet.markClean();
+        }
+        return spreadsheet;
+    }
+
+    /**
+     * Reads a chunk without formulas on its first access.
+     *
+     * @param column     The column index.
+     * @param chunkIndex The chunk index.
+     */
+    @Override
+    public void load(int column, int chunkIndex) {
+        loadChunk(column, chunkIndex, null);
+    }
+
+    /**
+     * Reads the block of a chunk into the cell store of the spreadsheet.
+     *
+     * @param column     The column index.
+     * @param chunkIndex The chunk index.
+     * @param formulas   The formula table, or null if the chunk has no formulas.
+     */
+    private void loadChunk(int column, int chunkIndex, String[] formulas) {
+        long offset = blockOffsets[column][chunkIndex];
+        MappedByteBuffer segment = segment(segments, offset);
+        int base = index(offset);
+        byte[] types = new byte[CellStore.CHUNK_SIZE];
+        double[] values = new double[CellStore.CHUNK_SIZE];
+        segment.get(base, types);
+        for (int k = 0; k < CellStore.CHUNK_SIZE; k++) {
+            values[k] = segment.getDouble(base + CellStore.CHUNK_SIZE + k * Double.BYTES);
+        }
+        int referencePosition = base + BLOCK_DATA_SIZE + Integer.BYTES;
+        int firstRow = chunkIndex << CellStore.CHUNK_BITS;
+        byte[] installed = types.clone();
+        for (int k = 0; k < CellStore.CHUNK_SIZE; k++) {
+            if (types[k] == CellStore.FORMULA) {
+                installed[k] = CellStore.EMPTY;
+            }
+        }
+        CellStore store = spreadsheet.getCellStore();
+        store.installChunk(column, chunkIndex, installed, values);
+        for (int k = 0; k < CellStore.CHUNK_SIZE; k++) {
+            if (types[k] == CellStore.TEXT) {
+                store.installText(firstRow + k, column, string(segment.getInt(referencePosition)));
+                referencePosition += Integer.BYTES;
+            } else if (types[k] == CellStore.FORMULA) {
+                spreadsheet.restoreFormula(firstRow + k, column, formulas[segment.getInt(referencePosition)], values[k]);
+                referencePosition += Integer.BYTES;
+            }
+        }
+    }
+
+    /**
+     * Gets an entry of the string table, decoding it on first use.
+     *
+     * @param index The index of the entry.
+     * @return The string.
+     */
+    private String string(int index) {
+        String value = strings[index];
+        if (value == null) {
+            value = readString(segments, stringOffsets[index]);
+            strings[index] = value;
+        }
+        return value;
+    }
+
+    /**
+     * Gets the index of a string in a table, adding it if it is not there yet.
+     *
+     * @param value   The string.
+     * @param indexes The indexes of the strings already in the table.
+     * @param table   The table.
+     * @return The index of the string.
+     */
+    private static int intern(String value, Map<String, Integer> indexes, List<String> table) {
+        Integer index = indexes.get(value);
+        if (index == null) {
+            index = table.size();
+            indexes.put(value, index);
+            table.add(value);
+        }
+        return index;
+    }
+
+    /**
+     * Writes a string table: the number of entries, the offset of every entry and the entries, each as
+     * its length in bytes followed by its UTF-8 bytes.
+     *
+     * @param out      The stream receiving the table.
+     * @param table    The strings of the table.
+     * @param position The offset of the table in the file.
+     * @return The number of bytes written.
+     * @throws IOException If the stream cannot be written.
+     */
+    private static long writeTable(DataOutputStream out, List<String> table, long position) throws IOException {
+        byte[][] encoded = new byte[table.size()][];
+        out.writeInt(table.size());
+        long entryOffset = position + Integer.BYTES + (long) table.size() * Long.BYTES;
+        for (int i = 0; i < table.size(); i++) {
+            encoded[i] = table.get(i).getBytes(StandardCharsets.UTF_8);
+            out.writeLong(entryOffset);
+            entryOffset += Integer.BYTES + encoded[i].length;
+        }
+        for (byte[] bytes : encoded) {
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+        return entryOffset - position;
+    }
+
+    /**
+     * Reads the entry offsets of a string table.
+     *
+     * @param segments The mapped segments of the file.
+     * @param offset   The offset of the table.
+     * @return The offsets of the entries.
+     */
+    private static long[] readTableOffsets(MappedByteBuffer[] segments, long offset) {
+        long[] offsets = new long[getInt(segments, offset)];
+        for (int i = 0; i < offsets.length; i++) {
+            offsets[i] = getLong(segments, offset + Integer.BYTES + (long) i * Long.BYTES);
+        }
+        return offsets;
+    }
+
+    /**
+     * Reads every entry of a string table.
+     *
+     * @param segments The mapped segments of the file.
+     * @param offset   The offset of the table.
+     * @return The strings of the table.
+     */
+    private static String[] readTable(MappedByteBuffer[] segments, long offset) {
+        long[] offsets = readTableOffsets(segments, offset);
+        String[] table = new String[offsets.length];
+        for (int i = 0; i < table.length; i++) {
+            table[i] = readString(segments, offsets[i]);
+        }
+        return table;
+    }
+
+    /**
+     * Reads a string written as its length in bytes followed by its UTF-8 bytes.
+     *
+     * @param segments The mapped segments of the file.
+     * @param offset   The offset of the string.
+     * @return The string.
+     */
+    private static String readString(MappedByteBuffer[] segments, long offset) {
+        byte[] bytes = new byte[getInt(segments, offset)];
+        long position = offset + Integer.BYTES;
+        MappedByteBuffer segment = segment(segments, position);
+        if (index(position) + bytes.length <= segment.limit()) {
+            segment.get(index(position), bytes);
+        } else {
+            for (int i = 0; i < bytes.length; i++, position++) {
+                bytes[i] = segment(segments, position).get(index(position));
+            }
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Reads a big-endian int at an offset of the file.
+     *
+     * @param segments The mapped segments of the file.
+     * @param offset   The offset of the int.
+     * @return The int.
+     */
+    private static int getInt(MappedByteBuffer[] segments, long offset) {
+        return segment(segments, offset).getInt(index(offset));
+    }
+
+    /**
+     * Reads a big-endian long at an offset of the file.
+     *
+     * @param segments The mapped segments of the file.
+     * @param offset   The offset of the long.
+     * @return The long.
+     */
+    private static long getLong(MappedByteBuffer[] segments, long offset) {
+        return segment(segments, offset).getLong(index(offset));
+    }
+
+    /**
+     * Gets the mapped segment where an offset of the file starts.
+     *
+     * @param segments The mapped segments of the file.
+     * @param offset   The offset in the file.
+     * @return The segment containing the offset.
+     */
+    private static MappedByteBuffer segment(MappedByteBuffer[] segments, long offset) {
+        return segments[(int) (offset / SEGMENT_SIZE)];
+    }
+
+    /**
+     * Converts an offset of the file to an index in its segment.
+     *
+     * @param offset The offset in the file.
+     * @return The index in the segment returned by {@link #segment(MappedByteBuffer[], long)}.
+     */
+    private static int index(long offset) {
+        return (int) (offset % SEGMENT_SIZE);
+    }
+}
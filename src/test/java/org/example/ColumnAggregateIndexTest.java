@@ -0,0 +1,109 @@
+package org.example;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Checks that aggregates answered by a {@link ColumnAggregateIndex} match a scan of the cells, for ranges
+ * holding numbers and formulas, with and without parallel recalculation.
+ */
+class ColumnAggregateIndexTest {
+    private static final int ROWS = 2000;
+    private static final String[] FUNCTIONS = {"SUMA", "MIN", "MAX", "PROMEDIO"};
+
+    /**
+     * Recalculates on the calling thread.
+     */
+    @Test
+    void sequentialRecalculation() {
+        compare(null);
+    }
+
+    /**
+     * Recalculates every dependency level on a pool, so formula values are indexed between levels.
+     */
+    @Test
+    void parallelRecalculation() {
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            compare(pool);
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Fills an indexed and an unindexed spreadsheet alike, and compares them after a full recalculation and
+     * after edits of the cells the indexed formulas depend on.
+     *
+     * @param pool The recalculation pool, or null to recalculate on the calling thread.
+     */
+    private static void compare(ForkJoinPool pool) {
+        SpreadSheet expected = create(false, pool);
+        SpreadSheet actual = create(true, pool);
+        assertSameValues(expected, actual);
+        for (int row = 0; row < ROWS; row += 37) {
+            expected.setNumber(row, 1, -row);
+            actual.setNumber(row, 1, -row);
+        }
+        expected.setNumber(5, 0, 1e6);
+        actual.setNumber(5, 0, 1e6);
+        expected.computeValues();
+        actual.computeValues();
+        assertSameValues(expected, actual);
+    }
+
+    /**
+     * Creates a spreadsheet whose column A mixes numbers and formulas reading column B, column C aggregates
+     * ranges of column A, and column D aggregates ranges of column C.
+     *
+     * @param indexed Whether columns A and C are indexed.
+     * @param pool    The recalculation pool, or null.
+     * @return The recalculated spreadsheet.
+     */
+    private static SpreadSheet create(boolean indexed, ForkJoinPool pool) {
+        SpreadSheet sheet = new SpreadSheet(ROWS, 4);
+        if (indexed) {
+            sheet.setAggregateIndexEnabled(0, true);
+            sheet.setAggregateIndexEnabled(2, true);
+        }
+        sheet.setRecalculationPool(pool);
+        for (int row = 0; row < ROWS; row++) {
+            sheet.setNumber(row, 1, row % 7 - 3);
+            if (row % 3 == 0) {
+                sheet.setFormula(row, 0, "=B" + (row + 1) + "*2");
+            } else {
+                sheet.setNumber(row, 0, row);
+            }
+        }
+        for (int row = 0; row < 400; row++) {
+            String function = FUNCTIONS[row % FUNCTIONS.length];
+            int first = row * 3 % ROWS + 1;
+            int last = Math.min(ROWS, first + row * 5);
+            sheet.setFormula(row, 2, "=" + function + "(A" + first + ":A" + last + ")");
+            sheet.setFormula(row, 3, "=" + function + "(C1:C" + (row + 1) + ")");
+        }
+        sheet.computeValues();
+        return sheet;
+    }
+
+    /**
+     * Compares the stored values of every cell of two spreadsheets, up to rounding.
+     *
+     * @param expected The spreadsheet computed without indexes.
+     * @param actual   The spreadsheet computed with indexes.
+     */
+    private static void assertSameValues(SpreadSheet expected, SpreadSheet actual) {
+        for (int row = 0; row < ROWS; row++) {
+            for (int column = 0; column < 4; column++) {
+                double value = expected.getCellStore().getValue(row, column);
+                // The index adds the values in a different order, so sums may differ in their last bits
+                assertEquals(value, actual.getCellStore().getValue(row, column), Math.abs(value) * 1e-12,
+                        CellReference.toString(row, column));
+            }
+        }
+    }
+}
@@ -0,0 +1,288 @@
+package org.example;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Checks the circular dependencies and recalculation orders kept by {@link DependencyManager} and its
+ * {@link CycleDetector} against a brute-force search of the references.
+ */
+class DependencyManagerTest {
+    private static final int ROWS = 8;
+    private static final int COLUMNS = 4;
+
+    private final DependencyManager manager = new DependencyManager();
+    /**
+     * The cells referenced by every formula cell, with ranges expanded.
+     */
+    private final Map<Long, Set<Long>> references = new HashMap<>();
+
+    /**
+     * Applies random formula edits and removals and compares the detector with a brute-force search
+     * after every edit.
+     */
+    @Test
+    void randomEditsMatchBruteForce() {
+        Random random = new Random(42);
+        for (int edit = 0; edit < 3000; edit++) {
+            long cell = DependencyManager.key(random.nextInt(ROWS), random.nextInt(COLUMNS));
+            if (random.nextInt(4) == 0) {
+                remove(cell);
+            } else {
+                set(cell, randomFormula(random));
+            }
+            for (long key : allCells()) {
+                assertEquals(isCyclic(key), manager.isCyclic(key), "edit " + edit + ", cell " + name(key));
+            }
+            if (edit % 25 == 0) {
+                assertConsistentOrder();
+            }
+        }
+    }
+
+    /**
+     * Breaks a cycle by replacing one of its formulas with a constant.
+     */
+    @Test
+    void breakingACycle() {
+        set("A1", "B1+1");
+        set("B1", "A1*2");
+        set("C1", "A1+B1");
+        assertTrue(manager.isCyclic(key("A1")));
+        assertTrue(manager.isCyclic(key("B1")));
+        assertFalse(manager.isCyclic(key("C1")));
+        assertEquals(1, manager.getCycles().size());
+
+        remove(key("B1"));
+        assertFalse(manager.isCyclic(key("A1")));
+        assertTrue(manager.getCycles().isEmpty());
+        assertConsistentOrder();
+    }
+
+    /**
+     * Deletes a reference of a cycle by rewriting a formula without it, then adds it again.
+     */
+    @Test
+    void deletingAndReaddingAnEdge() {
+        set("A1", "B1+1");
+        set("B1", "C1+1");
+        set("C1", "A1+1");
+        set("D1", "SUMA(A1:C1)");
+        assertEquals(1, manager.getCycles().size());
+        assertEquals(3, manager.getCycles().get(0).length);
+
+        set("C1", "5+1");
+        for (String cell : new String[]{"A1", "B1", "C1", "D1"}) {
+            assertFalse(manager.isCyclic(key(cell)), cell);
+        }
+        assertTrue(manager.getCycles().isEmpty());
+        assertConsistentOrder();
+
+        set("C1", "A1+1");
+        for (String cell : new String[]{"A1", "B1", "C1"}) {
+            assertTrue(manager.isCyclic(key(cell)), cell);
+        }
+        assertFalse(manager.isCyclic(key("D1")));
+        assertEquals(1, manager.getCycles().size());
+        assertConsistentOrder();
+    }
+
+    /**
+     * Checks that a cell referencing itself is a cycle of its own.
+     */
+    @Test
+    void selfReference() {
+        set("B2", "B2+1");
+        assertTrue(manager.isCyclic(key("B2")));
+        set("B2", "A1+1");
+        assertFalse(manager.isCyclic(key("B2")));
+        assertConsistentOrder();
+    }
+
+    /**
+     * Generates a formula referencing up to three cells or ranges of the grid.
+     *
+     * @param random The random generator.
+     * @return The formula, without the leading "=".
+     */
+    private static String randomFormula(Random random) {
+        StringBuilder formula = new StringBuilder("1");
+        int terms = random.nextInt(4);
+        for (int i = 0; i < terms; i++) {
+            int row = random.nextInt(ROWS);
+            int column = random.nextInt(COLUMNS);
+            if (random.nextInt(3) == 0) {
+                int endRow = Math.min(ROWS - 1, row + random.nextInt(3));
+                int endColumn = Math.min(COLUMNS - 1, column + random.nextInt(2));
+                formula.append("+SUMA(").append(CellReference.toString(row, column)).append(':')
+                        .append(CellReference.toString(endRow, endColumn)).append(')');
+            } else {
+                formula.append('+').append(CellReference.toString(row, column));
+            }
+        }
+        return formula.toString();
+    }
+
+    /**
+     * Sets the formula of a cell in the manager and in the brute-force model.
+     *
+     * @param cell    The key of the cell.
+     * @param formula The formula, without the leading "=".
+     */
+    private void set(long cell, String formula) {
+        FormulaNode node = FormulaCompiler.compile(formula);
+        manager.setPrecedents(cell, node);
+        List<FormulaNode> found = new ArrayList<>();
+        node.collectReferences(found);
+        Set<Long> cells = new HashSet<>();
+        for (FormulaNode reference : found) {
+            if (reference instanceof FormulaNode.Reference single) {
+                cells.add(DependencyManager.key(single.getRow(), single.getColumn()));
+            } else if (reference instanceof FormulaNode.Range range) {
+                for (int row = range.getStartRow(); row <= range.getEndRow(); row++) {
+                    for (int column = range.getStartColumn(); column <= range.getEndColumn(); column++) {
+                        cells.add(DependencyManager.key(row, column));
+                    }
+                }
+            }
+        }
+        references.put(cell, cells);
+    }
+
+    /**
+     * Sets the formula of a cell given by its reference.
+     *
+     * @param cell    The cell reference.
+     * @param formula The formula, without the leading "=".
+     */
+    private void set(String cell, String formula) {
+        set(key(cell), formula);
+    }
+
+    /**
+     * Replaces a formula cell by a constant in the manager and in the brute-force model.
+     *
+     * @param cell The key of the cell.
+     */
+    private void remove(long cell) {
+        manager.removePrecedents(cell);
+        references.remove(cell);
+    }
+
+    /**
+     * Checks by brute force if a formula cell reaches another cell through its references.
+     *
+     * @param from The key of the formula cell.
+     * @param to   The key of the cell to reach.
+     * @return True if following at least one reference from the first cell leads to the second one.
+     */
+    private boolean reaches(long from, long to) {
+        Set<Long> seen = new HashSet<>();
+        List<Long> pending = new ArrayList<>(references.getOrDefault(from, Set.of()));
+        while (!pending.isEmpty()) {
+            long cell = pending.remove(pending.size() - 1);
+            if (cell == to) {
+                return true;
+            }
+            if (seen.add(cell)) {
+                pending.addAll(references.getOrDefault(cell, Set.of()));
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Checks by brute force if a cell is on a cycle of references.
+     *
+     * @param cell The key of the cell.
+     * @return True if the cell reaches itself, false otherwise.
+     */
+    private boolean isCyclic(long cell) {
+        return references.containsKey(cell) && reaches(cell, cell);
+    }
+
+    /**
+     * Checks the cycles and the order of a full recalculation: every formula cell appears once, after the
+     * formula cells it references unless both are on the same cycle, and the cyclic cells are exactly those
+     * found by brute force.
+     */
+    private void assertConsistentOrder() {
+        Set<Long> cyclic = new HashSet<>();
+        manager.markAllDirty();
+        long[] order = manager.takeRecalculationOrder(cyclic);
+        Map<Long, Integer> positions = new HashMap<>();
+        for (int i = 0; i < order.length; i++) {
+            assertEquals(null, positions.put(order[i], i), "twice in the order: " + name(order[i]));
+        }
+        assertEquals(references.keySet(), positions.keySet());
+        Set<Long> expectedCyclic = new HashSet<>();
+        for (long cell : references.keySet()) {
+            if (isCyclic(cell)) {
+                expectedCyclic.add(cell);
+            }
+            for (long precedent : references.get(cell)) {
+                if (references.containsKey(precedent) && !(reaches(cell, precedent) && reaches(precedent, cell))) {
+                    assertTrue(positions.get(precedent) < positions.get(cell),
+                            name(precedent) + " before " + name(cell));
+                }
+            }
+        }
+        assertEquals(expectedCyclic, cyclic);
+        Set<Long> inCycles = new HashSet<>();
+        for (long[] cycle : manager.getCycles()) {
+            for (long cell : cycle) {
+                assertTrue(inCycles.add(cell), "in two cycles: " + name(cell));
+                for (long other : cycle) {
+                    assertTrue(reaches(cell, other), name(cell) + " reaches " + name(other));
+                }
+            }
+        }
+        assertEquals(expectedCyclic, inCycles);
+    }
+
+    /**
+     * Gets every cell of the grid.
+     *
+     * @return The keys of the cells.
+     */
+    private static List<Long> allCells() {
+        List<Long> cells = new ArrayList<>();
+        for (int row = 0; row < ROWS; row++) {
+            for (int column = 0; column < COLUMNS; column++) {
+                cells.add(DependencyManager.key(row, column));
+            }
+        }
+        return cells;
+    }
+
+    /**
+     * Decodes a cell reference.
+     *
+     * @param cell The cell reference.
+     * @return The key of the cell.
+     */
+    private static long key(String cell) {
+        return CellReference.parse(cell);
+    }
+
+    /**
+     * Gets the reference of a cell.
+     *
+     * @param key The key of the cell.
+     * @return The cell reference.
+     */
+    private static String name(long key) {
+        return CellReference.toString(DependencyManager.row(key), DependencyManager.column(key));
+    }
+}
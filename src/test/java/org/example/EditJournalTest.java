@@ -0,0 +1,202 @@
+package org.example;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Checks that replaying an {@link EditJournal} on its workbook restores the edited cells, including after a
+ * crash left the last record incomplete and after the journal was compacted into the workbook.
+ */
+class EditJournalTest {
+    @TempDir
+    Path directory;
+
+    /**
+     * Replays every record of a journal on the workbook it was started for.
+     *
+     * @throws IOException If the workbook or the journal cannot be written or read.
+     */
+    @Test
+    void replayRestoresEdits() throws IOException {
+        String path = workbook();
+        SpreadSheet sheet = openJournaling(path);
+        edit(sheet);
+        sheet.getEditJournal().close();
+
+        SpreadSheet replayed = WorkbookFile.open(path);
+        try (EditJournal journal = EditJournal.open(path)) {
+            assertEquals(5, journal.replay(replayed));
+        }
+        sheet.computeValues();
+        replayed.computeValues();
+        WorkbookFileTest.assertSameCells(sheet, replayed);
+    }
+
+    /**
+     * Cuts the last record of a journal short, as a crash in the middle of a write would.
+     *
+     * @throws IOException If the workbook or the journal cannot be written or read.
+     */
+    @Test
+    void truncatedLastRecord() throws IOException {
+        String path = workbook();
+        Path journalPath = Path.of(path + ".journal");
+        long boundary = journalWithLastEdit(path);
+        try (FileChannel channel = FileChannel.open(journalPath, StandardOpenOption.WRITE)) {
+            channel.truncate(channel.size() - 3);
+        }
+        assertLastEditDiscarded(path, boundary);
+    }
+
+    /**
+     * Changes a byte of the last record of a journal, which its checksum must reject.
+     *
+     * @throws IOException If the workbook or the journal cannot be written or read.
+     */
+    @Test
+    void corruptedLastRecord() throws IOException {
+        String path = workbook();
+        Path journalPath = Path.of(path + ".journal");
+        long boundary = journalWithLastEdit(path);
+        try (FileChannel channel = FileChannel.open(journalPath, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            ByteBuffer last = ByteBuffer.allocate(1);
+            channel.read(last, channel.size() - 1);
+            last.put(0, (byte) (last.get(0) ^ 0x40)).rewind();
+            channel.write(last, channel.size() - 1);
+        }
+        assertLastEditDiscarded(path, boundary);
+    }
+
+    /**
+     * Compacts the journal into the workbook in the middle of the edits, and checks that the new workbook
+     * and the records written after the compaction give the same cells, whether or not the journal was
+     * emptied before the crash.
+     *
+     * @throws IOException If the workbook or the journal cannot be written or read.
+     */
+    @Test
+    void compactionThenReplay() throws IOException {
+        String path = workbook();
+        SpreadSheet_Manager manager = new SpreadSheet_Manager();
+        SpreadSheet sheet = manager.openWorkbook(path);
+        edit(sheet);
+        manager.saveWorkbook(0, path);
+        assertEquals(0, Files.size(Path.of(path + ".journal")));
+        sheet.setNumber(0, 0, 42);
+        sheet.setFormula(4, 2, "=C1+A1");
+        sheet.setText(5, 0, "after compaction");
+        sheet.getEditJournal().close();
+
+        SpreadSheet replayed = new SpreadSheet_Manager().openWorkbook(path);
+        replayed.getEditJournal().close();
+        sheet.computeValues();
+        replayed.computeValues();
+        WorkbookFileTest.assertSameCells(sheet, replayed);
+        assertEquals(69.25, replayed.getCellStore().getValue(4, 2));
+
+        // Replaying the records again on the compacted workbook, as after a crash before the journal was
+        // emptied, gives the same cells as well
+        SpreadSheet again = WorkbookFile.open(path);
+        try (EditJournal journal = EditJournal.open(path)) {
+            journal.replay(again);
+            journal.replay(again);
+        }
+        again.computeValues();
+        WorkbookFileTest.assertSameCells(sheet, again);
+    }
+
+    /**
+     * Saves a small recalculated spreadsheet as a workbook of the temporary directory.
+     *
+     * @return The path of the workbook file.
+     * @throws IOException If the workbook cannot be written.
+     */
+    private String workbook() throws IOException {
+        SpreadSheet sheet = new SpreadSheet(8, 3);
+        for (int row = 0; row < 4; row++) {
+            sheet.setNumber(row, 0, row + 1);
+        }
+        sheet.setFormula(0, 2, "=SUMA(A1:A4)");
+        sheet.computeValues();
+        String path = directory.resolve("sheet.wb").toString();
+        WorkbookFile.save(sheet, path);
+        return path;
+    }
+
+    /**
+     * Opens a workbook whose edits are recorded in its journal.
+     *
+     * @param path The path of the workbook file.
+     * @return The opened spreadsheet.
+     * @throws IOException If the workbook or the journal cannot be read.
+     */
+    private static SpreadSheet openJournaling(String path) throws IOException {
+        SpreadSheet sheet = WorkbookFile.open(path);
+        EditJournal journal = EditJournal.open(path);
+        journal.replay(sheet);
+        sheet.setEditJournal(journal);
+        return sheet;
+    }
+
+    /**
+     * Edits numbers, text and formulas of a spreadsheet, one record each.
+     *
+     * @param sheet The journaling spreadsheet.
+     */
+    private static void edit(SpreadSheet sheet) {
+        sheet.setNumber(1, 0, -7.25);
+        sheet.setText(2, 1, "ñandú");
+        sheet.setFormula(1, 1, "=A2*2");
+        sheet.setFormula(0, 2, "=SUMA(A1:B4)");
+        sheet.setNumber(6, 0, 1e300);
+    }
+
+    /**
+     * Journals the edits of {@link #edit(SpreadSheet)} followed by one last edit, and closes the journal.
+     *
+     * @param path The path of the workbook file.
+     * @return The size of the journal before the last edit.
+     * @throws IOException If the workbook or the journal cannot be written or read.
+     */
+    private static long journalWithLastEdit(String path) throws IOException {
+        SpreadSheet sheet = openJournaling(path);
+        edit(sheet);
+        sheet.getEditJournal().sync();
+        long boundary = Files.size(Path.of(path + ".journal"));
+        sheet.setText(3, 0, "lost in the crash");
+        sheet.getEditJournal().close();
+        return boundary;
+    }
+
+    /**
+     * Replays a journal whose last record was damaged, and checks that the edits before it were applied,
+     * the last one was not, and the journal was cut back to the end of the last complete record.
+     *
+     * @param path     The path of the workbook file.
+     * @param boundary The size of the journal before its last record.
+     * @throws IOException If the workbook or the journal cannot be read.
+     */
+    private static void assertLastEditDiscarded(String path, long boundary) throws IOException {
+        SpreadSheet expected = WorkbookFile.open(path);
+        edit(expected);
+        expected.computeValues();
+
+        SpreadSheet replayed = WorkbookFile.open(path);
+        try (EditJournal journal = EditJournal.open(path)) {
+            assertEquals(5, journal.replay(replayed));
+        }
+        assertEquals(boundary, Files.size(Path.of(path + ".journal")));
+        replayed.computeValues();
+        WorkbookFileTest.assertSameCells(expected, replayed);
+        assertEquals(CellStore.NUMBER, replayed.getCellStore().getType(3, 0));
+    }
+}
@@ -0,0 +1,98 @@
+package org.example;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Checks that converting a formula to RPN and compiling it gives the same values as {@link FormulaCompiler}.
+ */
+class ExpressionParserTest {
+
+    /**
+     * Creates the spreadsheet of the golden test: A1=1, A2=2, B1=3 and B2=4.
+     *
+     * @return The spreadsheet.
+     */
+    private static SpreadSheet sheet() {
+        SpreadSheet sheet = new SpreadSheet(5, 5);
+        sheet.setNumber(0, 0, 1);
+        sheet.setNumber(1, 0, 2);
+        sheet.setNumber(0, 1, 3);
+        sheet.setNumber(1, 1, 4);
+        return sheet;
+    }
+
+    /**
+     * Evaluates the formulas of commands.txt both ways. Arithmetic formulas must give the same value, and
+     * formulas with functions or ranges must be rejected by the conversion.
+     */
+    @Test
+    void commandsMatchFormulaCompiler() throws IOException {
+        SpreadSheet sheet = sheet();
+        ExpressionParser parser = new ExpressionParser(sheet, null);
+        List<String> arithmetic = new ArrayList<>();
+        for (String formula : Files.readAllLines(Path.of("commands.txt"))) {
+            if (formula.isBlank()) {
+                continue;
+            }
+            if (formula.matches(".*[A-Z]+\\(.*")) {
+                assertThrows(IllegalArgumentException.class, () -> parser.infixToRPN(formula, sheet), formula);
+                continue;
+            }
+            arithmetic.add(formula);
+        }
+        assertFalse(arithmetic.isEmpty());
+        for (String formula : arithmetic) {
+            assertSameValue(parser, sheet, formula);
+        }
+    }
+
+    /**
+     * Evaluates arithmetic formulas with absolute references, decimals and nested parentheses both ways.
+     */
+    @Test
+    void arithmeticMatchesFormulaCompiler() {
+        SpreadSheet sheet = sheet();
+        ExpressionParser parser = new ExpressionParser(sheet, null);
+        String[] formulas = {"$A$1+B$2*3", "(A1+$B2)/(A2-0.5)", "((A1+B2)*(B1-A2)/2+B2*3-A2)*(B1+A1)",
+                "10-4-3", "8/4/2", "2.5*E5+C3"};
+        for (String formula : formulas) {
+            assertSameValue(parser, sheet, formula);
+        }
+    }
+
+    /**
+     * Rejects what has no RPN form instead of producing a malformed RPN expression.
+     */
+    @Test
+    void rejectsFunctionsRangesAndMalformedFormulas() {
+        SpreadSheet sheet = sheet();
+        ExpressionParser parser = new ExpressionParser(sheet, null);
+        String[] formulas = {"SUMA(A1;B2)", "A1:B2", "A1+FOO", "A1;B2", "(A1+B2", "A1+B2)", "1.2.3"};
+        for (String formula : formulas) {
+            assertThrows(IllegalArgumentException.class, () -> parser.infixToRPN(formula, sheet), formula);
+        }
+    }
+
+    /**
+     * Checks that a formula gives the same value through RPN as through {@link FormulaCompiler}.
+     *
+     * @param parser  The parser converting the formula.
+     * @param sheet   The spreadsheet providing the values of references.
+     * @param formula The formula without the leading "=".
+     */
+    private static void assertSameValue(ExpressionParser parser, SpreadSheet sheet, String formula) {
+        String rpn = parser.infixToRPN(formula, sheet);
+        assertEquals(FormulaCompiler.compile(formula).evaluate(sheet),
+                ExpressionParser.compileRPN(rpn).evaluate(sheet), formula + " as " + rpn);
+    }
+}
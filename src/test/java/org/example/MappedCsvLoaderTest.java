@@ -0,0 +1,96 @@
+package org.example;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Checks that {@link MappedCsvLoader} loads the same cells as the streaming loader of {@link FileManager}.
+ */
+class MappedCsvLoaderTest {
+
+    @TempDir
+    Path directory;
+
+    /**
+     * Loads a small file with quoted fields, embedded commas, quotes and line breaks, and CRLF records.
+     */
+    @Test
+    void quotedFieldsAndLineEndings() throws IOException {
+        String csv = "1,\"a,b\",=A1+1\r\n"
+                + "\"two\nlines\",2.5,\"say \"\"hi\"\"\"\r\n"
+                + ",,\"\"\n"
+                + "-4,\"=SUMA(A1:A2)\",text";
+        assertSameCells(write("small.csv", csv));
+    }
+
+    /**
+     * Loads a file of several slices in which every record holds a quoted line break, so the records
+     * around every split point span a slice boundary and a line break inside quotes.
+     */
+    @Test
+    void recordsAcrossSlices() throws IOException {
+        StringBuilder csv = new StringBuilder();
+        int row = 0;
+        while (csv.length() < 2 * MappedCsvLoader.SLICE_SIZE + 1000) {
+            csv.append(row).append(",\"cell ").append(row).append(",\nnext\",")
+                    .append(row % 1000 == 0 ? "=A" + (row + 1) + "*2" : row * 0.5)
+                    .append(',').append(row % 7 == 0 ? "" : "t" + row)
+                    .append(row % 2 == 0 ? "\r\n" : "\n");
+            row++;
+        }
+        Path file = write("large.csv", csv.toString());
+        assertTrue(Files.size(file) > 2L * MappedCsvLoader.SLICE_SIZE);
+        assertSameCells(file);
+    }
+
+    /**
+     * Writes a CSV file in the temporary directory.
+     *
+     * @param name    The name of the file.
+     * @param content The content of the file.
+     * @return The path of the file.
+     * @throws IOException If the file cannot be written.
+     */
+    private Path write(String name, String content) throws IOException {
+        Path file = directory.resolve(name);
+        Files.writeString(file, content, StandardCharsets.UTF_8);
+        return file;
+    }
+
+    /**
+     * Loads a file with both loaders and compares the type and content of every cell.
+     *
+     * @param file The CSV file.
+     */
+    private static void assertSameCells(Path file) {
+        SpreadSheet expected = FileManager.createSpreadsheet(file.toString());
+        SpreadSheet actual = FileManager.createSpreadsheetMapped(file.toString(), 4);
+        assertEquals(expected.getRows(), actual.getRows());
+        assertEquals(expected.getColumns(), actual.getColumns());
+        CellStore expectedStore = expected.getCellStore();
+        CellStore actualStore = actual.getCellStore();
+        for (int row = 0; row < expected.getRows(); row++) {
+            for (int column = 0; column < expected.getColumns(); column++) {
+                String cell = "row " + row + ", column " + column;
+                byte type = expectedStore.getType(row, column);
+                assertEquals(type, actualStore.getType(row, column), cell);
+                if (type == CellStore.NUMBER) {
+                    assertEquals(expectedStore.getValue(row, column), actualStore.getValue(row, column), cell);
+                } else if (type == CellStore.TEXT) {
+                    assertEquals(expectedStore.getText(row, column), actualStore.getText(row, column), cell);
+                } else if (type == CellStore.FORMULA) {
+                    assertEquals(expectedStore.getFormula(row, column).getFormulaString(),
+                            actualStore.getFormula(row, column).getFormulaString(), cell);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package org.example;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Checks how {@link RpnProgram} compiles and evaluates RPN expressions.
+ */
+class RpnProgramTest {
+
+    /**
+     * Evaluates constants, cell references and every operator.
+     */
+    @Test
+    void evaluatesExpressions() {
+        SpreadSheet sheet = new SpreadSheet(2, 2);
+        sheet.setNumber(0, 0, 4);
+        sheet.setNumber(1, 1, 3);
+        assertEquals(7.0, RpnProgram.compile("1 2 * 5 +").evaluate());
+        assertEquals(-0.25, RpnProgram.compile("1,5 2 - 2 /").evaluate());
+        assertEquals(16.0, RpnProgram.compile("A1 $B$2 + A1 * 12 -").evaluate(sheet));
+        assertEquals(4.0, RpnProgram.compile("A1").evaluate(sheet));
+    }
+
+    /**
+     * Rejects unknown tokens instead of skipping them.
+     */
+    @Test
+    void rejectsUnknownTokens() {
+        assertThrows(IllegalArgumentException.class, () -> RpnProgram.compile("1 2 ^"));
+        assertThrows(IllegalArgumentException.class, () -> RpnProgram.compile("1 SUMA +"));
+        assertThrows(IllegalArgumentException.class, () -> RpnProgram.compile("1 2 +x"));
+        assertThrows(IllegalArgumentException.class, () -> RpnProgram.compile("A1:B2"));
+    }
+
+    /**
+     * Rejects expressions that do not leave exactly one value on the stack.
+     */
+    @Test
+    void requiresOneResult() {
+        assertThrows(IllegalArgumentException.class, () -> RpnProgram.compile(""));
+        assertThrows(IllegalArgumentException.class, () -> RpnProgram.compile("1 2"));
+        assertThrows(IllegalArgumentException.class, () -> RpnProgram.compile("1 +"));
+        assertThrows(IllegalArgumentException.class, () -> RpnProgram.compile("1 2 3 +"));
+    }
+
+    /**
+     * Reports a division by zero when evaluating.
+     */
+    @Test
+    void divisionByZero() {
+        RpnProgram program = RpnProgram.compile("1 0 /");
+        assertThrows(ArithmeticException.class, program::evaluate);
+    }
+}
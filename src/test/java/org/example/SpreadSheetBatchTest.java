@@ -0,0 +1,130 @@
+package org.example;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Checks that rolling back a batch of edits restores the cells, formulas, dependencies and aggregate index
+ * of a spreadsheet.
+ */
+class SpreadSheetBatchTest {
+    private static final int ROWS = 6;
+    private static final int COLUMNS = 3;
+
+    /**
+     * Creates a recalculated spreadsheet with numbers, text and formulas, whose column A is indexed.
+     *
+     * @return The spreadsheet.
+     */
+    private static SpreadSheet sheet() {
+        SpreadSheet sheet = new SpreadSheet(ROWS, COLUMNS);
+        sheet.setAggregateIndexEnabled(0, true);
+        for (int row = 0; row < 5; row++) {
+            sheet.setNumber(row, 0, row + 1);
+        }
+        sheet.setText(5, 0, "total");
+        sheet.setFormula(0, 1, "=SUMA(A1:A5)");
+        sheet.setFormula(1, 1, "=A1*2");
+        sheet.setFormula(2, 1, "=MAX(A1:A6)+B2");
+        sheet.computeValues();
+        return sheet;
+    }
+
+    /**
+     * Edits numbers, text, formulas and empty cells in a batch and rolls it back.
+     */
+    @Test
+    void rollbackRestoresCellsDependenciesAndIndex() {
+        SpreadSheet sheet = sheet();
+        List<String> before = describe(sheet);
+
+        sheet.beginBatch();
+        sheet.setNumber(0, 0, 100);
+        sheet.setText(1, 0, "x");
+        sheet.setFormula(2, 0, "=B2+1");
+        sheet.setNumber(5, 0, -50);
+        sheet.setFormula(0, 1, "=7");
+        sheet.setNumber(1, 1, 3);
+        sheet.setFormula(0, 2, "=A1+B3");
+        sheet.setNumber(0, 0, 200);
+        sheet.rollbackBatch();
+
+        assertFalse(sheet.isInBatch());
+        assertEquals(before, describe(sheet));
+
+        // The restored dependencies still drive recalculation
+        sheet.setNumber(0, 0, 10);
+        sheet.computeValues();
+        CellStore store = sheet.getCellStore();
+        assertEquals(24.0, store.getValue(0, 1));
+        assertEquals(20.0, store.getValue(1, 1));
+        assertEquals(30.0, store.getValue(2, 1));
+    }
+
+    /**
+     * Throws from the edits of {@link SpreadSheet#applyBatch}, which must roll them back and rethrow.
+     */
+    @Test
+    void exceptionInApplyBatchLeavesSheetUnchanged() {
+        SpreadSheet sheet = sheet();
+        List<String> before = describe(sheet);
+        IllegalStateException failure = new IllegalStateException("edit failed");
+
+        IllegalStateException thrown = assertThrows(IllegalStateException.class, () -> sheet.applyBatch(s -> {
+            s.setNumber(3, 0, 1e9);
+            s.setFormula(1, 1, "=A4");
+            s.setText(2, 1, "gone");
+            s.setFormula(2, 2, "=SUMA(A1:A6)");
+            throw failure;
+        }));
+
+        assertSame(failure, thrown);
+        assertFalse(sheet.isInBatch());
+        assertEquals(before, describe(sheet));
+    }
+
+    /**
+     * Describes everything a batch may change: the contents and value of every cell, its precedents and
+     * dependents in the dependency graph, and the aggregates of column A read through its index.
+     *
+     * @param sheet The spreadsheet.
+     * @return One line per cell, followed by the aggregates.
+     */
+    private static List<String> describe(SpreadSheet sheet) {
+        CellStore store = sheet.getCellStore();
+        DependencyManager dependencies = sheet.getDependencyManager();
+        List<String> lines = new ArrayList<>();
+        for (int row = 0; row < ROWS; row++) {
+            for (int column = 0; column < COLUMNS; column++) {
+                long key = DependencyManager.key(row, column);
+                byte type = store.getType(row, column);
+                String content = type == CellStore.TEXT ? store.getText(row, column)
+                        : type == CellStore.FORMULA ? store.getFormula(row, column).getFormulaString() : "";
+                long[] dependents = dependencies.getDependents(key);
+                Arrays.sort(dependents);
+                List<Long> precedents = new ArrayList<>();
+                dependencies.forEachFormulaPrecedent(key, precedents::add);
+                precedents.sort(null);
+                lines.add(CellReference.toString(row, column) + " " + type + " " + content + " "
+                        + store.getValue(row, column) + " formula=" + dependencies.isFormula(key)
+                        + " dependents=" + Arrays.toString(dependents) + " precedents=" + precedents);
+            }
+        }
+        Accumulator numbers = new Accumulator();
+        store.getAggregateIndex(0).accumulateNumbers(0, ROWS - 1, numbers);
+        lines.add("numbers " + numbers.getCount() + " " + numbers.result("SUMA") + " " + numbers.result("MIN")
+                + " " + numbers.result("MAX"));
+        Accumulator formulas = new Accumulator();
+        store.getAggregateIndex(0).accumulateFormulaValues(0, ROWS - 1, formulas);
+        lines.add("formulas " + formulas.getCount() + " " + formulas.result("SUMA"));
+        return lines;
+    }
+}
@@ -0,0 +1,153 @@
+package org.example;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Checks that a spreadsheet saved by {@link WorkbookFile} opens with the same cells.
+ */
+class WorkbookFileTest {
+    @TempDir
+    Path directory;
+
+    /**
+     * Saves numbers and text spread over several chunks, with empty chunks in between, and opens them.
+     *
+     * @throws IOException If the workbook cannot be written or read.
+     */
+    @Test
+    void numbersAndTextAcrossChunks() throws IOException {
+        int rows = 3 * CellStore.CHUNK_SIZE + 10;
+        SpreadSheet sheet = new SpreadSheet(rows, 4);
+        for (int row = 0; row < rows; row++) {
+            sheet.setNumber(row, 0, row * 0.5 - 100);
+            if (row % 3 == 0) {
+                sheet.setText(row, 1, "text " + row % 10);
+            }
+            if (row >= 2 * CellStore.CHUNK_SIZE && row % 2 == 0) {
+                sheet.setNumber(row, 2, -row);
+            }
+        }
+        sheet.setText(1, 3, "ñandú, \"quoted\"\nline");
+        sheet.setText(2, 3, "");
+        sheet.setNumber(3, 3, Double.MAX_VALUE);
+        sheet.setNumber(4, 3, -0.0);
+        sheet.computeValues();
+
+        SpreadSheet opened = saveAndOpen(sheet);
+        assertEquals(rows, opened.getRows());
+        assertEquals(4, opened.getColumns());
+        assertSameCells(sheet, opened);
+    }
+
+    /**
+     * Saves formulas right after a recalculation, and checks that they open with their cached values
+     * without being recalculated, and are recalculated again after an edit.
+     *
+     * @throws IOException If the workbook cannot be written or read.
+     */
+    @Test
+    void formulasKeepCachedValues() throws IOException {
+        SpreadSheet sheet = new SpreadSheet(2 * CellStore.CHUNK_SIZE, 3);
+        for (int row = 0; row < 3; row++) {
+            sheet.setNumber(row, 0, row + 1);
+        }
+        sheet.setText(3, 0, "label");
+        sheet.setFormula(0, 1, "=A1*2");
+        sheet.setFormula(1, 1, "=SUMA(A1:A3)");
+        sheet.setFormula(2, 1, "=B1+B2");
+        sheet.setFormula(CellStore.CHUNK_SIZE + 5, 2, "=MAX(A1:B3)");
+        sheet.computeValues();
+
+        SpreadSheet opened = saveAndOpen(sheet);
+        assertEquals(false, opened.needsRecalculation());
+        assertSameCells(sheet, opened);
+        assertEquals(8.0, opened.getCellStore().getValue(2, 1));
+        assertEquals(8.0, opened.getCellStore().getValue(CellStore.CHUNK_SIZE + 5, 2));
+
+        // The dependencies of the opened formulas drive recalculation
+        opened.setNumber(0, 0, 10);
+        opened.computeValues();
+        assertEquals(20.0, opened.getCellStore().getValue(0, 1));
+        assertEquals(15.0, opened.getCellStore().getValue(1, 1));
+        assertEquals(35.0, opened.getCellStore().getValue(2, 1));
+        assertEquals(35.0, opened.getCellStore().getValue(CellStore.CHUNK_SIZE + 5, 2));
+    }
+
+    /**
+     * Saves formulas whose values were never computed, which must be recalculated once opened.
+     *
+     * @throws IOException If the workbook cannot be written or read.
+     */
+    @Test
+    void formulasSavedBeforeRecalculation() throws IOException {
+        SpreadSheet sheet = new SpreadSheet(4, 2);
+        sheet.setNumber(0, 0, 4);
+        sheet.setFormula(0, 1, "=A1*A1");
+
+        SpreadSheet opened = saveAndOpen(sheet);
+        assertEquals(true, opened.needsRecalculation());
+        opened.computeValues();
+        assertEquals(16.0, opened.getCellStore().getValue(0, 1));
+    }
+
+    /**
+     * Opens files that are not workbooks.
+     *
+     * @throws IOException If the files cannot be written.
+     */
+    @Test
+    void rejectsOtherFiles() throws IOException {
+        Path empty = Files.write(directory.resolve("empty.wb"), new byte[0]);
+        Path csv = Files.writeString(directory.resolve("sheet.wb"), "1,2,3\n4,5,6\n".repeat(20));
+        assertThrows(IOException.class, () -> WorkbookFile.open(empty.toString()));
+        assertThrows(IOException.class, () -> WorkbookFile.open(csv.toString()));
+    }
+
+    /**
+     * Saves a spreadsheet to a workbook file of the temporary directory and opens it.
+     *
+     * @param sheet The spreadsheet.
+     * @return The opened spreadsheet.
+     * @throws IOException If the workbook cannot be written or read.
+     */
+    private SpreadSheet saveAndOpen(SpreadSheet sheet) throws IOException {
+        String path = directory.resolve("sheet.wb").toString();
+        WorkbookFile.save(sheet, path);
+        return WorkbookFile.open(path);
+    }
+
+    /**
+     * Compares the type, stored value, text and formula of every cell of two spreadsheets.
+     *
+     * @param expected The saved spreadsheet.
+     * @param actual   The opened spreadsheet.
+     */
+    static void assertSameCells(SpreadSheet expected, SpreadSheet actual) {
+        CellStore expectedStore = expected.getCellStore();
+        CellStore actualStore = actual.getCellStore();
+        for (int row = 0; row < expected.getRows(); row++) {
+            for (int column = 0; column < expected.getColumns(); column++) {
+                String cell = CellReference.toString(row, column);
+                byte type = expectedStore.getType(row, column);
+                assertEquals(type, actualStore.getType(row, column), cell);
+                if (type == CellStore.TEXT) {
+                    assertEquals(expectedStore.getText(row, column), actualStore.getText(row, column), cell);
+                } else if (type == CellStore.FORMULA) {
+                    assertEquals(expectedStore.getFormula(row, column).getFormulaString(),
+                            actualStore.getFormula(row, column).getFormulaString(), cell);
+                }
+                if (type == CellStore.NUMBER || type == CellStore.FORMULA) {
+                    assertEquals(expectedStore.getValue(row, column), actualStore.getValue(row, column), cell);
+                }
+            }
+        }
+    }
+}